@@ -0,0 +1,33 @@
+-- Keep the total price of each order in the commande table, updated by a
+-- trigger each time a product of an order is added, modified or removed.
+-- Must be executed once on the database : the server uses the column only if
+-- the column and the trigger exist, and computes totals otherwise.
+-- Totals of existing orders are computed in the same transaction as the
+-- creation of the trigger, so products can't be modified in between.
+BEGIN;
+
+ALTER TABLE commande ADD COLUMN IF NOT EXISTS total_commande NUMERIC NOT NULL DEFAULT 0;
+
+-- only the difference is added to the total, so the trigger doesn't read the
+-- other products of the order
+CREATE OR REPLACE FUNCTION drive_update_order_total() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP <> 'INSERT' THEN
+		UPDATE commande SET total_commande = total_commande - coalesce(OLD.prix_total_commande, 0)
+		WHERE id_commande = OLD.id_commande;
+	END IF;
+	IF TG_OP <> 'DELETE' THEN
+		UPDATE commande SET total_commande = total_commande + coalesce(NEW.prix_total_commande, 0)
+		WHERE id_commande = NEW.id_commande;
+	END IF;
+	RETURN NULL;
+END; $$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS drive_order_total ON produit_commande;
+CREATE TRIGGER drive_order_total AFTER INSERT OR UPDATE OR DELETE ON produit_commande
+FOR EACH ROW EXECUTE PROCEDURE drive_update_order_total();
+
+UPDATE commande SET total_commande = coalesce((SELECT SUM(prix_total_commande) FROM produit_commande
+	WHERE produit_commande.id_commande = commande.id_commande), 0);
+
+COMMIT;
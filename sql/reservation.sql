@@ -0,0 +1,10 @@
+-- Quantities of products reserved by orders that are not validated yet.
+-- Must be executed once on the database : reservations are refused by the
+-- server while this table doesn't exist.
+CREATE TABLE IF NOT EXISTS reservation (
+	id_commande INTEGER NOT NULL,
+	id_produit INTEGER NOT NULL,
+	quantite_reservee INTEGER NOT NULL CHECK (quantite_reservee > 0),
+	date_expiration TIMESTAMP NOT NULL,
+	PRIMARY KEY (id_commande, id_produit)
+);
@@ -0,0 +1,150 @@
+package data;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Prices are kept as a number of cents in a {@code long} : they are parsed and
+ * written directly in the bytes of messages without creating objects, and take
+ * less memory than {@link BigDecimal}.<p>
+ * {@link BigDecimal} is only used when prices are read from or written in the
+ * database.
+ *
+ * @author Aldric Vitali Silvestre <aldric.vitali@outlook.fr>
+ */
+public final class Money {
+
+	/**
+	 * The smallest price accepted for a product or a promotion (0.01)
+	 */
+	public static final long MINIMUM_PRICE = 1;
+
+	private Money() {
+	}
+
+	/**
+	 * Read a price written with at most 2 decimals ("12", "12.5", "12.50" or
+	 * "12,50")
+	 *
+	 * @param bytes the array containing the price (ASCII)
+	 * @param start the index of the first character of the price
+	 * @param end   the index following the last character of the price
+	 * @return the price in cents
+	 * @throws NumberFormatException if the characters are not a price, or have
+	 *                               more than 2 decimals
+	 */
+	public static long parse(byte[] bytes, int start, int end) {
+		int position = start;
+		boolean isNegative = false;
+		if (position < end && (bytes[position] == '-' || bytes[position] == '+')) {
+			isNegative = bytes[position] == '-';
+			position++;
+		}
+		long units = 0;
+		int digitsNumber = 0;
+		for (; position < end && bytes[position] != '.' && bytes[position] != ','; position++) {
+			int digit = bytes[position] - '0';
+			if (digit < 0 || digit > 9 || units > (Long.MAX_VALUE / 100 - digit) / 10) {
+				throw numberFormatException(bytes, start, end);
+			}
+			units = units * 10 + digit;
+			digitsNumber++;
+		}
+		long cents = 0;
+		if (position < end) {
+			// skip the separator, then read 2 decimals at most
+			position++;
+			int decimalsNumber = end - position;
+			if (decimalsNumber > 2) {
+				throw numberFormatException(bytes, start, end);
+			}
+			for (int i = 0; i < 2; i++) {
+				cents *= 10;
+				if (i < decimalsNumber) {
+					int digit = bytes[position + i] - '0';
+					if (digit < 0 || digit > 9) {
+						throw numberFormatException(bytes, start, end);
+					}
+					cents += digit;
+					digitsNumber++;
+				}
+			}
+		}
+		if (digitsNumber == 0) {
+			throw numberFormatException(bytes, start, end);
+		}
+		long value = units * 100 + cents;
+		return isNegative ? -value : value;
+	}
+
+	/**
+	 * @see #parse(byte[], int, int)
+	 */
+	public static long parse(String price) {
+		// characters that are not ASCII are replaced by '?', so they are refused. A
+		// character written with 2 chars (surrogate pair) gives a single '?'
+		byte[] bytes = price.getBytes(StandardCharsets.US_ASCII);
+		return parse(bytes, 0, bytes.length);
+	}
+
+	private static NumberFormatException numberFormatException(byte[] bytes, int start, int end) {
+		return new NumberFormatException(
+				"For input string: \"" + new String(bytes, start, end - start, StandardCharsets.UTF_8) + "\"");
+	}
+
+	/**
+	 * Write a price with 2 decimals ("12.50")
+	 *
+	 * @param cents       the price in cents
+	 * @param destination the array where to write (ASCII), which must have 22
+	 *                    bytes free at least
+	 * @param position    the index where the first character will be written
+	 * @return the index following the last character written
+	 */
+	public static int write(long cents, byte[] destination, int position) {
+		if (cents < 0) {
+			destination[position++] = '-';
+		}
+		long absoluteCents = Math.abs(cents);
+		long units = absoluteCents / 100;
+		int digitsNumber = 1;
+		for (long rest = units / 10; rest > 0; rest /= 10) {
+			digitsNumber++;
+		}
+		int end = position + digitsNumber;
+		for (int i = end - 1; i >= position; i--) {
+			destination[i] = (byte) ('0' + units % 10);
+			units /= 10;
+		}
+		destination[end++] = '.';
+		destination[end++] = (byte) ('0' + absoluteCents % 100 / 10);
+		destination[end++] = (byte) ('0' + absoluteCents % 10);
+		return end;
+	}
+
+	/**
+	 * @return the price written with 2 decimals ("12.50")
+	 */
+	public static String toString(long cents) {
+		byte[] bytes = new byte[22];
+		return new String(bytes, 0, write(cents, bytes, 0), StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Convert a price in order to write it in the database
+	 */
+	public static BigDecimal toBigDecimal(long cents) {
+		return BigDecimal.valueOf(cents, 2);
+	}
+
+	/**
+	 * Convert a price read from the database. Decimals after the cents are
+	 * rounded.
+	 *
+	 * @throws ArithmeticException if the price is too high to be stored in cents
+	 */
+	public static long fromBigDecimal(BigDecimal price) {
+		return price.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+	}
+}
@@ -1,7 +1,9 @@
 package data;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 
 import data.enums.ActionCodes;
@@ -15,57 +17,209 @@ import data.enums.ActionCodes;
  *
  */
 public class Protocol {
+	/**
+	 * Change this constant in order to modify the initial size of the buffer of the options (it grows if needed)
+	 */
+	private static final int INITIAL_BUFFER_SIZE = 64;
+
 	/**
 	 * The action code will be the first string in every protocol
 	 */
 	private ActionCodes actionCode;
-	
+
+	/**
+	 * options are all strings that are added after actionCode in protocol.<p>
+	 * They are stored in a frame, where the field 0 is the action code and the next fields are the options.
+	 */
+	private ProtocolFrame frame;
+
+	/**
+	 * False when the frame is the one of a connection : it must be copied before adding options
+	 */
+	private boolean isFrameOwned;
+
 	/**
-	 * options are all strings that are added after actionCode in protocol
+	 * True if the protocol is shared and can't be modified anymore
 	 */
-	private List<String> options = new LinkedList<>();
-	
+	private boolean isImmutable = false;
+
+	/**
+	 * The string and the bytes of an immutable protocol, created only once
+	 */
+	private String encoded;
+	private byte[] encodedBytes;
+
 	public Protocol(ActionCodes actionCode) {
 		this.actionCode = actionCode;
+		frame = new ProtocolFrame(INITIAL_BUFFER_SIZE);
+		isFrameOwned = true;
 	}
-	
+
 	public Protocol(ActionCodes actionCode, List<String> args) {
-		this.actionCode = actionCode;
-		options = args;
+		this(actionCode);
+		for(String arg : args) {
+			appendOption(arg);
+		}
+	}
+
+	/**
+	 * Create a protocol reading its options in a frame (the first field of the frame being the action code)
+	 * @param frame the frame containing the message recieved
+	 */
+	Protocol(ProtocolFrame frame) {
+		attachToFrame(frame);
 	}
-	
+
+	/**
+	 * @return a copy of the options : modifying it doesn't modify the protocol
+	 */
 	public List<String> getOptionsList(){
+		List<String> options = new ArrayList<>(getOptionsListSize());
+		for(int i = 1; i < frame.getFieldCount(); i++) {
+			options.add(frame.getField(i));
+		}
 		return options;
 	}
-	
+
 	public int getOptionsListSize() {
-		return options.size();
+		return frame.getFieldCount() - 1;
 	}
-	
+
 	/**
 	 * @param index the position of the string in the list
-	 * @return the string at specified position or {@code null} if index is out of bounds
+	 * @return the string at specified position
+	 * @throws IndexOutOfBoundsException if index is out of bounds
 	 */
 	public String getOptionsElement(int index) {
-		return options.get(index);
+		return frame.getField(index + 1);
+	}
+
+	/**
+	 * Read an option as an integer. The option is only parsed the first time.
+	 * @param index the position of the option
+	 * @throws NumberFormatException if the option is not an integer
+	 * @throws IndexOutOfBoundsException if index is out of bounds
+	 */
+	public int getInt(int index) {
+		long value = frame.getLong(index + 1);
+		if(value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			throw new NumberFormatException("For input string: \"" + getOptionsElement(index) + "\"");
+		}
+		return (int) value;
+	}
+
+	/**
+	 * @see #getInt(int)
+	 */
+	public long getLong(int index) {
+		return frame.getLong(index + 1);
+	}
+
+	/**
+	 * Read an option containing a price ("12", "12.5" or "12.50"). The option is only parsed the first time.
+	 * @param index the position of the option
+	 * @return the price in cents
+	 * @throws NumberFormatException if the option is not a price or has more than 2 decimals
+	 * @throws IndexOutOfBoundsException if index is out of bounds
+	 */
+	public long getPriceCents(int index) {
+		return frame.getCents(index + 1);
 	}
 
 	public ActionCodes getActionCode() {
 		return actionCode;
 	}
-	
+
 	public void setActionCode(ActionCodes actionCode) {
+		checkMutable();
 		this.actionCode = actionCode;
 	}
-	
+
+	/**
+	 * Forbid any modification of the protocol, so it can be shared and sent several times.
+	 * Its string and its bytes are created once and for all.
+	 * @return this protocol
+	 */
+	public Protocol freeze() {
+		if(isImmutable) {
+			return this;
+		}
+		detachFromFrame();
+		encoded = toString();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try {
+			writeTo(output);
+		} catch (IOException e) {
+			// never thrown by a ByteArrayOutputStream
+			throw new IllegalStateException(e);
+		}
+		encodedBytes = output.toByteArray();
+		isImmutable = true;
+		return this;
+	}
+
+	public boolean isImmutable() {
+		return isImmutable;
+	}
+
+	private void checkMutable() {
+		if(isImmutable) {
+			throw new UnsupportedOperationException("This protocol is shared, it can't be modified");
+		}
+	}
+
+	/**
+	 * Read options in the frame of a connection
+	 */
+	void attachToFrame(ProtocolFrame frame) {
+		this.frame = frame;
+		isFrameOwned = false;
+	}
+
+	/**
+	 * Copy options of the frame of the connection in a frame of this protocol, so they can be modified
+	 */
+	private void detachFromFrame() {
+		if(!isFrameOwned) {
+			ProtocolFrame ownFrame = new ProtocolFrame(INITIAL_BUFFER_SIZE);
+			for(int i = 1; i < frame.getFieldCount(); i++) {
+				ownFrame.appendField(frame.getBytes(), frame.getFieldStart(i), frame.getFieldLength(i));
+			}
+			frame = ownFrame;
+			isFrameOwned = true;
+		}
+	}
+
 	/**
 	 * Add an option in the protocol message.<p>
 	 * @param optionString the option to add
 	 */
 	public void appendOption(String optionString) {
-		options.add(optionString);
+		checkMutable();
+		detachFromFrame();
+		frame.appendField(String.valueOf(optionString));
+	}
+
+	/**
+	 * Add an option containing an integer, without creating a string
+	 * @param value the number to add
+	 */
+	public void appendInt(long value) {
+		checkMutable();
+		detachFromFrame();
+		frame.appendNumber(value);
 	}
-	
+
+	/**
+	 * Add an option containing a price, written with 2 decimals
+	 * @param cents the price in cents
+	 */
+	public void appendPrice(long cents) {
+		checkMutable();
+		detachFromFrame();
+		frame.appendCents(cents);
+	}
+
 	/**
 	 * Add a special option : the data of an article
 	 * @param productName the name of the article
@@ -74,23 +228,49 @@ public class Protocol {
 	 */
 	public void appendProduct(String IdArticle, String productName, String productPrice, String productQuantity) {
 		String productOption = IdArticle+ productName + ";" + productPrice + ";" + productQuantity;
-		options.add(productOption);
+		appendOption(productOption);
 	}
-	
+
 	/**
 	 * Create the string containing all needed data, formatted respecting the protocol.
 	 * @return the string to send
 	 */
 	public String toString() {
+		if (encoded != null) {
+			return encoded;
+		}
 		StringBuilder sb = new StringBuilder();
 		sb.append('<');
 		sb.append(actionCode.getCode());
 		sb.append('>');
-		for (String s : options) {
+		for (int i = 1; i < frame.getFieldCount(); i++) {
 			sb.append('<');
-			sb.append(s);
+			sb.append(frame.getField(i));
 			sb.append('>');
 		}
 		return sb.toString();
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Write the message in a stream, followed by a new line. Options are already encoded in UTF-8,
+	 * so they are copied without being converted to characters.
+	 * @param output the stream where to write
+	 * @throws IOException if the message could not be written
+	 */
+	public void writeTo(OutputStream output) throws IOException {
+		if (encodedBytes != null) {
+			output.write(encodedBytes);
+			return;
+		}
+		output.write('<');
+		actionCode.writeTo(output);
+		output.write('>');
+		byte[] bytes = frame.getBytes();
+		for (int i = 1; i < frame.getFieldCount(); i++) {
+			output.write('<');
+			output.write(bytes, frame.getFieldStart(i), frame.getFieldLength(i));
+			output.write('>');
+		}
+		output.write('\n');
+	}
+}
@@ -0,0 +1,342 @@
+package data;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Positions of the fields of a message, kept directly in the buffer where the
+ * message has been read. Messages are encoded in UTF-8, and stay encoded : the
+ * delimiters '<' and '>' can't be part of a multi-byte character, so fields are
+ * found in the bytes directly.<p>
+ * A frame is created once per connection and reused for each message, so
+ * reading a message doesn't create any object. Strings are only decoded for
+ * the fields that are asked, and numbers are parsed from the bytes only once,
+ * both being kept until the next message.<p>
+ * Protocols created by the server also store their options in a frame, which
+ * has its own buffer : numbers are then written in it without creating
+ * strings, and the bytes are sent as they are.
+ *
+ * @author Aldric Vitali Silvestre <aldric.vitali@outlook.fr>
+ */
+public class ProtocolFrame {
+	/**
+	 * Number of fields that can be stored before arrays have to grow
+	 */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * Kinds of values kept in {@link #parsedValues}
+	 */
+	private static final byte NOT_PARSED = 0;
+	private static final byte PARSED_NUMBER = 1;
+	private static final byte PARSED_CENTS = 2;
+
+	private byte[] bytes;
+
+	/**
+	 * Number of bytes used in the buffer, only for frames having their own
+	 * buffer
+	 */
+	private int length;
+
+	/**
+	 * True if the buffer belongs to this frame, false if it is the buffer of a
+	 * connection (which must not be modified)
+	 */
+	private boolean isBufferOwned;
+
+	private int[] fieldStarts = new int[INITIAL_CAPACITY];
+	private int[] fieldEnds = new int[INITIAL_CAPACITY];
+	private int fieldCount;
+
+	/**
+	 * Strings already created for the fields of the current message
+	 */
+	private String[] fieldStrings = new String[INITIAL_CAPACITY];
+
+	/**
+	 * Numbers already parsed for the fields of the current message
+	 */
+	private long[] parsedValues = new long[INITIAL_CAPACITY];
+	private byte[] parsedKinds = new byte[INITIAL_CAPACITY];
+
+	/**
+	 * The protocol reading its options in this frame, reused for each message
+	 */
+	private Protocol protocol;
+
+	/**
+	 * Used to decode the fields that are read as strings, created the first time
+	 * it is needed and then reused (with its buffers) for all messages
+	 */
+	private CharsetDecoder decoder;
+	private ByteBuffer decoderInput;
+	private CharBuffer decoderOutput;
+
+	/**
+	 * Create a frame used to read the messages of a connection
+	 */
+	public ProtocolFrame() {
+		protocol = new Protocol(this);
+	}
+
+	/**
+	 * Create a frame with its own buffer, in order to write options in it. The
+	 * field 0 (action code) is empty, since the code is kept by the protocol.
+	 *
+	 * @param capacity the initial number of bytes of the buffer
+	 */
+	ProtocolFrame(int capacity) {
+		bytes = new byte[capacity];
+		isBufferOwned = true;
+		addField(0, 0);
+	}
+
+	/**
+	 * Forget the previous message, in order to read a new one
+	 *
+	 * @param bytes the buffer containing the new message, encoded in UTF-8
+	 */
+	public void reset(byte[] bytes) {
+		this.bytes = bytes;
+		Arrays.fill(fieldStrings, 0, fieldCount, null);
+		Arrays.fill(parsedKinds, 0, fieldCount, NOT_PARSED);
+		fieldCount = 0;
+		// the previous message could have been modified
+		protocol.attachToFrame(this);
+	}
+
+	/**
+	 * Add a field found in the buffer
+	 *
+	 * @param start the index of the first byte of the field
+	 * @param end   the index following the last byte of the field
+	 */
+	public void addField(int start, int end) {
+		if (fieldCount == fieldStarts.length) {
+			int newCapacity = fieldCount * 2;
+			fieldStarts = Arrays.copyOf(fieldStarts, newCapacity);
+			fieldEnds = Arrays.copyOf(fieldEnds, newCapacity);
+			fieldStrings = Arrays.copyOf(fieldStrings, newCapacity);
+			parsedValues = Arrays.copyOf(parsedValues, newCapacity);
+			parsedKinds = Arrays.copyOf(parsedKinds, newCapacity);
+		}
+		fieldStarts[fieldCount] = start;
+		fieldEnds[fieldCount] = end;
+		fieldCount++;
+	}
+
+	public int getFieldCount() {
+		return fieldCount;
+	}
+
+	/**
+	 * @return the buffer containing the fields, encoded in UTF-8
+	 */
+	public byte[] getBytes() {
+		return bytes;
+	}
+
+	public int getFieldStart(int index) {
+		checkIndex(index);
+		return fieldStarts[index];
+	}
+
+	public int getFieldLength(int index) {
+		checkIndex(index);
+		return fieldEnds[index] - fieldStarts[index];
+	}
+
+	/**
+	 * @param index the position of the field (the action code is the field 0)
+	 * @return the content of the field, decoded the first time it is asked
+	 * @throws IndexOutOfBoundsException if there is no field at this position
+	 */
+	public String getField(int index) {
+		checkIndex(index);
+		String field = fieldStrings[index];
+		if (field == null) {
+			field = decode(fieldStarts[index], fieldEnds[index]);
+			fieldStrings[index] = field;
+		}
+		return field;
+	}
+
+	private String decode(int start, int end) {
+		if (decoder == null) {
+			decoder = StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+		if (decoderInput == null || decoderInput.array() != bytes) {
+			decoderInput = ByteBuffer.wrap(bytes);
+		}
+		// there are never more characters than bytes in UTF-8
+		if (decoderOutput == null || decoderOutput.capacity() < end - start) {
+			decoderOutput = CharBuffer.allocate(Math.max(INITIAL_CAPACITY * 4, end - start));
+		}
+		decoderInput.limit(end);
+		decoderInput.position(start);
+		decoderOutput.clear();
+		decoder.reset();
+		decoder.decode(decoderInput, decoderOutput, true);
+		decoder.flush(decoderOutput);
+		return new String(decoderOutput.array(), 0, decoderOutput.position());
+	}
+
+	/**
+	 * Read a field as an integer, parsing it only the first time
+	 *
+	 * @see Integer#parseInt(String)
+	 * @throws NumberFormatException     if the field is not an integer
+	 * @throws IndexOutOfBoundsException if there is no field at this position
+	 */
+	public long getLong(int index) {
+		checkIndex(index);
+		if (parsedKinds[index] != PARSED_NUMBER) {
+			parsedValues[index] = parseLong(index);
+			parsedKinds[index] = PARSED_NUMBER;
+		}
+		return parsedValues[index];
+	}
+
+	/**
+	 * Read a field as a price ("12", "12.5" or "12.50"), parsing it only the first
+	 * time
+	 *
+	 * @return the price in cents
+	 * @throws NumberFormatException     if the field is not a price, or has more
+	 *                                   than 2 decimals
+	 * @throws IndexOutOfBoundsException if there is no field at this position
+	 */
+	public long getCents(int index) {
+		checkIndex(index);
+		if (parsedKinds[index] != PARSED_CENTS) {
+			parsedValues[index] = Money.parse(bytes, fieldStarts[index], fieldEnds[index]);
+			parsedKinds[index] = PARSED_CENTS;
+		}
+		return parsedValues[index];
+	}
+
+	private long parseLong(int index) {
+		int position = fieldStarts[index];
+		int end = fieldEnds[index];
+		boolean isNegative = false;
+		if (position < end && (bytes[position] == '-' || bytes[position] == '+')) {
+			isNegative = bytes[position] == '-';
+			position++;
+		}
+		if (position == end) {
+			throw numberFormatException(index);
+		}
+		long value = 0;
+		for (; position < end; position++) {
+			int digit = bytes[position] - '0';
+			if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10) {
+				throw numberFormatException(index);
+			}
+			value = value * 10 + digit;
+		}
+		return isNegative ? -value : value;
+	}
+
+	private NumberFormatException numberFormatException(int index) {
+		// same message as Integer.parseInt()
+		return new NumberFormatException("For input string: \"" + getField(index) + "\"");
+	}
+
+	/**
+	 * Add a field at the end of the buffer
+	 *
+	 * @param source the bytes of the field, encoded in UTF-8
+	 */
+	void appendField(byte[] source, int offset, int count) {
+		ensureCapacity(count);
+		System.arraycopy(source, offset, bytes, length, count);
+		addField(length, length + count);
+		length += count;
+	}
+
+	void appendField(String field) {
+		byte[] fieldBytes = field.getBytes(StandardCharsets.UTF_8);
+		appendField(fieldBytes, 0, fieldBytes.length);
+		// the string is already created, so we keep it
+		fieldStrings[fieldCount - 1] = field;
+	}
+
+	/**
+	 * Add a field containing a number, without creating a string
+	 */
+	void appendNumber(long value) {
+		// 19 digits and the sign
+		ensureCapacity(20);
+		int start = length;
+		length = writeDigits(value, length);
+		addField(start, length);
+		parsedValues[fieldCount - 1] = value;
+		parsedKinds[fieldCount - 1] = PARSED_NUMBER;
+	}
+
+	/**
+	 * Add a field containing a price, written with 2 decimals ("12.50")
+	 *
+	 * @param cents the price in cents
+	 */
+	void appendCents(long cents) {
+		ensureCapacity(22);
+		int start = length;
+		length = Money.write(cents, bytes, length);
+		addField(start, length);
+		parsedValues[fieldCount - 1] = cents;
+		parsedKinds[fieldCount - 1] = PARSED_CENTS;
+	}
+
+	/**
+	 * @return the index following the last digit written
+	 */
+	private int writeDigits(long value, int position) {
+		// digits are read from the negative value : Long.MIN_VALUE has no positive
+		// value
+		if (value < 0) {
+			bytes[position++] = '-';
+		} else {
+			value = -value;
+		}
+		int digitsNumber = 1;
+		for (long rest = value / 10; rest < 0; rest /= 10) {
+			digitsNumber++;
+		}
+		int end = position + digitsNumber;
+		for (int i = end - 1; i >= position; i--) {
+			bytes[i] = (byte) ('0' - value % 10);
+			value /= 10;
+		}
+		return end;
+	}
+
+	private void ensureCapacity(int count) {
+		if (!isBufferOwned) {
+			throw new IllegalStateException("The buffer of a connection can't be modified");
+		}
+		if (length + count > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + count));
+		}
+	}
+
+	/**
+	 * @return the protocol of the current message, which will be modified by the
+	 *         next message
+	 */
+	public Protocol getProtocol() {
+		return protocol;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= fieldCount) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + fieldCount);
+		}
+	}
+}
@@ -1,5 +1,9 @@
 package data.enums;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
 import exceptions.CodeNotFoundException;
 
 /**
@@ -9,39 +13,89 @@ import exceptions.CodeNotFoundException;
 public enum ActionCodes {
 	CONNECTION_NORMAL("0001"),
 	CONNECTION_ADMIN("0002"),
+	CONNECTION_RESUME("0003"),
 	DISCONNECT("1000"),
 	ADD_NEW_PRODUCT("0101"),
 	ADD_PRODUCT_QUANTITY("0102"),
 	REMOVE_PRODUCT_QUANTITY("0103"),
 	REMOVE_PRODUCT_DEFINITELY("0104"),
+	ADJUST_SEVERAL_STOCKS("0105"),
 	VALIDATE_ORDER("0201"),
 	DELETE_ORDER("0202"),
+	RESERVE_PRODUCT("0203"),
 	GET_PRODUCT_LIST("0301"),
 	GET_ORDER_LIST("0302"),
 	GET_SPECIFIC_PRDUCT("0303"),
 	GET_SPECIFIC_ORDER("0304"),
+	GET_SEVERAL_PRODUCTS("0306"),
+	SEARCH_PRODUCTS("0307"),
+	GET_LOWEST_STOCKS("0308"),
+	GET_STOCKS_BELOW("0309"),
+	GET_PROMOTED_PRODUCTS("0310"),
 	APPLY_PROMOTION("0501"),
 	REMOVE_PROMOTION("0502"),
+	SUBSCRIBE_PRODUCTS("0601"),
+	UNSUBSCRIBE_PRODUCTS("0602"),
 	
 	//Administrator only
 	GET_EMPLOYEE_LIST("0305"),
+	IMPORT_PRODUCTS("0106"),
 	ADD_EMPLOYE("0401"),
 	REMOVE_EMPLOYE("0402"),
 	
 	//Code sent by server only
 	ERROR("9991"),
 	ERROR_TIME_OUT("9992"),
-	SUCESS("9993");
+	SUCESS("9993"),
+	PRODUCT_UPDATE("9994");
+	
+	/**
+	 * Action code of each 4 digits number, {@code null} if the number is not a code.
+	 * A code is found with a single array access, whatever the number of codes.
+	 */
+	private static final ActionCodes[] CODES_TABLE = new ActionCodes[10000];
+	static {
+		for(ActionCodes ac : values()) {
+			CODES_TABLE[Integer.parseInt(ac.code)] = ac;
+		}
+	}
 	
 	private String code;
+	
+	/**
+	 * The code already encoded, so it can be copied directly in messages
+	 */
+	private byte[] codeBytes;
+	
 	private ActionCodes(String code) {
 		this.code = code;
+		codeBytes = code.getBytes(StandardCharsets.US_ASCII);
 	}
 	
 	public String getCode() {
 		return code;
 	}
 	
+	/**
+	 * Write the code in a byte array
+	 * @param destination the array where to write the code
+	 * @param offset the index where the first character of the code will be written
+	 * @return the index following the last character written
+	 */
+	public int writeTo(byte[] destination, int offset) {
+		System.arraycopy(codeBytes, 0, destination, offset, codeBytes.length);
+		return offset + codeBytes.length;
+	}
+	
+	/**
+	 * Write the code in a stream
+	 * @param output the stream where to write the code
+	 * @throws IOException if the code could not be written
+	 */
+	public void writeTo(OutputStream output) throws IOException {
+		output.write(codeBytes);
+	}
+	
 	/**
 	 * Get the action code enum related to the string 
 	 * @param actionCode the code we need to get enum
@@ -53,13 +107,49 @@ public enum ActionCodes {
 		if(actionCode.length() != 4) {
 			throw new CodeNotFoundException(actionCode + " n'est pas compos de 4 caractres.");
 		}
-		
-		for(ActionCodes ac : values()) {
-			if(ac.getCode().equals(actionCode)) {
+		ActionCodes ac = fromNumber(toNumber(actionCode.charAt(0), actionCode.charAt(1), actionCode.charAt(2), actionCode.charAt(3)));
+		if(ac == null) {
+			//no action code found here
+			throw new CodeNotFoundException(actionCode + " n'est pas un code valide.");
+		}
+		return ac;
+	}
+	
+	/**
+	 * Get the action code enum written in a part of a byte array (ASCII), without creating a string
+	 * @param bytes the array containing the code
+	 * @param offset the index of the first byte of the code
+	 * @param length the number of bytes of the code
+	 * @return the ActionCodes associated with it
+	 * @throws CodeNotFoundException if code could not be found
+	 */
+	public static ActionCodes fromBytes(byte[] bytes, int offset, int length) throws CodeNotFoundException{
+		if(length == 4) {
+			ActionCodes ac = fromNumber(toNumber((char) bytes[offset], (char) bytes[offset + 1], (char) bytes[offset + 2], (char) bytes[offset + 3]));
+			if(ac != null) {
 				return ac;
 			}
 		}
-		//no action code found here
-		throw new CodeNotFoundException(actionCode + " n'est pas un code valide.");
+		//error case : the string is only created here
+		return fromCode(new String(bytes, offset, length, StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * @return the number written with these 4 digits, or -1 if one of them is not a digit
+	 */
+	private static int toNumber(char c0, char c1, char c2, char c3) {
+		int d0 = c0 - '0';
+		int d1 = c1 - '0';
+		int d2 = c2 - '0';
+		int d3 = c3 - '0';
+		//if one of them is negative, the OR is negative too
+		if((d0 | d1 | d2 | d3) < 0 || d0 > 9 || d1 > 9 || d2 > 9 || d3 > 9) {
+			return -1;
+		}
+		return d0 * 1000 + d1 * 100 + d2 * 10 + d3;
+	}
+	
+	private static ActionCodes fromNumber(int number) {
+		return number < 0 ? null : CODES_TABLE[number];
 	}
 }
@@ -0,0 +1,109 @@
+package process.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keep in memory, for a short time, the credentials that have been recently
+ * verified in the database. Many clients reconnecting at the same time then
+ * don't need to query the database.<p>
+ * Passwords are never stored : only a salted hash of the login and password is
+ * kept, and only for successful connections.
+ * 
+ * @author Aldric Vitali Silvestre <aldric.vitali@outlook.fr>
+ */
+public class CredentialCache {
+
+	/**
+	 * Change this constant in order to keep credentials for a longer time
+	 */
+	private static final long TIME_TO_LIVE = 5 * 60 * 1000;
+
+	private static final String HASH_ALGORITHM = "SHA-256";
+
+	/**
+	 * Random salt, different each time the server starts
+	 */
+	private final byte[] salt = new byte[16];
+
+	private Map<String, CachedCredential> credentials = new ConcurrentHashMap<>();
+
+	public CredentialCache() {
+		new SecureRandom().nextBytes(salt);
+	}
+
+	/**
+	 * Check if this login and password have been recently verified
+	 * 
+	 * @param login    the name of the user
+	 * @param password the password sent by the user
+	 * @param isAdmin  if user wants to connect as administrator
+	 * @return true if credentials are valid, false if they are not known (they
+	 *         must then be checked in the database)
+	 */
+	public boolean isValid(String login, String password, boolean isAdmin) {
+		String key = createKey(login, isAdmin);
+		CachedCredential credential = credentials.get(key);
+		if (credential == null) {
+			return false;
+		}
+		if (credential.expirationTime < System.currentTimeMillis()) {
+			credentials.remove(key, credential);
+			return false;
+		}
+		return MessageDigest.isEqual(credential.hash, hash(login, password));
+	}
+
+	/**
+	 * Store credentials that have been verified in the database
+	 */
+	public void store(String login, String password, boolean isAdmin) {
+		credentials.put(createKey(login, isAdmin),
+				new CachedCredential(hash(login, password), System.currentTimeMillis() + TIME_TO_LIVE));
+	}
+
+	/**
+	 * Forget credentials of this user (when he is deleted or his password changes
+	 * for example)
+	 */
+	public void invalidate(String login) {
+		credentials.remove(createKey(login, true));
+		credentials.remove(createKey(login, false));
+	}
+
+	public void invalidateAll() {
+		credentials.clear();
+	}
+
+	private String createKey(String login, boolean isAdmin) {
+		return (isAdmin ? "A:" : "E:") + login;
+	}
+
+	private byte[] hash(String login, String password) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
+			digest.update(salt);
+			digest.update(login.getBytes(StandardCharsets.UTF_8));
+			// separator, so "ab" + "c" and "a" + "bc" don't give the same hash
+			digest.update((byte) 0);
+			return digest.digest(password.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform must support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static class CachedCredential {
+		private final byte[] hash;
+		private final long expirationTime;
+
+		public CachedCredential(byte[] hash, long expirationTime) {
+			this.hash = hash;
+			this.expirationTime = expirationTime;
+		}
+	}
+}
@@ -0,0 +1,584 @@
+package process.cache;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.log4j.Logger;
+
+import data.Money;
+import logger.LoggerUtility;
+import process.database.DatabaseManager;
+
+/**
+ * All products kept in memory, stored by columns : one array of ids, one of
+ * prices, one of stocks... Names are encoded in UTF-8 in a single byte array,
+ * where a name is only stored once.<p>
+ * Readers never lock : they take a {@link Snapshot} and read its arrays. Stocks,
+ * prices and promotions are modified directly in the arrays, so readers see
+ * them at once. Adding a product writes after the last slot and then publishes
+ * a new snapshot ; when arrays are full (or contain too many removed products),
+ * they are copied in bigger ones, the previous snapshot staying valid for the
+ * readers still using it.<p>
+ * Modifications are done one at a time.
+ *
+ * @author Aldric Vitali Silvestre <aldric.vitali@outlook.fr>
+ */
+public class ProductCatalog {
+	private static Logger logger = LoggerUtility.getLogger(ProductCatalog.class, LoggerUtility.LOG_PREFERENCE);
+
+	/**
+	 * Value of the promotion of products that don't have one
+	 */
+	public static final long NO_PROMOTION = Long.MIN_VALUE;
+
+	/**
+	 * Id stored in the slot of a product that has been removed
+	 */
+	private static final int REMOVED = Integer.MIN_VALUE;
+
+	/**
+	 * Keys of the index for empty positions and positions of removed products
+	 */
+	private static final int EMPTY_KEY = Integer.MIN_VALUE;
+	private static final int DELETED_KEY = Integer.MIN_VALUE + 1;
+
+	private static final int INITIAL_CAPACITY = 256;
+
+	private static final String SELECT_QUERY = "SELECT produit.id_produit, nom_produit, prix_produit, stock_total_produit, prix_promotion "
+			+ "FROM produit LEFT OUTER JOIN promotion ON produit.id_produit = promotion.id_produit";
+
+	private DatabaseManager databaseManager;
+
+	/**
+	 * The snapshot used by readers
+	 */
+	private volatile Snapshot snapshot = new Snapshot(INITIAL_CAPACITY, INITIAL_CAPACITY * 16,
+			new ProductStockIndex());
+
+	/*
+	 * Only used by modifications
+	 */
+
+	/**
+	 * The snapshot modified, which is not published while the catalog is loaded
+	 */
+	private Snapshot current = snapshot;
+
+	private boolean isLoading;
+
+	/**
+	 * Incremented each time a name is added, modified or removed, so indexes built
+	 * on names know when they must be built again
+	 */
+	private volatile int namesVersion;
+
+	/**
+	 * Number of bytes used in the names array
+	 */
+	private int namesLength;
+
+	/**
+	 * Number of slots of removed products
+	 */
+	private int removedNumber;
+
+	/**
+	 * Number of positions of the index used by a key or a removed key
+	 */
+	private int usedIndexPositions;
+
+	/**
+	 * References of the names already stored, in order to store each name only
+	 * once (0 for an empty position)
+	 */
+	private long[] nameTable = new long[INITIAL_CAPACITY * 2];
+	private int nameTableSize;
+
+	public ProductCatalog(DatabaseManager databaseManager) {
+		this.databaseManager = databaseManager;
+	}
+
+	/**
+	 * Replace all products with the ones of the database
+	 *
+	 * @throws SQLException if products can't be read
+	 */
+	public void load() throws SQLException {
+		ResultSet result = databaseManager.executeSelectQueryParams(SELECT_QUERY);
+		synchronized (this) {
+			// readers keep the previous products until all products are loaded
+			isLoading = true;
+			try {
+				clear();
+				int count = 0;
+				while (result.next()) {
+					put(result);
+					count++;
+				}
+				logger.info(count + " products loaded in catalog");
+			} finally {
+				isLoading = false;
+				snapshot = current;
+				namesVersion++;
+			}
+		}
+	}
+
+	/**
+	 * Read again a product from the database, after it has been modified elsewhere
+	 *
+	 * @param productId the id of the product
+	 */
+	public void reload(int productId) {
+		try {
+			ResultSet result = databaseManager.executeSelectQueryParams(
+					SELECT_QUERY + " WHERE produit.id_produit = ?", productId);
+			synchronized (this) {
+				if (result.next()) {
+					put(result);
+				} else {
+					remove(productId);
+				}
+			}
+		} catch (SQLException e) {
+			logger.error("Could not reload product " + productId + " in catalog : " + e.getMessage());
+		}
+	}
+
+	private void put(ResultSet result) throws SQLException {
+		BigDecimal promotion = result.getBigDecimal(5);
+		put(result.getInt(1), result.getString(2), Money.fromBigDecimal(result.getBigDecimal(3)), result.getInt(4),
+				promotion == null ? NO_PROMOTION : Money.fromBigDecimal(promotion));
+	}
+
+	/**
+	 * @return a number that changes each time the name of a product (or the list
+	 *         of products) changes
+	 */
+	public int getNamesVersion() {
+		return namesVersion;
+	}
+
+	/**
+	 * @return the current state of the catalog, that readers can use without
+	 *         locking
+	 */
+	public Snapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Add a product, or replace all its data if it already exists
+	 *
+	 * @param promotionCents the price of the promotion, or {@link #NO_PROMOTION}
+	 */
+	public synchronized void put(int productId, String name, long priceCents, int stock, long promotionCents) {
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		// room needed for a new slot, its name and its index key (arrays can be
+		// copied, so the slot is searched after)
+		ensureCapacity(nameBytes.length);
+		Snapshot current = this.current;
+		int slot = current.findSlot(productId);
+		long nameReference = storeName(current, nameBytes);
+		if (slot >= 0) {
+			boolean isRenamed = current.names.get(slot) != nameReference;
+			current.names.set(slot, nameReference);
+			current.prices.set(slot, priceCents);
+			current.stockIndex.setStock(productId, current.stocks.getAndSet(slot, stock), stock);
+			current.promotions.set(slot, promotionCents);
+			current.stockIndex.setPromotion(productId, promotionCents != NO_PROMOTION);
+			if (isRenamed) {
+				namesVersion++;
+			}
+			return;
+		}
+		slot = current.size;
+		current.names.set(slot, nameReference);
+		current.prices.set(slot, priceCents);
+		current.stocks.set(slot, stock);
+		current.promotions.set(slot, promotionCents);
+		current.ids.set(slot, productId);
+		addToIndex(current, productId, slot);
+		current.stockIndex.add(productId, stock, promotionCents != NO_PROMOTION);
+		// readers of the new snapshot will see the new slot
+		publish(new Snapshot(current, slot + 1));
+		namesVersion++;
+	}
+
+	/**
+	 * @return false if the product is not in the catalog
+	 */
+	public synchronized boolean setStock(int productId, int stock) {
+		int slot = current.findSlot(productId);
+		if (slot >= 0) {
+			current.stockIndex.setStock(productId, current.stocks.getAndSet(slot, stock), stock);
+		}
+		return slot >= 0;
+	}
+
+	/**
+	 * @param promotionCents the price of the promotion, or {@link #NO_PROMOTION}
+	 * @return false if the product is not in the catalog
+	 */
+	public synchronized boolean setPromotion(int productId, long promotionCents) {
+		int slot = current.findSlot(productId);
+		if (slot >= 0) {
+			current.promotions.set(slot, promotionCents);
+			current.stockIndex.setPromotion(productId, promotionCents != NO_PROMOTION);
+		}
+		return slot >= 0;
+	}
+
+	/**
+	 * @return false if the product was not in the catalog
+	 */
+	public synchronized boolean remove(int productId) {
+		Snapshot current = this.current;
+		int slot = current.findSlot(productId);
+		if (slot < 0) {
+			return false;
+		}
+		current.ids.set(slot, REMOVED);
+		current.stockIndex.remove(productId, current.stocks.get(slot));
+		current.indexKeys.set(current.findIndexPosition(productId), DELETED_KEY);
+		removedNumber++;
+		if (removedNumber > INITIAL_CAPACITY && removedNumber > current.size / 2) {
+			// too much space lost, we keep only the products left
+			rebuild(current.ids.length(), current.namesBytes.length);
+		}
+		namesVersion++;
+		return true;
+	}
+
+	/**
+	 * Remove all products
+	 */
+	public synchronized void clear() {
+		publish(new Snapshot(INITIAL_CAPACITY, INITIAL_CAPACITY * 16, new ProductStockIndex()));
+		namesLength = 0;
+		removedNumber = 0;
+		usedIndexPositions = 0;
+		nameTable = new long[INITIAL_CAPACITY * 2];
+		nameTableSize = 0;
+		namesVersion++;
+	}
+
+	private void publish(Snapshot modified) {
+		current = modified;
+		if (!isLoading) {
+			snapshot = modified;
+		}
+	}
+
+	/**
+	 * Copy arrays in bigger ones if there is not enough room for a new product
+	 */
+	private void ensureCapacity(int nameLength) {
+		Snapshot current = this.current;
+		int capacity = current.ids.length();
+		int namesCapacity = current.namesBytes.length;
+		boolean isFull = current.size == capacity || (usedIndexPositions + 1) * 2 > current.indexKeys.length();
+		if (!isFull && namesLength + nameLength <= namesCapacity) {
+			return;
+		}
+		int liveNumber = current.size - removedNumber;
+		int newCapacity = Math.max(capacity, (liveNumber + 1) * 2);
+		int newNamesCapacity = Math.max(namesCapacity, (namesLength + nameLength) * 2);
+		rebuild(newCapacity, newNamesCapacity);
+	}
+
+	/**
+	 * Copy products left in new arrays, without removed products. The previous
+	 * snapshot is not modified.
+	 */
+	private void rebuild(int capacity, int namesCapacity) {
+		Snapshot previous = current;
+		// removed products are not in the stock index, so it is kept as it is
+		Snapshot rebuilt = new Snapshot(capacity, Math.max(namesCapacity, 16), previous.stockIndex);
+		namesLength = 0;
+		usedIndexPositions = 0;
+		removedNumber = 0;
+		nameTable = new long[Math.max(16, Integer.highestOneBit(capacity) * 4)];
+		nameTableSize = 0;
+		int slot = 0;
+		for (int i = 0; i < previous.size; i++) {
+			int productId = previous.ids.get(i);
+			if (productId == REMOVED) {
+				continue;
+			}
+			long reference = previous.names.get(i);
+			byte[] nameBytes = Arrays.copyOfRange(previous.namesBytes, getNameOffset(reference),
+					getNameOffset(reference) + getNameLength(reference));
+			rebuilt.names.set(slot, storeName(rebuilt, nameBytes));
+			rebuilt.prices.set(slot, previous.prices.get(i));
+			rebuilt.stocks.set(slot, previous.stocks.get(i));
+			rebuilt.promotions.set(slot, previous.promotions.get(i));
+			rebuilt.ids.set(slot, productId);
+			addToIndex(rebuilt, productId, slot);
+			slot++;
+		}
+		publish(new Snapshot(rebuilt, slot));
+	}
+
+	private void addToIndex(Snapshot target, int productId, int slot) {
+		int mask = target.indexKeys.length() - 1;
+		int position = hash(productId) & mask;
+		while (target.indexKeys.get(position) != EMPTY_KEY && target.indexKeys.get(position) != DELETED_KEY) {
+			position = (position + 1) & mask;
+		}
+		if (target.indexKeys.get(position) == EMPTY_KEY) {
+			usedIndexPositions++;
+		}
+		// the slot must be written before the key, so readers finding the key find
+		// the slot
+		target.indexSlots.set(position, slot);
+		target.indexKeys.set(position, productId);
+	}
+
+	/**
+	 * Store a name in the names array, if it is not already there
+	 *
+	 * @return the reference of the name (its offset and its length)
+	 */
+	private long storeName(Snapshot target, byte[] nameBytes) {
+		int hash = Arrays.hashCode(nameBytes);
+		int mask = nameTable.length - 1;
+		int position = hash(hash) & mask;
+		while (nameTable[position] != 0) {
+			long reference = nameTable[position] - 1;
+			if (isSameName(target.namesBytes, reference, nameBytes)) {
+				return reference;
+			}
+			position = (position + 1) & mask;
+		}
+		System.arraycopy(nameBytes, 0, target.namesBytes, namesLength, nameBytes.length);
+		long reference = ((long) namesLength << 32) | nameBytes.length;
+		namesLength += nameBytes.length;
+		// 0 means empty position, so references are stored plus 1
+		nameTable[position] = reference + 1;
+		nameTableSize++;
+		if (nameTableSize * 2 > nameTable.length) {
+			growNameTable(target);
+		}
+		return reference;
+	}
+
+	private void growNameTable(Snapshot target) {
+		long[] previous = nameTable;
+		nameTable = new long[previous.length * 2];
+		int mask = nameTable.length - 1;
+		for (long storedReference : previous) {
+			if (storedReference == 0) {
+				continue;
+			}
+			long reference = storedReference - 1;
+			int offset = getNameOffset(reference);
+			int hash = hashBytes(target.namesBytes, offset, getNameLength(reference));
+			int position = hash(hash) & mask;
+			while (nameTable[position] != 0) {
+				position = (position + 1) & mask;
+			}
+			nameTable[position] = storedReference;
+		}
+	}
+
+	private static boolean isSameName(byte[] namesBytes, long reference, byte[] nameBytes) {
+		int offset = getNameOffset(reference);
+		if (getNameLength(reference) != nameBytes.length) {
+			return false;
+		}
+		for (int i = 0; i < nameBytes.length; i++) {
+			if (namesBytes[offset + i] != nameBytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Same result as {@link Arrays#hashCode(byte[])} on a part of the array
+	 */
+	private static int hashBytes(byte[] bytes, int offset, int length) {
+		int hash = 1;
+		for (int i = offset; i < offset + length; i++) {
+			hash = 31 * hash + bytes[i];
+		}
+		return hash;
+	}
+
+	private static int hash(int value) {
+		int hash = value * 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	private static int getNameOffset(long reference) {
+		return (int) (reference >>> 32);
+	}
+
+	private static int getNameLength(long reference) {
+		return (int) reference;
+	}
+
+	/**
+	 * Products of the catalog at a given time. Slots go from 0 to
+	 * {@link #getSlotsNumber()}, some of them being removed products.
+	 */
+	public static final class Snapshot {
+		private final int size;
+		private final AtomicIntegerArray ids;
+		private final AtomicLongArray prices;
+		private final AtomicIntegerArray stocks;
+		private final AtomicLongArray promotions;
+
+		/**
+		 * Reference of the name of each product : offset in the bytes array (32 high
+		 * bits) and length (32 low bits)
+		 */
+		private final AtomicLongArray names;
+		private final byte[] namesBytes;
+
+		/**
+		 * Slot of each product id, with open addressing
+		 */
+		private final AtomicIntegerArray indexKeys;
+		private final AtomicIntegerArray indexSlots;
+
+		/**
+		 * Products sorted by stock, and products having a promotion
+		 */
+		private final ProductStockIndex stockIndex;
+
+		private Snapshot(int capacity, int namesCapacity, ProductStockIndex stockIndex) {
+			size = 0;
+			this.stockIndex = stockIndex;
+			ids = new AtomicIntegerArray(capacity);
+			prices = new AtomicLongArray(capacity);
+			stocks = new AtomicIntegerArray(capacity);
+			promotions = new AtomicLongArray(capacity);
+			names = new AtomicLongArray(capacity);
+			namesBytes = new byte[namesCapacity];
+			// the index is never more than half full
+			int indexCapacity = Integer.highestOneBit(Math.max(capacity, 8) * 4 - 1);
+			indexKeys = new AtomicIntegerArray(indexCapacity);
+			for (int i = 0; i < indexCapacity; i++) {
+				indexKeys.set(i, EMPTY_KEY);
+			}
+			indexSlots = new AtomicIntegerArray(indexCapacity);
+		}
+
+		/**
+		 * Same arrays as another snapshot, with a different number of slots
+		 */
+		private Snapshot(Snapshot other, int size) {
+			this.size = size;
+			ids = other.ids;
+			prices = other.prices;
+			stocks = other.stocks;
+			promotions = other.promotions;
+			names = other.names;
+			namesBytes = other.namesBytes;
+			indexKeys = other.indexKeys;
+			indexSlots = other.indexSlots;
+			stockIndex = other.stockIndex;
+		}
+
+		/**
+		 * @return the products sorted by stock and the products in promotion, which
+		 *         are modified with the catalog
+		 */
+		public ProductStockIndex getStockIndex() {
+			return stockIndex;
+		}
+
+		/**
+		 * @return the slot of the product, or -1 if it is not in the catalog
+		 */
+		public int findSlot(int productId) {
+			int position = findIndexPosition(productId);
+			if (position < 0) {
+				return -1;
+			}
+			int slot = indexSlots.get(position);
+			return slot < size ? slot : -1;
+		}
+
+		private int findIndexPosition(int productId) {
+			int mask = indexKeys.length() - 1;
+			int position = hash(productId) & mask;
+			int key;
+			while ((key = indexKeys.get(position)) != EMPTY_KEY) {
+				if (key == productId) {
+					return position;
+				}
+				position = (position + 1) & mask;
+			}
+			return -1;
+		}
+
+		/**
+		 * @return the number of slots, removed products included
+		 */
+		public int getSlotsNumber() {
+			return size;
+		}
+
+		/**
+		 * @return the number of products
+		 */
+		public int getProductsNumber() {
+			int count = 0;
+			for (int slot = 0; slot < size; slot++) {
+				if (ids.get(slot) != REMOVED) {
+					count++;
+				}
+			}
+			return count;
+		}
+
+		public boolean isRemoved(int slot) {
+			return ids.get(slot) == REMOVED;
+		}
+
+		public int getProductId(int slot) {
+			return ids.get(slot);
+		}
+
+		public String getName(int slot) {
+			long reference = names.get(slot);
+			return new String(namesBytes, getNameOffset(reference), getNameLength(reference), StandardCharsets.UTF_8);
+		}
+
+		public long getPriceCents(int slot) {
+			return prices.get(slot);
+		}
+
+		public int getStock(int slot) {
+			return stocks.get(slot);
+		}
+
+		/**
+		 * @return the price of the promotion, or {@link ProductCatalog#NO_PROMOTION}
+		 */
+		public long getPromotionCents(int slot) {
+			return promotions.get(slot);
+		}
+
+		/**
+		 * Write a product as it is sent to clients : {@code id;name;price;stock;promotion}
+		 * (promotion being "null" if there is none)
+		 */
+		public void appendProduct(int slot, StringBuilder builder) {
+			builder.append(ids.get(slot)).append(';');
+			builder.append(getName(slot)).append(';');
+			builder.append(Money.toString(prices.get(slot))).append(';');
+			builder.append(stocks.get(slot)).append(';');
+			long promotion = promotions.get(slot);
+			builder.append(promotion == NO_PROMOTION ? "null" : Money.toString(promotion));
+		}
+	}
+}
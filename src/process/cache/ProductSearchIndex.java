@@ -0,0 +1,266 @@
+package process.cache;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import logger.LoggerUtility;
+
+/**
+ * Search products by their name, without querying the database.<p>
+ * Names are normalized (lower case, without accents) and sorted, so products
+ * whose name starts with the text searched are found with a binary search.
+ * Products containing the text elsewhere in their name are found with an index
+ * of the 3 letters sequences (trigrams) of the names : only the names having
+ * all trigrams of the text are checked.<p>
+ * The index is built from the {@link ProductCatalog}, and built again at the
+ * first search following a modification of the names.
+ *
+ * @author Aldric Vitali Silvestre <aldric.vitali@outlook.fr>
+ */
+public class ProductSearchIndex {
+	private static Logger logger = LoggerUtility.getLogger(ProductSearchIndex.class, LoggerUtility.LOG_PREFERENCE);
+
+	private static final int TRIGRAM_LENGTH = 3;
+
+	private ProductCatalog catalog;
+
+	/**
+	 * The index used by searches, {@code null} until the first search
+	 */
+	private volatile Index index;
+
+	public ProductSearchIndex(ProductCatalog catalog) {
+		this.catalog = catalog;
+	}
+
+	/**
+	 * Find the products whose name contains a text, accents and case being
+	 * ignored. Names starting with the text come first, then the others, each in
+	 * alphabetical order.
+	 *
+	 * @param text            the text searched
+	 * @param maxResultsNumber the maximum number of products returned
+	 * @return the ids of the products found
+	 */
+	public int[] search(String text, int maxResultsNumber) {
+		String searched = normalize(text);
+		if (searched.isEmpty() || maxResultsNumber <= 0) {
+			return new int[0];
+		}
+		return getIndex().search(searched, maxResultsNumber);
+	}
+
+	/**
+	 * @return the index, built again if names have changed since it was built
+	 */
+	private Index getIndex() {
+		Index index = this.index;
+		if (index != null && index.namesVersion == catalog.getNamesVersion()) {
+			return index;
+		}
+		synchronized (this) {
+			index = this.index;
+			// version is read before the products, so a modification done while
+			// building will cause a new build
+			int namesVersion = catalog.getNamesVersion();
+			if (index == null || index.namesVersion != namesVersion) {
+				index = new Index(catalog.getSnapshot(), namesVersion);
+				this.index = index;
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * Put a text in the form used by the index : lower case, without accents, and
+	 * with single spaces between words
+	 *
+	 * @param text the text to normalize
+	 * @return the normalized text
+	 */
+	public static String normalize(String text) {
+		String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+		StringBuilder builder = new StringBuilder(decomposed.length());
+		boolean isSpace = true;
+		for (int i = 0; i < decomposed.length(); i++) {
+			char character = decomposed.charAt(i);
+			if (Character.getType(character) == Character.NON_SPACING_MARK) {
+				// accent separated from its letter
+				continue;
+			}
+			if (Character.isWhitespace(character)) {
+				if (!isSpace) {
+					builder.append(' ');
+					isSpace = true;
+				}
+				continue;
+			}
+			isSpace = false;
+			// ligatures (oe, ae) are not decomposed
+			switch (character) {
+			case '\u0153':
+			case '\u0152':
+				builder.append("oe");
+				break;
+			case '\u00e6':
+			case '\u00c6':
+				builder.append("ae");
+				break;
+			default:
+				builder.append(character);
+			}
+		}
+		if (isSpace && builder.length() > 0) {
+			builder.setLength(builder.length() - 1);
+		}
+		return builder.toString().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Names of the products at a given time, which is never modified
+	 */
+	private static final class Index {
+		private final int namesVersion;
+
+		/**
+		 * Normalized names sorted, and the ids of their products
+		 */
+		private final String[] names;
+		private final int[] productIds;
+
+		/**
+		 * For each trigram, the positions (in ascending order) of the names
+		 * containing it
+		 */
+		private final Map<String, int[]> trigrams = new HashMap<>();
+
+		private Index(ProductCatalog.Snapshot snapshot, int namesVersion) {
+			this.namesVersion = namesVersion;
+			int slotsNumber = snapshot.getSlotsNumber();
+			String[] slotNames = new String[slotsNumber];
+			Integer[] slots = new Integer[slotsNumber];
+			int size = 0;
+			for (int slot = 0; slot < slotsNumber; slot++) {
+				if (!snapshot.isRemoved(slot)) {
+					slotNames[slot] = normalize(snapshot.getName(slot));
+					slots[size++] = slot;
+				}
+			}
+			Arrays.sort(slots, 0, size, (first, second) -> slotNames[first].compareTo(slotNames[second]));
+			names = new String[size];
+			productIds = new int[size];
+			Map<String, Posting> postings = new HashMap<>();
+			for (int position = 0; position < size; position++) {
+				String name = slotNames[slots[position]];
+				names[position] = name;
+				productIds[position] = snapshot.getProductId(slots[position]);
+				for (int i = 0; i + TRIGRAM_LENGTH <= name.length(); i++) {
+					postings.computeIfAbsent(name.substring(i, i + TRIGRAM_LENGTH), trigram -> new Posting())
+							.add(position);
+				}
+			}
+			for (Map.Entry<String, Posting> posting : postings.entrySet()) {
+				trigrams.put(posting.getKey(), posting.getValue().toArray());
+			}
+			logger.debug("Search index built with " + size + " products and " + trigrams.size() + " trigrams");
+		}
+
+		private int[] search(String searched, int maxResultsNumber) {
+			int[] results = new int[Math.min(maxResultsNumber, names.length)];
+			int resultsNumber = 0;
+			// names starting with the text are next to each other
+			int start = lowerBound(searched);
+			int end = start;
+			while (end < names.length && names[end].startsWith(searched)) {
+				if (resultsNumber < results.length) {
+					results[resultsNumber++] = productIds[end];
+				}
+				end++;
+			}
+			if (resultsNumber < results.length) {
+				int[] candidates = getCandidates(searched);
+				for (int i = 0; i < candidates.length && resultsNumber < results.length; i++) {
+					int position = candidates[i];
+					// names starting with the text are already added
+					if ((position < start || position >= end) && names[position].contains(searched)) {
+						results[resultsNumber++] = productIds[position];
+					}
+				}
+			}
+			return Arrays.copyOf(results, resultsNumber);
+		}
+
+		/**
+		 * @return the positions of the names that may contain the text, in
+		 *         ascending order
+		 */
+		private int[] getCandidates(String searched) {
+			if (searched.length() < TRIGRAM_LENGTH) {
+				// too short to use trigrams, all names are checked
+				int[] positions = new int[names.length];
+				for (int i = 0; i < positions.length; i++) {
+					positions[i] = i;
+				}
+				return positions;
+			}
+			// names are only checked in the smallest list, they must contain all
+			// trigrams anyway
+			int[] candidates = null;
+			for (int i = 0; i + TRIGRAM_LENGTH <= searched.length(); i++) {
+				int[] positions = trigrams.get(searched.substring(i, i + TRIGRAM_LENGTH));
+				if (positions == null) {
+					return new int[0];
+				}
+				if (candidates == null || positions.length < candidates.length) {
+					candidates = positions;
+				}
+			}
+			return candidates;
+		}
+
+		/**
+		 * @return the position of the first name not lower than the text
+		 */
+		private int lowerBound(String searched) {
+			int low = 0;
+			int high = names.length;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (names[middle].compareTo(searched) < 0) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+	}
+
+	/**
+	 * Positions of the names containing a trigram, while the index is built
+	 */
+	private static final class Posting {
+		private int[] positions = new int[4];
+		private int size;
+
+		private void add(int position) {
+			// the same trigram can be several times in a name
+			if (size > 0 && positions[size - 1] == position) {
+				return;
+			}
+			if (size == positions.length) {
+				positions = Arrays.copyOf(positions, size * 2);
+			}
+			positions[size++] = position;
+		}
+
+		private int[] toArray() {
+			return Arrays.copyOf(positions, size);
+		}
+	}
+}
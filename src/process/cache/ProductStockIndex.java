@@ -0,0 +1,125 @@
+package process.cache;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Products of the {@link ProductCatalog} sorted by stock, and products having a
+ * promotion, so products with a low stock or in promotion are found without
+ * reading all the catalog.<p>
+ * Each product is stored as a single number : its stock in the 32 high bits and
+ * its id in the 32 low bits, so numbers are sorted by stock and then by id.
+ * Sets never lock, readers can use them while they are modified by the catalog.
+ * While a stock is modified, a reader may find the product twice : it is then
+ * only returned once.
+ *
+ * @author Aldric Vitali Silvestre <aldric.vitali@outlook.fr>
+ */
+public class ProductStockIndex {
+
+	private NavigableSet<Long> stocks = new ConcurrentSkipListSet<>();
+
+	private NavigableSet<Integer> promotions = new ConcurrentSkipListSet<>();
+
+	/*
+	 * Modifications, only done by the catalog
+	 */
+
+	void add(int productId, int stock, boolean hasPromotion) {
+		stocks.add(toKey(productId, stock));
+		setPromotion(productId, hasPromotion);
+	}
+
+	void setStock(int productId, int previousStock, int stock) {
+		if (previousStock == stock) {
+			return;
+		}
+		// added before being removed, so readers always find the product
+		stocks.add(toKey(productId, stock));
+		stocks.remove(toKey(productId, previousStock));
+	}
+
+	void setPromotion(int productId, boolean hasPromotion) {
+		if (hasPromotion) {
+			promotions.add(productId);
+		} else {
+			promotions.remove(productId);
+		}
+	}
+
+	void remove(int productId, int stock) {
+		stocks.remove(toKey(productId, stock));
+		promotions.remove(productId);
+	}
+
+	/*
+	 * Readings
+	 */
+
+	/**
+	 * @param number the number of products wanted
+	 * @return the ids of the products having the lowest stocks, the lowest first
+	 */
+	public int[] getLowestStocks(int number) {
+		return collect(stocks.iterator(), number);
+	}
+
+	/**
+	 * @param threshold         the stock under which products are returned
+	 * @param maxProductsNumber the maximum number of products returned
+	 * @return the ids of the products having a stock lower than the threshold, the
+	 *         lowest first
+	 */
+	public int[] getStocksBelow(int threshold, int maxProductsNumber) {
+		return collect(stocks.headSet(toKey(Integer.MIN_VALUE, threshold)).iterator(), maxProductsNumber);
+	}
+
+	/**
+	 * @param maxProductsNumber the maximum number of products returned
+	 * @return the ids of the products having a promotion, in ascending order
+	 */
+	public int[] getPromotions(int maxProductsNumber) {
+		int[] productIds = new int[Math.max(0, maxProductsNumber)];
+		int count = 0;
+		for (Iterator<Integer> iterator = promotions.iterator(); iterator.hasNext() && count < productIds.length;) {
+			productIds[count++] = iterator.next();
+		}
+		return Arrays.copyOf(productIds, count);
+	}
+
+	private static int[] collect(Iterator<Long> keys, int maxProductsNumber) {
+		int[] productIds = new int[Math.max(0, maxProductsNumber)];
+		int count = 0;
+		while (keys.hasNext() && count < productIds.length) {
+			int productId = toProductId(keys.next());
+			if (!contains(productIds, count, productId)) {
+				productIds[count++] = productId;
+			}
+		}
+		return Arrays.copyOf(productIds, count);
+	}
+
+	private static boolean contains(int[] productIds, int count, int productId) {
+		for (int i = 0; i < count; i++) {
+			if (productIds[i] == productId) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Ids are shifted in order to be stored without sign in the low bits : keys of
+	 * a stock are then sorted by id, the smallest being the one of
+	 * {@link Integer#MIN_VALUE}
+	 */
+	private static long toKey(int productId, int stock) {
+		return ((long) stock << 32) | ((productId - (long) Integer.MIN_VALUE) & 0xFFFFFFFFL);
+	}
+
+	private static int toProductId(long key) {
+		return (int) ((key & 0xFFFFFFFFL) + Integer.MIN_VALUE);
+	}
+}
@@ -0,0 +1,119 @@
+package process.connection;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Buffers used to read messages of clients, shared by all connections.<p>
+ * Buffers have a few sizes (tiers) : a connection takes the smallest buffer able
+ * to contain its message, and takes a bigger one only when a message is larger.
+ * Buffers are given back when the connection has nothing left to read, so
+ * connections waiting for a message don't keep any buffer.<p>
+ * Only a limited number of buffers of each size is kept, the others are left to
+ * the garbage collector.
+ *
+ * @author Aldric Vitali Silvestre <aldric.vitali@outlook.fr>
+ */
+public class BufferPool {
+	/**
+	 * Change this constant in order to modify the sizes of buffers (in bytes). The
+	 * last size is the maximum size of a message.
+	 */
+	private static final int[] TIER_SIZES = { 1024, 8 * 1024, 64 * 1024, 1024 * 1024 };
+
+	/**
+	 * Change this constant in order to modify the number of buffers kept for each
+	 * size, when they are not used
+	 */
+	private static final int[] TIER_MAX_POOLED = { 256, 64, 16, 2 };
+
+	/**
+	 * The pool used by all connections
+	 */
+	private static final BufferPool sharedPool = new BufferPool();
+
+	private final List<Queue<ByteBuffer>> pooledBuffers;
+	private final AtomicInteger[] pooledNumbers;
+
+	private BufferPool() {
+		pooledBuffers = new ArrayList<>(TIER_SIZES.length);
+		pooledNumbers = new AtomicInteger[TIER_SIZES.length];
+		for (int i = 0; i < TIER_SIZES.length; i++) {
+			pooledBuffers.add(new ConcurrentLinkedQueue<>());
+			pooledNumbers[i] = new AtomicInteger();
+		}
+	}
+
+	public static BufferPool getSharedPool() {
+		return sharedPool;
+	}
+
+	/**
+	 * @return the size of the biggest buffer, which is the maximum size of a
+	 *         message
+	 */
+	public int getMaximumCapacity() {
+		return TIER_SIZES[TIER_SIZES.length - 1];
+	}
+
+	/**
+	 * Take a buffer, cleared, which can contain at least the number of bytes asked
+	 *
+	 * @param minimumCapacity the number of bytes needed
+	 * @return the buffer, which must be given back with {@link #release(ByteBuffer)}
+	 * @throws IllegalArgumentException if no buffer is big enough
+	 */
+	public ByteBuffer acquire(int minimumCapacity) {
+		int tier = getTier(minimumCapacity);
+		ByteBuffer buffer = pooledBuffers.get(tier).poll();
+		if (buffer == null) {
+			return ByteBuffer.allocate(TIER_SIZES[tier]);
+		}
+		pooledNumbers[tier].decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Give back a buffer taken with {@link #acquire(int)}. It must not be used
+	 * anymore.
+	 */
+	public void release(ByteBuffer buffer) {
+		int tier = findTier(buffer.capacity());
+		if (tier < 0 || TIER_SIZES[tier] != buffer.capacity()) {
+			// not a buffer of this pool
+			return;
+		}
+		// only a limited number of unused buffers is kept
+		if (pooledNumbers[tier].incrementAndGet() <= TIER_MAX_POOLED[tier]) {
+			pooledBuffers.get(tier).offer(buffer);
+		} else {
+			pooledNumbers[tier].decrementAndGet();
+		}
+	}
+
+	private static int getTier(int capacity) {
+		int tier = findTier(capacity);
+		if (tier < 0) {
+			throw new IllegalArgumentException("No buffer of " + capacity + " bytes");
+		}
+		return tier;
+	}
+
+	/**
+	 * @return the index of the smallest tier containing the capacity, or -1 if
+	 *         there is none
+	 */
+	private static int findTier(int capacity) {
+		for (int i = 0; i < TIER_SIZES.length; i++) {
+			if (capacity <= TIER_SIZES[i]) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -1,20 +1,19 @@
 package process.connection;
 
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Arrays;
 import java.util.List;
 
 import org.apache.log4j.Logger;
 
 import data.Protocol;
+import data.ProtocolFrame;
 import data.User;
 import data.enums.ActionCodes;
 import exceptions.InvalidProtocolException;
@@ -34,6 +33,12 @@ public class ClientThread extends Thread {
 
 	private User user;
 
+	/**
+	 * Token given to the client in order to reconnect without login and password
+	 */
+	private String sessionToken;
+	private boolean isSessionResumed = false;
+
 	private Socket clientSocket;
 	private boolean isListening = true;
 
@@ -43,13 +48,10 @@ public class ClientThread extends Thread {
 	private final int TIMEOUT_DELAY = 30 * 60 * 1000;
 
 	/**
-	 * Change his constant in order to increase buffer size, useful when more
-	 * products will be stored in database. We assume that each field contain in
-	 * average 70 characters. We add 1 character in order to see if we have a buffer
-	 * overflow.
+	 * Positions of the fields of the last message in the buffer, reused for each
+	 * message
 	 */
-	private static final int BUFFER_SIZE = (70 * 100) + 1;
-	private char[] buffer = new char[BUFFER_SIZE];
+	private ProtocolFrame frame = new ProtocolFrame();
 
 	/**
 	 * We keep trace of the handler of all clients thread in order to call his
@@ -58,10 +60,16 @@ public class ClientThread extends Thread {
 	private ThreadsConnectionHandler handler;
 
 	/**
-	 * To communicate with client
+	 * To communicate with client. Messages are written in UTF-8 bytes directly,
+	 * only one thread at a time (answers and pushed messages).
+	 */
+	private OutputStream outputFlow;
+
+	/**
+	 * Read messages in buffers taken from a pool only while they are needed (the
+	 * maximum size of a message is set in {@link BufferPool})
 	 */
-	private PrintWriter outputFlow;
-	private BufferedReader inputFlow;
+	private MessageReader inputFlow;
 
 	/**
 	 * Make the connection with client, but user is not logged in yet
@@ -77,28 +85,29 @@ public class ClientThread extends Thread {
 	@Override
 	public void run() {
 		try {
-			int numberCharactersRead = 0;
-			inputFlow = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-			outputFlow = new PrintWriter(clientSocket.getOutputStream(), true);
+			int numberBytesRead = 0;
+			inputFlow = new MessageReader(clientSocket.getInputStream());
+			outputFlow = new BufferedOutputStream(clientSocket.getOutputStream());
 
 			String inputMessage;
 			Protocol protocolToSend;
-			ProtocolExtractor extractor;
+			Protocol protocolRecieved;
 
 			// first, we must wait for a first message from client :
-			numberCharactersRead = inputFlow.read(buffer);
 			try {
-				protocolToSend = sendConnectionQuery(buffer);
+				numberBytesRead = inputFlow.readMessage();
+				if (numberBytesRead < 0) {
+					logger.info("Client has closed the connection before connecting");
+					return;
+				}
+				protocolToSend = sendConnectionQuery(inputFlow.getBytes(), numberBytesRead);
 			} catch (InvalidProtocolException e) {
-				protocolToSend = ProtocolFactory.createErrorProtocol(
+				protocolToSend = ProtocolFactory.getFixedErrorProtocol(
 						"Le message envoy n'est pas valide pour le serveur. Il est attendu un message de connexion.");
 				String errorMessage = "Connection message is not valid : " + e.getMessage();
 				ClientThread.logger.warn(errorMessage);
 				isListening = false;
 			}
-			// send protocol message to client
-			outputFlow.println(protocolToSend.toString());
-
 			// check if action code of protocol is SUCESS, in this case, we can continue the
 			// communication
 			if (protocolToSend.getActionCode() != ActionCodes.SUCESS) {
@@ -107,9 +116,17 @@ public class ClientThread extends Thread {
 			} else {
 				// here, user is created, so we can add it to the list
 				handler.addUser(user);
-				handler.updateLastConnexionUser(user);
+				// a resumed session has already been saved when client connected the first time
+				if (!isSessionResumed) {
+					handler.updateLastConnexionUser(user);
+				}
+				// the client will send this token if he needs to reconnect
+				sessionToken = handler.createSessionToken(user, this);
+				protocolToSend = ProtocolFactory.createConnectionSuccessProtocol(sessionToken);
 				ClientThread.logger.info(user.getName() + " is now connected.");
 			}
+			// send protocol message to client
+			send(protocolToSend);
 
 			/**
 			 * Main loop where thread will be when connected
@@ -123,21 +140,23 @@ public class ClientThread extends Thread {
 				 */
 				// inputMessage = inputFlow.readLine();
 
-				/**
-				 * Read stream into a buffer, in order to avoid buffer overflow (limit is set
-				 * with constant BUFFER_SIZE above)
-				 */
-				// clear used part of the array before reading again
-				Arrays.fill(buffer, 0, numberCharactersRead, '\u0000');
-				numberCharactersRead = inputFlow.read(buffer);
-
 				try {
-					extractor = new ProtocolExtractor(buffer);
+					/**
+					 * Read the whole message, in buffers growing up to the maximum size of a
+					 * message
+					 */
+					numberBytesRead = inputFlow.readMessage();
+					if (numberBytesRead < 0) {
+						ClientThread.logger.info(user.getName() + " has closed the connection");
+						break;
+					}
+					// only the characters read are parsed, so the buffer doesn't need to be cleared
+					protocolRecieved = ProtocolExtractor.extract(inputFlow.getBytes(), numberBytesRead, frame);
 				} catch (InvalidProtocolException e) {
 					// if protocol is invalid, send to client an error message and return at the
 					// beggining of the loop
 					protocolToSend = ProtocolFactory.createErrorProtocol(e.getMessage());
-					outputFlow.println(protocolToSend.toString());
+					send(protocolToSend);
 					// message is not valid, return to beginning
 					continue;
 				}
@@ -145,15 +164,16 @@ public class ClientThread extends Thread {
 				clientSocket.setSoTimeout(TIMEOUT_DELAY);
 
 				// check if protocol has code DISCONNECT
-				Protocol protocolRecieved = extractor.getProtocol();
 				if (protocolRecieved.getActionCode() == ActionCodes.DISCONNECT) {
 					ClientThread.logger.info(user.getName() + " has disconnected");
+					handler.revokeSessionToken(sessionToken);
+					sessionToken = null;
 					break;
 				} else {
 					protocolToSend = askToServer(protocolRecieved);
 				}
 				logger.info(protocolToSend);
-				outputFlow.println(protocolToSend.toString());
+				send(protocolToSend);
 
 			}
 
@@ -171,15 +191,59 @@ public class ClientThread extends Thread {
 			if (user != null) {
 				handler.removeUser(user);
 			}
+			handler.removeSubscriber(this);
+			// connection is lost, client can reconnect with his token
+			if (sessionToken != null) {
+				handler.startSessionExpiration(sessionToken);
+			}
 			closeConnection();
 		}
 	}
 
+	/**
+	 * Send a message that the client did not ask for (product changes for
+	 * example). Can be called from another thread.
+	 * 
+	 * @param message the message, shared by all clients recieving it
+	 */
+	public void sendPushMessage(Protocol message) {
+		try {
+			// send is synchronized, so the message will not be mixed with an answer
+			send(message);
+		} catch (IOException e) {
+			logger.error("Could not push message to client : " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Write a message and send it at once
+	 */
+	private synchronized void send(Protocol protocol) throws IOException {
+		protocol.writeTo(outputFlow);
+		outputFlow.flush();
+	}
+
+	/**
+	 * Close the connection from another thread (when the client has reconnected
+	 * on another connection for example). The thread will then stop by itself.
+	 */
+	public void disconnect() {
+		try {
+			clientSocket.close();
+		} catch (IOException e) {
+			logger.error("Error while closing connection : " + e.getMessage());
+		}
+	}
+
 	private void closeConnection() {
 		logger.info("Client disconnected.");
 		try {
-			inputFlow.close();
-			outputFlow.close();
+			if (inputFlow != null) {
+				inputFlow.close();
+			}
+			if (outputFlow != null) {
+				outputFlow.close();
+			}
 			clientSocket.close();
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -191,18 +255,24 @@ public class ClientThread extends Thread {
 	 * Send the first protocol of the connection. If all succeded, the user
 	 * attribute is initialized
 	 * 
-	 * @param inputMessage the message recevied by the client
+	 * @param message the buffer containing the message recevied by the client
+	 * @param length the number of bytes of the message
 	 * @return the protocol to send back to server
 	 * @throws InvalidProtocolException
 	 */
-	private Protocol sendConnectionQuery(char[] message) throws InvalidProtocolException {
-		ProtocolExtractor extractor = new ProtocolExtractor(message);
+	private Protocol sendConnectionQuery(byte[] message, int length) throws InvalidProtocolException {
+		ProtocolExtractor extractor = new ProtocolExtractor(message, length);
 
 		// now we can check if message content is valid
-		extractor.assertActionCodeValid(ActionCodes.CONNECTION_ADMIN, ActionCodes.CONNECTION_NORMAL);
-		extractor.assertOptionsNumberValid(2);
+		extractor.assertActionCodeValid(ActionCodes.CONNECTION_ADMIN, ActionCodes.CONNECTION_NORMAL,
+				ActionCodes.CONNECTION_RESUME);
 
 		Protocol protocol = extractor.getProtocol();
+		if (protocol.getActionCode() == ActionCodes.CONNECTION_RESUME) {
+			extractor.assertOptionsNumberValid(1);
+			return resumeSession(protocol.getOptionsElement(0));
+		}
+		extractor.assertOptionsNumberValid(2);
 
 		// get data from protocol
 		boolean isAdmin = protocol.getActionCode() == ActionCodes.CONNECTION_ADMIN;
@@ -217,12 +287,35 @@ public class ClientThread extends Thread {
 			user = new User(login, isAdmin);
 			if (handler.isUserInList(user)) {
 				answerProtocol = ProtocolFactory
-						.createErrorProtocol("Un client est dja connect avec cet identifiant.");
+						.getFixedErrorProtocol("Un client est dja connect avec cet identifiant.");
 			}
 		}
 		return answerProtocol;
 	}
 
+	/**
+	 * Reconnect the client with the token he recieved on his last connection. If
+	 * all succeded, the user attribute is initialized.
+	 * 
+	 * @param token the token sent by the client
+	 * @return the protocol to send back to client
+	 */
+	private Protocol resumeSession(String token) {
+		SessionManager.Session session = handler.resumeSession(token);
+		if (session == null) {
+			return ProtocolFactory.getFixedErrorProtocol("Le jeton de reconnexion n'est pas valide ou a expir.");
+		}
+		// the previous connection may not have noticed yet that client is gone
+		ClientThread previousClient = session.getClient();
+		if (previousClient != this && previousClient.isAlive()) {
+			previousClient.disconnect();
+		}
+		// new user object, so the previous thread only removes his own from the list
+		user = new User(session.getUser().getName(), session.getUser().isAdmin());
+		isSessionResumed = true;
+		return ProtocolFactory.createSuccessProtocol();
+	}
+
 	/**
 	 * Main method handling all queries from client to server.
 	 * 
@@ -267,6 +360,14 @@ public class ClientThread extends Thread {
 				logger.error("error for delete product ");
 			}
 			break;
+		case ADJUST_SEVERAL_STOCKS:
+			// one option "id;quantity" for each line of the delivery
+			if (recievedProtocol.getOptionsListSize() > 0) {
+				return handler.queryAdjustSeveralStocks(recievedProtocol);
+			} else {
+				logger.error("error for adjust several stocks ");
+			}
+			break;
 		case VALIDATE_ORDER:
 			if (verifyAttributNumber(1, recievedProtocol)) {
 				return handler.queryValidOrder(recievedProtocol);
@@ -290,14 +391,14 @@ public class ClientThread extends Thread {
 			break;
 		case GET_PRODUCT_LIST:
 			if (verifyAttributNumber(0, recievedProtocol)) {
-				return handler.queryListProduct(recievedProtocol);
+				return handler.queryReadOnly(recievedProtocol, handler::queryListProduct);
 			} else {
 				logger.error("error for send list of product  ");
 			}
 			break;
 		case GET_ORDER_LIST:
 			if (verifyAttributNumber(0, recievedProtocol)) {
-				return handler.queryListOrder(recievedProtocol);
+				return handler.queryReadOnly(recievedProtocol, handler::queryListOrder);
 			} else {
 				logger.error("error for send list of Order ");
 			}
@@ -310,20 +411,68 @@ public class ClientThread extends Thread {
 				logger.error("error for send list of employe ");
 			}
 			break;
+		case IMPORT_PRODUCTS:
+			// one option "name;price;quantity" for each product
+			if (recievedProtocol.getOptionsListSize() > 0) {
+				return handler.queryImportProducts(recievedProtocol, user);
+			} else {
+				logger.error("error for import products ");
+			}
+			break;
 		case GET_SPECIFIC_ORDER:
 			if (verifyAttributNumber(1, recievedProtocol)) {
-				return handler.queryGetSpecificOrder(recievedProtocol);
+				return handler.queryReadOnly(recievedProtocol, handler::queryGetSpecificOrder);
 			} else {
 				logger.error("couldn't show the specified order");
 			}
 			break;
 		case GET_SPECIFIC_PRDUCT:
 			if (verifyAttributNumber(1, recievedProtocol)) {
-				return handler.queryGetSpecificProduct(recievedProtocol);
+				return handler.queryReadOnly(recievedProtocol, handler::queryGetSpecificProduct);
 			} else {
 				logger.error("couldn't show the specified product");
 			}
 			break;
+		case GET_SEVERAL_PRODUCTS:
+			// one option for each product asked
+			if (recievedProtocol.getOptionsListSize() > 0) {
+				return handler.queryReadOnly(recievedProtocol, handler::queryGetSeveralProducts);
+			} else {
+				logger.error("couldn't show the specified products");
+			}
+			break;
+		case SEARCH_PRODUCTS:
+			// the text searched, and optionally the maximum number of products
+			if (verifyAttributNumber(1, recievedProtocol) || verifyAttributNumber(2, recievedProtocol)) {
+				return handler.queryReadOnly(recievedProtocol, handler::querySearchProducts);
+			} else {
+				logger.error("couldn't search products");
+			}
+			break;
+		case GET_LOWEST_STOCKS:
+			// the number of products wanted
+			if (verifyAttributNumber(1, recievedProtocol)) {
+				return handler.queryReadOnly(recievedProtocol, handler::queryLowestStocks);
+			} else {
+				logger.error("couldn't show the lowest stocks");
+			}
+			break;
+		case GET_STOCKS_BELOW:
+			// the threshold, and optionally the maximum number of products
+			if (verifyAttributNumber(1, recievedProtocol) || verifyAttributNumber(2, recievedProtocol)) {
+				return handler.queryReadOnly(recievedProtocol, handler::queryStocksBelow);
+			} else {
+				logger.error("couldn't show the stocks below threshold");
+			}
+			break;
+		case GET_PROMOTED_PRODUCTS:
+			// optionally the maximum number of products
+			if (verifyAttributNumber(0, recievedProtocol) || verifyAttributNumber(1, recievedProtocol)) {
+				return handler.queryReadOnly(recievedProtocol, handler::queryPromotedProducts);
+			} else {
+				logger.error("couldn't show the products in promotion");
+			}
+			break;
 		case APPLY_PROMOTION:
 			if (verifyAttributNumber(2, recievedProtocol)) {
 				return handler.queryApplyPromotion(recievedProtocol);
@@ -345,13 +494,31 @@ public class ClientThread extends Thread {
 				logger.error("error for removed order ");
 			}
 			break;
+		case RESERVE_PRODUCT:
+			if (verifyAttributNumber(3, recievedProtocol)) {
+				return handler.queryReserveProduct(recievedProtocol);
+			} else {
+				logger.error("error for reserve product ");
+			}
+			break;
+		case SUBSCRIBE_PRODUCTS:
+			// no option means that client wants changes of all products
+			return handler.querySubscribeProducts(recievedProtocol, this);
+		case UNSUBSCRIBE_PRODUCTS:
+			if (verifyAttributNumber(0, recievedProtocol)) {
+				handler.removeSubscriber(this);
+				return ProtocolFactory.createSuccessProtocol();
+			} else {
+				logger.error("error for unsubscribe ");
+			}
+			break;
 
 		default:
 			// skip over to send error protocol
 			break;
 		}
 
-		return ProtocolFactory.createErrorProtocol("L'action demande n'est pas reconnue par le serveur");
+		return ProtocolFactory.getFixedErrorProtocol("L'action demande n'est pas reconnue par le serveur");
 	}
 
 	/**
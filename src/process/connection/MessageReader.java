@@ -0,0 +1,186 @@
+package process.connection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import exceptions.InvalidProtocolException;
+
+/**
+ * Read the messages of a client, each message ending with a new line.<p>
+ * Bytes are read in a buffer of the {@link BufferPool}, replaced by a bigger one
+ * when a message doesn't fit in it (up to the maximum size of a message). When
+ * all bytes recieved have been read, buffers are given back to the pool : a
+ * connection waiting for its next message doesn't keep any buffer.<p>
+ * Messages are not decoded : their bytes are given as they are recieved (in
+ * UTF-8).
+ *
+ * @author Aldric Vitali Silvestre <aldric.vitali@outlook.fr>
+ */
+public class MessageReader {
+	private InputStream input;
+
+	private BufferPool pool;
+
+	/**
+	 * Bytes recieved, from the beginning of the buffer to its position. {@code null}
+	 * when there is nothing to read.
+	 */
+	private ByteBuffer buffer;
+
+	/**
+	 * Number of bytes of the last message returned (its new line included), which
+	 * are removed from the buffer when the next message is read
+	 */
+	private int consumedLength;
+
+	/**
+	 * True when the end of the stream has been reached
+	 */
+	private boolean isClosed = false;
+
+	public MessageReader(InputStream input) {
+		this(input, BufferPool.getSharedPool());
+	}
+
+	public MessageReader(InputStream input, BufferPool pool) {
+		this.input = input;
+		this.pool = pool;
+	}
+
+	/**
+	 * Wait for the next message. Its bytes (without the new line) are then
+	 * available with {@link #getBytes()}, until the next call.
+	 *
+	 * @return the number of bytes of the message, or -1 if the client has closed
+	 *         the connection
+	 * @throws InvalidProtocolException if the message is longer than the maximum
+	 *                                  size : it is ignored, and the next call will
+	 *                                  read the following message
+	 * @throws IOException              if the message could not be read
+	 */
+	public int readMessage() throws IOException, InvalidProtocolException {
+		consumeLastMessage();
+		boolean isTooLong = false;
+		// bytes before this index don't contain any new line
+		int searchStart = 0;
+		while (true) {
+			if (buffer != null) {
+				int newLine = indexOf('\n', searchStart, buffer.position());
+				if (newLine >= 0) {
+					consumedLength = newLine + 1;
+					if (isTooLong) {
+						throw new InvalidProtocolException("Le message reu est trop long.");
+					}
+					return getMessageLength(newLine);
+				}
+				searchStart = buffer.position();
+			}
+			if (isClosed) {
+				// the last message may not end with a new line
+				if (buffer != null && buffer.position() > 0 && !isTooLong) {
+					consumedLength = buffer.position();
+					return getMessageLength(buffer.position());
+				}
+				return -1;
+			}
+			if (buffer == null) {
+				// waiting for the next message is done without any buffer
+				int firstByte = input.read();
+				if (firstByte < 0) {
+					isClosed = true;
+				} else {
+					buffer = pool.acquire(1);
+					buffer.put((byte) firstByte);
+				}
+				continue;
+			}
+			if (!buffer.hasRemaining()) {
+				if (buffer.capacity() >= pool.getMaximumCapacity()) {
+					// the beginning of the message is dropped, we only look for its end
+					isTooLong = true;
+					buffer.clear();
+					searchStart = 0;
+				} else {
+					grow();
+				}
+			}
+			int readNumber = input.read(buffer.array(), buffer.position(), buffer.remaining());
+			if (readNumber < 0) {
+				isClosed = true;
+			} else {
+				buffer.position(buffer.position() + readNumber);
+			}
+		}
+	}
+
+	/**
+	 * @return the buffer containing the last message read, from index 0
+	 */
+	public byte[] getBytes() {
+		return buffer.array();
+	}
+
+	/**
+	 * Give back the buffers to the pool, the reader must not be used anymore
+	 */
+	public void close() {
+		if (buffer != null) {
+			pool.release(buffer);
+			buffer = null;
+		}
+	}
+
+	/**
+	 * Remove the last message from the buffer, keeping the bytes of the next
+	 * messages if some have already been recieved
+	 */
+	private void consumeLastMessage() {
+		if (buffer == null) {
+			return;
+		}
+		int remaining = buffer.position() - consumedLength;
+		consumedLength = 0;
+		if (remaining == 0) {
+			// nothing left to read, we don't keep the buffer while waiting
+			pool.release(buffer);
+			buffer = null;
+			return;
+		}
+		byte[] bytes = buffer.array();
+		System.arraycopy(bytes, buffer.position() - remaining, bytes, 0, remaining);
+		buffer.position(remaining);
+	}
+
+	/**
+	 * Replace the buffer with a bigger one of the pool
+	 */
+	private void grow() {
+		ByteBuffer biggerBuffer = pool.acquire(buffer.capacity() + 1);
+		biggerBuffer.put(buffer.array(), 0, buffer.position());
+		pool.release(buffer);
+		buffer = biggerBuffer;
+	}
+
+	/**
+	 * @param end the index following the last byte of the message
+	 * @return the number of bytes of the message, without the carriage return
+	 *         sent by some clients before the new line
+	 */
+	private int getMessageLength(int end) {
+		if (end > 0 && buffer.get(end - 1) == '\r') {
+			end--;
+		}
+		return end;
+	}
+
+	private int indexOf(char searched, int start, int end) {
+		byte[] bytes = buffer.array();
+		for (int i = start; i < end; i++) {
+			if (bytes[i] == searched) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
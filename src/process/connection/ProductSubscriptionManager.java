@@ -0,0 +1,233 @@
+package process.connection;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+
+import data.Protocol;
+import logger.LoggerUtility;
+import process.protocol.ProtocolFactory;
+
+/**
+ * Keep the list of clients that want to be notified when products change, and
+ * push them the changes.<p>
+ * A change is encoded only once and then queued for every subscriber. Each
+ * subscriber has its own thread writing its messages, so the client doing the
+ * modification never waits for the subscribers, and a subscriber that can't be
+ * reached doesn't delay the others.<p>
+ * Writing to a socket can block until the TCP timeout (a terminal that has lost
+ * its network for example) : a subscriber whose queue is full or whose writing
+ * takes too long is disconnected. It can then resume its session and subscribe
+ * again, recieving the current values.
+ *
+ * @author Aldric Vitali Silvestre <aldric.vitali@outlook.fr>
+ */
+public class ProductSubscriptionManager {
+	private static Logger logger = LoggerUtility.getLogger(ProductSubscriptionManager.class,
+			LoggerUtility.LOG_PREFERENCE);
+
+	/**
+	 * Names of the fields sent in the change messages
+	 */
+	public static final String FIELD_STOCK = "stock";
+	public static final String FIELD_PROMOTION = "promotion";
+	public static final String FIELD_REMOVED = "suppression";
+
+	/**
+	 * Change this constant in order to keep more messages for a slow client. When
+	 * the queue is full, the client is disconnected.
+	 */
+	private static final int MAX_PENDING_MESSAGES = 256;
+
+	/**
+	 * Change this constant in order to modify the time (in milliseconds) a message
+	 * can take to be written before the client is disconnected
+	 */
+	private static final long WRITE_TIMEOUT = 10000;
+
+	private Map<ClientThread, Subscription> subscriptions = new ConcurrentHashMap<>();
+
+	/**
+	 * Look for subscribers whose writing is blocked
+	 */
+	private ScheduledExecutorService stallChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "product-push-watchdog");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	public ProductSubscriptionManager() {
+		stallChecker.scheduleWithFixedDelay(this::disconnectStalledSubscribers, 1, 1, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Subscribe a client to product changes. If the client is already subscribed,
+	 * his previous subscription is replaced.
+	 *
+	 * @param client     the client to notify
+	 * @param productIds the ids of products to follow, or {@code null} to follow
+	 *                   all products
+	 */
+	public void subscribe(ClientThread client, Set<Integer> productIds) {
+		Subscription subscription = new Subscription(client, productIds);
+		// started before being visible, so it can be closed at any time
+		subscription.start();
+		Subscription previous = subscriptions.put(client, subscription);
+		if (previous != null) {
+			previous.close();
+		}
+	}
+
+	/**
+	 * Stop sending changes to this client. Does nothing if client is not
+	 * subscribed.
+	 */
+	public void unsubscribe(ClientThread client) {
+		Subscription subscription = subscriptions.remove(client);
+		if (subscription != null) {
+			subscription.close();
+		}
+	}
+
+	/**
+	 * @return true if at least one client wants to be notified when this product
+	 *         changes
+	 */
+	public boolean hasSubscribers(int productId) {
+		for (Subscription subscription : subscriptions.values()) {
+			if (subscription.isFollowing(productId)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public void publishStockChange(int productId, int newStock) {
+		publish(productId, ProtocolFactory.createProductChangeProtocol(productId, FIELD_STOCK,
+				Integer.toString(newStock)));
+	}
+
+	/**
+	 * @param promotionPrice the new promotion price, or {@code null} if promotion
+	 *                       has been removed
+	 */
+	public void publishPromotionChange(int productId, String promotionPrice) {
+		publish(productId, ProtocolFactory.createProductChangeProtocol(productId, FIELD_PROMOTION,
+				String.valueOf(promotionPrice)));
+	}
+
+	public void publishProductRemoved(int productId) {
+		publish(productId, ProtocolFactory.createProductChangeProtocol(productId, FIELD_REMOVED, ""));
+	}
+
+	private void publish(int productId, Protocol change) {
+		if (subscriptions.isEmpty()) {
+			return;
+		}
+		// the message is the same for everyone, so we encode it only once
+		Protocol message = change.freeze();
+		for (Subscription subscription : subscriptions.values()) {
+			if (subscription.isFollowing(productId)) {
+				subscription.push(message);
+			}
+		}
+	}
+
+	private void disconnectStalledSubscribers() {
+		long now = System.currentTimeMillis();
+		for (Subscription subscription : subscriptions.values()) {
+			if (subscription.isStalled(now)) {
+				logger.warn("Client blocked for more than " + WRITE_TIMEOUT + " ms, disconnected");
+				subscription.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Messages waiting to be sent to a single client, and the thread writing them
+	 */
+	private class Subscription implements Runnable {
+		private ClientThread client;
+		private Set<Integer> productIds;
+		private BlockingQueue<Protocol> pendingMessages = new ArrayBlockingQueue<>(MAX_PENDING_MESSAGES);
+		private Thread writer;
+		private AtomicBoolean isClosed = new AtomicBoolean(false);
+
+		/**
+		 * Time when the message being written has started to be written, 0 if no
+		 * message is being written
+		 */
+		private volatile long writeStartTime = 0;
+
+		public Subscription(ClientThread client, Set<Integer> productIds) {
+			this.client = client;
+			this.productIds = productIds;
+		}
+
+		public void start() {
+			writer = new Thread(this, "product-push");
+			writer.setDaemon(true);
+			writer.start();
+		}
+
+		public boolean isFollowing(int productId) {
+			return productIds == null || productIds.contains(productId);
+		}
+
+		public void push(Protocol message) {
+			if (!pendingMessages.offer(message)) {
+				logger.warn("Client too slow, disconnected : " + message + " not sent");
+				disconnect();
+			}
+		}
+
+		public boolean isStalled(long now) {
+			long startTime = writeStartTime;
+			return startTime != 0 && now - startTime > WRITE_TIMEOUT;
+		}
+
+		/**
+		 * Stop writing messages, the client stays connected
+		 */
+		public void close() {
+			if (isClosed.compareAndSet(false, true)) {
+				writer.interrupt();
+			}
+		}
+
+		/**
+		 * Stop the subscription and close the connection of the client, which
+		 * unblocks a message being written
+		 */
+		public void disconnect() {
+			subscriptions.remove(client, this);
+			close();
+			client.disconnect();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!isClosed.get()) {
+					Protocol message = pendingMessages.take();
+					writeStartTime = System.currentTimeMillis();
+					try {
+						client.sendPushMessage(message);
+					} finally {
+						writeStartTime = 0;
+					}
+				}
+			} catch (InterruptedException e) {
+				// subscription closed
+			}
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package process.connection;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+import data.Protocol;
+
+/**
+ * Share the result of a request between clients asking exactly the same thing
+ * at the same time, instead of querying the database for each of them.<p>
+ * A client never joins an execution that has already started, as its result
+ * could be older than the request of the client : while a request is being
+ * executed, identical requests wait for it to finish and are then executed
+ * once for all of them. The result given to a client is then always computed
+ * after its request was recieved.<p>
+ * Must only be used for requests that don't modify anything.
+ *
+ * @author Aldric Vitali Silvestre <aldric.vitali@outlook.fr>
+ */
+public class RequestCoalescer {
+
+	/**
+	 * The last execution of each request, by its message
+	 */
+	private Map<String, Execution> executions = new ConcurrentHashMap<>();
+
+	/**
+	 * Execute a request, or join the next execution of the same request
+	 *
+	 * @param request the request recieved
+	 * @param query   the method executing the request
+	 * @return the answer, which can't be modified if it is shared
+	 */
+	public Protocol execute(Protocol request, Function<Protocol, Protocol> query) {
+		// the message contains the action code and all options
+		String key = request.toString();
+		Execution created = new Execution();
+		// executions are only modified by the map, so joining and starting can't
+		// happen at the same time
+		Execution execution = executions.compute(key, (message, last) -> {
+			if (last == null) {
+				return created;
+			}
+			if (!last.isStarted) {
+				last.joinersNumber++;
+				return last;
+			}
+			created.previous = last.result;
+			return created;
+		});
+		if (execution != created) {
+			return waitFor(execution.result);
+		}
+		if (created.previous != null) {
+			awaitEnd(created.previous);
+			created.previous = null;
+		}
+		executions.computeIfPresent(key, (message, last) -> {
+			created.isStarted = true;
+			return last;
+		});
+		try {
+			Protocol answer = query.apply(request);
+			// nobody can join anymore, joiners are all known
+			if (created.joinersNumber > 0) {
+				answer.freeze();
+			}
+			// removed before the answer is given, so later requests are executed again
+			executions.remove(key, created);
+			created.result.complete(answer);
+			return answer;
+		} catch (RuntimeException e) {
+			executions.remove(key, created);
+			created.result.completeExceptionally(e);
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the number of requests being executed or waiting to be executed
+	 */
+	public int getPendingRequestsNumber() {
+		return executions.size();
+	}
+
+	/**
+	 * Wait for an execution to finish, whatever its result
+	 */
+	private void awaitEnd(CompletableFuture<Protocol> pendingResult) {
+		try {
+			waitFor(pendingResult);
+		} catch (RuntimeException e) {
+			// the error is given to the clients of this execution only
+		}
+	}
+
+	private Protocol waitFor(CompletableFuture<Protocol> pendingResult) {
+		boolean isInterrupted = false;
+		try {
+			while (true) {
+				try {
+					return pendingResult.get();
+				} catch (InterruptedException e) {
+					// the answer will come soon, we still wait for it
+					isInterrupted = true;
+				}
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			if (isInterrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * An execution of a request, and the clients waiting for it
+	 */
+	private static final class Execution {
+		private final CompletableFuture<Protocol> result = new CompletableFuture<>();
+
+		/**
+		 * The result of the execution running when this one was created, which must
+		 * finish before this one starts
+		 */
+		private CompletableFuture<Protocol> previous;
+
+		/**
+		 * Clients can only join while this is false
+		 */
+		private volatile boolean isStarted = false;
+
+		private volatile int joinersNumber = 0;
+	}
+}
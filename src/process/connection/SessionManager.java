@@ -0,0 +1,152 @@
+package process.connection;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import data.User;
+
+/**
+ * Give a token to each connected user. When the connection is lost (Wi-Fi
+ * problem for example), the client can reconnect with this token instead of
+ * sending his login and password again, without any query to the database.<p>
+ * A token can only be used once : a new one is given at each reconnection.
+ * Tokens are only known by the server that created them.<p>
+ * A token doesn't expire while its connection is open, whatever its age : the
+ * validity delay only starts when the connection is lost.
+ * 
+ * @author Aldric Vitali Silvestre <aldric.vitali@outlook.fr>
+ */
+public class SessionManager {
+
+	/**
+	 * Change this constant in order to modify the time a token can be used after
+	 * the connection is lost (in milliseconds)
+	 */
+	private static final long TIME_TO_LIVE = 30 * 60 * 1000;
+
+	/**
+	 * Expiration time of the tokens whose connection is still open
+	 */
+	private static final long CONNECTED = Long.MAX_VALUE;
+
+	private static final int TOKEN_BYTES = 24;
+
+	/**
+	 * Expired tokens are removed every time this number of tokens is created
+	 */
+	private static final int CLEANING_PERIOD = 64;
+
+	private SecureRandom random = new SecureRandom();
+
+	private Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+	private AtomicInteger createdTokens = new AtomicInteger();
+
+	/**
+	 * Give the current time in milliseconds
+	 */
+	private LongSupplier clock;
+
+	public SessionManager() {
+		this(System::currentTimeMillis);
+	}
+
+	/**
+	 * @param clock give the current time in milliseconds (tests can then simulate
+	 *              time passing)
+	 */
+	public SessionManager(LongSupplier clock) {
+		this.clock = clock;
+	}
+
+	/**
+	 * Create a new token for this user
+	 * 
+	 * @param user   the user connected
+	 * @param client the thread of the connection
+	 * @return the token, that can be used once with {@link #resume(String)}
+	 */
+	public String createToken(User user, ClientThread client) {
+		if (createdTokens.incrementAndGet() % CLEANING_PERIOD == 0) {
+			long now = clock.getAsLong();
+			// sessions still connected are never removed here
+			sessions.values().removeIf(session -> session.expirationTime < now);
+		}
+		byte[] bytes = new byte[TOKEN_BYTES];
+		random.nextBytes(bytes);
+		String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+		sessions.put(token, new Session(user, client, CONNECTED));
+		return token;
+	}
+
+	/**
+	 * Start the validity delay of the token. Called when the connection is lost,
+	 * so the client has the whole delay to reconnect.
+	 */
+	public void startExpiration(String token) {
+		Session session = sessions.get(token);
+		if (session != null) {
+			session.expirationTime = clock.getAsLong() + TIME_TO_LIVE;
+		}
+	}
+
+	/**
+	 * Use the token in order to get back the session. The token can't be used
+	 * anymore after this.
+	 * 
+	 * @param token the token sent by the client
+	 * @return the session, or {@code null} if the token is not valid or expired
+	 */
+	public Session resume(String token) {
+		Session session = sessions.remove(token);
+		if (session == null || session.expirationTime < clock.getAsLong()) {
+			return null;
+		}
+		return session;
+	}
+
+	public void revokeToken(String token) {
+		sessions.remove(token);
+	}
+
+	/**
+	 * Remove all tokens of this user (when he is deleted for example)
+	 */
+	public void revokeUser(String userName) {
+		sessions.values().removeIf(session -> session.user.getName().equals(userName));
+	}
+
+	public void revokeAll() {
+		sessions.clear();
+	}
+
+	/**
+	 * Data kept for each token
+	 */
+	public static class Session {
+		private final User user;
+		private final ClientThread client;
+		private volatile long expirationTime;
+
+		public Session(User user, ClientThread client, long expirationTime) {
+			this.user = user;
+			this.client = client;
+			this.expirationTime = expirationTime;
+		}
+
+		public User getUser() {
+			return user;
+		}
+
+		/**
+		 * @return the thread of the connection that created the token
+		 */
+		public ClientThread getClient() {
+			return client;
+		}
+	}
+}
@@ -8,18 +8,46 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.SQLTimeoutException;
+import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
 import org.apache.log4j.Logger;
 
+import data.Money;
 import data.Protocol;
 import data.User;
 import data.enums.ActionCodes;
+import exceptions.StockException;
 import logger.LoggerUtility;
+import process.cache.CredentialCache;
+import process.cache.ProductCatalog;
+import process.cache.ProductSearchIndex;
 import process.database.DatabaseManager;
+import process.database.GroupCommitExecutor;
+import process.database.InvalidationChannel;
+import process.database.LastConnectionWriter;
+import process.database.LocalInvalidationChannel;
+import process.database.OrderTotalTrigger;
+import process.database.PostgresInvalidationChannel;
+import process.database.ProductImporter;
 import process.protocol.ProtocolFactory;
+import process.stock.ReservationManager;
+import process.stock.StockLedger;
+import process.stock.StockWriteAheadLog;
 
 /**
  * Main class of the server : it will wait for new clients connecting and create
@@ -34,6 +62,77 @@ public class ThreadsConnectionHandler extends Thread {
 
 	private boolean isListening = true;
 
+	/**
+	 * Change this value in order to create the triggers warning servers when
+	 * tables are modified outside of them (by a script for example)
+	 */
+	private static final boolean INSTALL_INVALIDATION_TRIGGERS = false;
+
+	/**
+	 * Change this value in order to keep stocks in memory : stock modifications
+	 * are then applied in memory and written later in the database. Must only be
+	 * used when a single server is running.
+	 */
+	private static final boolean USE_STOCK_LEDGER = false;
+
+	/**
+	 * Change this value in order to modify where stock modifications of the ledger
+	 * are written before being acknowledged, or set it to {@code null} in order to
+	 * not use this journal (modifications not written in database will be lost if
+	 * server crashes)
+	 */
+	private static final String STOCK_JOURNAL_FILE = "data/stock-journal.bin";
+
+	/**
+	 * Change this value in order to execute stock and reservation modifications
+	 * of several clients in a single transaction, on a dedicated connection
+	 */
+	private static final boolean USE_GROUP_COMMIT = true;
+
+	/**
+	 * Change this value in order to keep all products in memory : lists of
+	 * products are then sent without querying the database
+	 */
+	private static final boolean USE_PRODUCT_CATALOG = true;
+
+	/**
+	 * Change this value in order to read the total of each order kept in the
+	 * database by a trigger (created by sql/order_total.sql) : orders are then read
+	 * without adding the prices of their products
+	 */
+	private static final boolean USE_ORDER_TOTAL_COLUMN = true;
+
+	/**
+	 * Change this value in order to modify the maximum number of lines of a
+	 * single stock adjustment (a delivery for example)
+	 */
+	private static final int MAX_ADJUSTMENT_LINES = 1000;
+
+	/**
+	 * Change this value in order to execute only once the same read-only request
+	 * asked by several clients at the same time
+	 */
+	private static final boolean USE_REQUEST_COALESCING = true;
+
+	/**
+	 * Change these values in order to modify the number of products sent for a
+	 * search, when the client doesn't ask for a number and at most
+	 */
+	private static final int DEFAULT_SEARCH_RESULTS = 20;
+	private static final int MAX_SEARCH_RESULTS = 100;
+
+	/**
+	 * Change this value in order to modify the maximum number of products sent
+	 * for low stocks and promotions
+	 */
+	private static final int MAX_DASHBOARD_RESULTS = 500;
+
+	/**
+	 * Name of this server, used in order to know which server has modified the
+	 * database when several are running
+	 */
+	private final String serverName = "drive-" + UUID.randomUUID().toString().substring(0, 8);
+
 	/**
 	 * We store user list in order to keep a trace of all users (useful for checking
 	 * if any user want to connect twice for exemple)
@@ -44,6 +143,88 @@ public class ThreadsConnectionHandler extends Thread {
 
 	private DatabaseManager databaseManager;
 
+	/**
+	 * Clients that want to be notified when a product changes
+	 */
+	private ProductSubscriptionManager subscriptionManager = new ProductSubscriptionManager();
+
+	/**
+	 * Used to warn other servers of our modifications, and to be warned of theirs
+	 */
+	private InvalidationChannel invalidationChannel;
+
+	/**
+	 * Credentials recently verified, so we don't query database for each
+	 * connection
+	 */
+	private CredentialCache credentialCache = new CredentialCache();
+
+	/**
+	 * Write the last connection dates of employees in the background
+	 */
+	private LastConnectionWriter lastConnectionWriter;
+
+	/**
+	 * Tokens permitting clients to reconnect without login and password
+	 */
+	private SessionManager sessionManager = new SessionManager();
+
+	/**
+	 * Stocks kept in memory, {@code null} if not used
+	 */
+	private StockLedger stockLedger;
+
+	/**
+	 * Execute modifications of several clients together, {@code null} if not used
+	 */
+	private GroupCommitExecutor groupCommitExecutor;
+
+	/**
+	 * Import products on its own connection, {@code null} if the connection could
+	 * not be created
+	 */
+	private ProductImporter productImporter;
+
+	/**
+	 * All products kept in memory, {@code null} if not used
+	 */
+	private ProductCatalog productCatalog;
+
+	/**
+	 * True if the total of orders is kept in the commande table
+	 */
+	private boolean isOrderTotalStored = false;
+
+	/**
+	 * True if the reservation table exists, reservations are refused else
+	 */
+	private boolean isReservationEnabled = false;
+
+	/**
+	 * Names of the products of the catalog, {@code null} if the catalog is not
+	 * used
+	 */
+	private ProductSearchIndex productSearchIndex;
+
+	/**
+	 * Share the results of identical requests executed at the same time
+	 */
+	private RequestCoalescer requestCoalescer = new RequestCoalescer();
+
+	/**
+	 * Quantities of products reserved for orders being prepared
+	 */
+	private ReservationManager reservationManager = new ReservationManager();
+
+	/**
+	 * Remove reservations that have expired
+	 */
+	private ScheduledExecutorService reservationScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "reservation-expiration");
+		thread.setDaemon(true);
+		return thread;
+	});
+
 	/**
 	 * Creating an instance of the class will start listenning for new clients
 	 * 
@@ -52,7 +233,31 @@ public class ThreadsConnectionHandler extends Thread {
 	public ThreadsConnectionHandler(int port, String databaseUrl, String databaseUser, String databasePassword) {
 		try {
 			// connect to database
-			databaseManager = new DatabaseManager(databaseUrl, databaseUser, databasePassword);
+			databaseManager = new DatabaseManager(databaseUrl, databaseUser, databasePassword, serverName);
+			invalidationChannel = createInvalidationChannel(databaseUrl, databaseUser, databasePassword);
+			invalidationChannel.addListener(this::onInvalidation);
+			lastConnectionWriter = new LastConnectionWriter(databaseManager);
+			// dates not written yet must not be lost when server stops
+			Runtime.getRuntime().addShutdownHook(new Thread(lastConnectionWriter::close));
+			if (USE_STOCK_LEDGER) {
+				stockLedger = createStockLedger();
+			}
+			if (USE_PRODUCT_CATALOG) {
+				productCatalog = new ProductCatalog(databaseManager);
+				loadProductCatalog();
+				productSearchIndex = new ProductSearchIndex(productCatalog);
+			}
+			if (USE_GROUP_COMMIT) {
+				groupCommitExecutor = createGroupCommitExecutor(databaseUrl, databaseUser, databasePassword);
+			}
+			productImporter = createProductImporter(databaseUrl, databaseUser, databasePassword);
+			if (USE_ORDER_TOTAL_COLUMN) {
+				isOrderTotalStored = isOrderTotalTriggerInstalled();
+			}
+			isReservationEnabled = loadReservations();
+			if (isReservationEnabled) {
+				reservationScheduler.scheduleWithFixedDelay(this::releaseExpiredReservations, 1, 1, TimeUnit.MINUTES);
+			}
 			serverSocket = new ServerSocket(port);
 			start();
 			logger.info("Server waiting for clients on port " + port);
@@ -73,6 +278,153 @@ public class ThreadsConnectionHandler extends Thread {
 		// here, the thread will start end witing for new clients
 	}
 
+	/**
+	 * Create the channel used to communicate with other servers. If the dedicated
+	 * connection can't be created, server will work alone.
+	 */
+	private InvalidationChannel createInvalidationChannel(String databaseUrl, String databaseUser,
+			String databasePassword) {
+		try {
+			PostgresInvalidationChannel channel = new PostgresInvalidationChannel(serverName, databaseManager,
+					databaseUrl, databaseUser, databasePassword);
+			if (INSTALL_INVALIDATION_TRIGGERS) {
+				channel.installTriggers();
+			}
+			return channel;
+		} catch (SQLException e) {
+			logger.error("Cannot listen for modifications of other servers : " + e.getMessage());
+			return new LocalInvalidationChannel(serverName);
+		}
+	}
+
+	/**
+	 * Create the executor used to group modifications, on its own connection. If
+	 * the connection can't be created, queries will be executed one by one.
+	 */
+	private GroupCommitExecutor createGroupCommitExecutor(String databaseUrl, String databaseUser,
+			String databasePassword) {
+		try {
+			GroupCommitExecutor executor = new GroupCommitExecutor(
+					new DatabaseManager(databaseUrl, databaseUser, databasePassword, serverName));
+			// queries waiting must be executed when server stops
+			Runtime.getRuntime().addShutdownHook(new Thread(executor::close));
+			return executor;
+		} catch (SQLException e) {
+			logger.error("Cannot group modifications of clients : " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Check that the column containing the total of orders and its trigger exist.
+	 * If they don't, totals are computed each time orders are read.
+	 * 
+	 * @return true if the column can be used
+	 */
+	private boolean isOrderTotalTriggerInstalled() {
+		try {
+			if (new OrderTotalTrigger(databaseManager).isInstalled()) {
+				return true;
+			}
+			logger.warn("Totals of orders are not kept in database, execute sql/order_total.sql to keep them");
+		} catch (SQLException e) {
+			logger.error("Cannot check totals of orders in database : " + e.getMessage());
+		}
+		return false;
+	}
+
+	/**
+	 * Create the importer of products, on its own connection so imports don't slow
+	 * down other clients. If the connection can't be created, imports are not
+	 * possible.
+	 */
+	private ProductImporter createProductImporter(String databaseUrl, String databaseUser,
+			String databasePassword) {
+		try {
+			return new ProductImporter(new DatabaseManager(databaseUrl, databaseUser, databasePassword, serverName));
+		} catch (SQLException e) {
+			logger.error("Cannot import products : " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Read all products of the catalog from the database. If the stock ledger is
+	 * used, stocks are then taken from it, since it may have modifications not
+	 * written in the database yet.
+	 * 
+	 * @throws SQLException if products can't be read
+	 */
+	private void loadProductCatalog() throws SQLException {
+		productCatalog.load();
+		if (stockLedger == null) {
+			return;
+		}
+		ProductCatalog.Snapshot snapshot = productCatalog.getSnapshot();
+		for (int slot = 0; slot < snapshot.getSlotsNumber(); slot++) {
+			if (!snapshot.isRemoved(slot)) {
+				int productId = snapshot.getProductId(slot);
+				try {
+					productCatalog.setStock(productId, stockLedger.getStock(productId));
+				} catch (StockException e) {
+					// product not known by the ledger
+				}
+			}
+		}
+	}
+
+	/**
+	 * Load reservations that have not expired. The reservation table is created by
+	 * sql/reservation.sql : if it doesn't exist, reservations are not possible.
+	 * 
+	 * @return true if reservations can be used
+	 * @throws SQLException if reservations can't be read
+	 */
+	private boolean loadReservations() throws SQLException {
+		ResultSet table = databaseManager.executeSelectQueryParams(
+				"SELECT 1 FROM information_schema.tables WHERE table_name = 'reservation'");
+		if (!table.next()) {
+			logger.warn("Reservations are disabled, execute sql/reservation.sql in order to use them");
+			return false;
+		}
+		databaseManager.executeDmlQueryParams("DELETE FROM reservation WHERE date_expiration <= ?",
+				new Timestamp(System.currentTimeMillis()));
+		ResultSet reservations = databaseManager.executeSelectQueryParams(
+				"SELECT id_commande, id_produit, quantite_reservee, date_expiration FROM reservation");
+		int count = 0;
+		while (reservations.next()) {
+			reservationManager.restore(reservations.getInt(1), reservations.getInt(2), reservations.getInt(3),
+					reservations.getTimestamp(4).getTime());
+			count++;
+		}
+		logger.info(count + " reservations loaded");
+		return true;
+	}
+
+	/**
+	 * Create the stock ledger and its journal, and load stocks
+	 * 
+	 * @throws SQLException if stocks can't be read
+	 */
+	private StockLedger createStockLedger() throws SQLException {
+		StockLedger ledger = new StockLedger(databaseManager);
+		if (STOCK_JOURNAL_FILE != null) {
+			try {
+				ledger.setWriteAheadLog(new StockWriteAheadLog(STOCK_JOURNAL_FILE));
+			} catch (IOException e) {
+				// we can't do anything here, modifications of last execution could be lost
+				String errorMessage = "Cannot open stock journal : " + e.getMessage();
+				System.err.println(errorMessage);
+				logger.fatal(errorMessage);
+				System.exit(-1);
+			}
+		}
+		ledger.start();
+		// stocks not written yet must be written when server stops
+		Runtime.getRuntime().addShutdownHook(new Thread(ledger::close));
+		return ledger;
+	}
+
 	@Override
 	public void run() {
 		while (isListening) {
@@ -96,6 +448,9 @@ public class ThreadsConnectionHandler extends Thread {
 	 * @todo faire une actualisation de la connection
 	 */
 	public Protocol queryConnectionDatabase(String login, String password, boolean isAdmin) {
+		if (credentialCache.isValid(login, password, isAdmin)) {
+			return ProtocolFactory.createSuccessProtocol();
+		}
 		try {
 			ResultSet result;
 			// the select will not be done in the same table if client is admin or not
@@ -114,22 +469,23 @@ public class ThreadsConnectionHandler extends Thread {
 			int count = result.getInt("count");
 			// if different from 1, we didn't found the user in the database
 			if (count != 1) {
-				return ProtocolFactory.createErrorProtocol("Le combo identifiant / mot de passe n'est pas valide");
+				return ProtocolFactory.getFixedErrorProtocol("Le combo identifiant / mot de passe n'est pas valide");
 			} else {
+				credentialCache.store(login, password, isAdmin);
 				return ProtocolFactory.createSuccessProtocol();
 			}
 
 		} catch (IllegalArgumentException e) {
 			logger.error("Error while preparing statement : " + e.getMessage());
 			// should never happen in normal circumstances
-			return ProtocolFactory.createErrorProtocol(
+			return ProtocolFactory.getFixedErrorProtocol(
 					"La requte envoye a un problme de coception. Nous ne pouvons pas accder  votre requte pour l'instant");
 
 		} catch (SQLException e) {
 			String errorMessage = "Error while communicating with database : " + e.getMessage();
 			logger.error(errorMessage);
 			// we will send to client an error message
-			return ProtocolFactory.createErrorProtocol("Erreur lors de la communication avec la base de donnes.");
+			return ProtocolFactory.getFixedErrorProtocol("Erreur lors de la communication avec la base de donnes.");
 		}
 	}
 
@@ -141,14 +497,49 @@ public class ThreadsConnectionHandler extends Thread {
 		users.remove(user);
 	}
 
+	/**
+	 * Remember the connection date of the user. It will be written later in the
+	 * database, with the ones of other users.
+	 */
 	public void updateLastConnexionUser(User user) {
-		try {
-			databaseManager.executeDmlQueryParams(
-					"UPDATE Employe SET date_derniere_connexion_employe = NOW() WHERE nom_employe = '" + user.getName()
-							+ "'");
-		} catch (IllegalArgumentException | SQLException e) {
-			logger.error("Impossible d'actualiser la dernire connexion de l'employe "+user.getName());
-		}
+		lastConnectionWriter.recordConnection(user.getName());
+	}
+
+	/**
+	 * Create the token that the client will be able to use in order to reconnect
+	 * 
+	 * @param user   the user connected
+	 * @param client the thread of the connection
+	 * @return the token to send to the client
+	 */
+	public String createSessionToken(User user, ClientThread client) {
+		return sessionManager.createToken(user, client);
+	}
+
+	/**
+	 * Get back the session of a client reconnecting. No query is done to the
+	 * database.
+	 * 
+	 * @param token the token sent by the client
+	 * @return the session, or {@code null} if token is not valid
+	 */
+	public SessionManager.Session resumeSession(String token) {
+		return sessionManager.resume(token);
+	}
+
+	/**
+	 * Called when a connection is lost : the validity delay of the token starts,
+	 * so the client has the whole delay to use it
+	 */
+	public void startSessionExpiration(String token) {
+		sessionManager.startExpiration(token);
+	}
+
+	/**
+	 * Called when a client disconnects normally : he won't need his token anymore
+	 */
+	public void revokeSessionToken(String token) {
+		sessionManager.revokeToken(token);
 	}
 
 	/**
@@ -186,7 +577,7 @@ public class ThreadsConnectionHandler extends Thread {
 			// if different from 1, we didn't found the id of produc
 			if (count != 0) {
 				logger.error("wrong cause : invalid id product  ");
-				return ProtocolFactory.createErrorProtocol(" le produit existe dja  ");
+				return ProtocolFactory.getFixedErrorProtocol(" le produit existe dja  ");
 			} else {
 				/**
 				 * veirify if the name is not more than 50 caracter
@@ -195,51 +586,58 @@ public class ThreadsConnectionHandler extends Thread {
 					/*
 					 * verification of price between 0.1 and 999.99
 					 */
-					float verprice = Float.parseFloat(recievedProtocol.getOptionsElement(1));
-					if ((0 < verprice) || (verprice < 1000)) {
-						int quantity = Integer.parseInt(recievedProtocol.getOptionsElement(2));
+					long price = recievedProtocol.getPriceCents(1);
+					if ((0 < price) || (price < 1000 * 100)) {
+						int quantity = recievedProtocol.getInt(2);
 						if ((quantity >= 0) || (recievedProtocol.getOptionsElement(3).length() < 5)) {
-							BigDecimal price = new BigDecimal(recievedProtocol.getOptionsElement(1));
 							/*
 							 * prepare the SQL resquest fpr BD
 							 */
-							boolean query;
-							query = databaseManager.executeDmlQueryParams(
-									"INSERT INTO produit (nom_produit,prix_produit,stock_total_produit) VALUES(?,?,?)",
-									recievedProtocol.getOptionsElement(0), price, quantity);
-							if (query) {
+							ResultSet query;
+							query = databaseManager.executeSelectQueryParams(
+									"INSERT INTO produit (nom_produit,prix_produit,stock_total_produit) VALUES(?,?,?) RETURNING id_produit",
+									recievedProtocol.getOptionsElement(0), Money.toBigDecimal(price), quantity);
+							if (query.next()) {
+								if (stockLedger != null) {
+									stockLedger.register(query.getInt(1), quantity);
+								}
+								if (productCatalog != null) {
+									productCatalog.put(query.getInt(1), recievedProtocol.getOptionsElement(0), price,
+											quantity, ProductCatalog.NO_PROMOTION);
+								}
+								invalidationChannel.publish(InvalidationChannel.TABLE_PRODUCT, query.getString(1));
 								return ProtocolFactory.createSuccessProtocol();
 							} else {
-								return ProtocolFactory.createErrorProtocol("n'a pas pus ajouter le produit");
+								return ProtocolFactory.getFixedErrorProtocol("n'a pas pus ajouter le produit");
 							}
 
 						} else {
 							logger.error("wrong cause : invalid quantity ");
-							return ProtocolFactory.createErrorProtocol(
+							return ProtocolFactory.getFixedErrorProtocol(
 									"le produit n'est pas ajouter cause : la quantit n'est pas possible  ");
 						}
 					} else {
 						logger.error("wrong cause : invalid price ");
 						return ProtocolFactory
-								.createErrorProtocol("le produit n'est pas ajouter cause : le prix n'est pas valide");
+								.getFixedErrorProtocol("le produit n'est pas ajouter cause : le prix n'est pas valide");
 					}
 				} else {
 					logger.error("wrong cause: invalid name ");
 					return ProtocolFactory
-							.createErrorProtocol("le produit n'est pas ajouter cause : nom de produit trop long");
+							.getFixedErrorProtocol("le produit n'est pas ajouter cause : nom de produit trop long");
 				}
 			}
 		} catch (SQLException ex) { // vrifier l'execption
 			ex.printStackTrace();
 			String errormessage = ex.getMessage();
 			logger.error(errormessage);
-			return ProtocolFactory.createErrorProtocol(
+			return ProtocolFactory.getFixedErrorProtocol(
 					"le produit n'est pas ajout. Cause : impossible de se connecter a la base de donnes");
 		} catch (NumberFormatException ex) {
 			String errormessage = ex.getMessage();
 			logger.error(errormessage);
 			return ProtocolFactory
-					.createErrorProtocol("le produit n'est pas ajout. Cause : les donnes sont invalides ");
+					.getFixedErrorProtocol("le produit n'est pas ajout. Cause : les donnes sont invalides ");
 		}
 	}
 
@@ -250,66 +648,218 @@ public class ThreadsConnectionHandler extends Thread {
 	 * @return succes or ehec protocol
 	 */
 	public Protocol queryAddProductQuantity(Protocol recievedProtocol) {
+		if (stockLedger != null) {
+			// same checks as below : the new quantity can't be negative
+			return queryAdjustStockInMemory(recievedProtocol, 1, 0, Integer.MAX_VALUE);
+		}
 		try {
+			int productId = recievedProtocol.getInt(0);
+			int addquantity = recievedProtocol.getInt(1);
+			int reservedQuantity = 0;
+			Integer newquantity;
+			// nothing can be reserved between the check and the modification
+			List<ReentrantLock> locks = reservationManager.lockProducts(productId);
+			try {
+				if (addquantity < 0) {
+					// the stock can't become negative, and reserved products can't be removed
+					reservedQuantity = reservationManager.getReservedQuantity(productId);
+				}
+				newquantity = adjustStockInDatabase(productId, addquantity, reservedQuantity, Integer.MAX_VALUE);
+			} finally {
+				reservationManager.unlockProducts(locks);
+			}
+			if (newquantity != null) {
+				productStockChanged(productId, newquantity);
+				return ProtocolFactory.createSuccessProtocol();
+			}
 			/*
 			 * verify if the produc id exist
 			 */
-
 			ResultSet exist = databaseManager.executeSelectQueryParams(
-					"SELECT COUNT(*) AS count FROM produit Where id_produit=?",
-					Integer.parseInt(recievedProtocol.getOptionsElement(0)));
+					"SELECT COUNT(*) AS count FROM produit Where id_produit=?", productId);
 			exist.next();
-			int count = exist.getInt("count");
 			// if different from 1, we didn't found the id of produc
-			if (count != 1) {
+			if (exist.getInt("count") != 1) {
 				logger.error("wrong cause : invalid id product  ");
-				return ProtocolFactory.createErrorProtocol(" le produit n'a pas t trouver ");
-			} else {
-				/*
-				 * verify the quantity of stock is under 1000 and superior of 0
-				 */
-				int addquantity = Integer.parseInt(recievedProtocol.getOptionsElement(1));
-				ResultSet quantity = databaseManager.executeSelectQueryParams(
-						"SELECT  stock_total_produit FROM produit Where id_produit=?",
-						Integer.parseInt(recievedProtocol.getOptionsElement(0)));
-				quantity.next();
-				/*
-				 * addition the quantity in db and the addquantity
-				 */
-				int realquantity = quantity.getInt("stock_total_produit");
-				int newquantity = addquantity + realquantity;
-				if ((newquantity > 0) || (newquantity < 1000)) {
-
-					Boolean querynewquantity;
-					querynewquantity = databaseManager.executeDmlQueryParams(
-							"UPDATE produit SET stock_total_produit = ? WHERE id_produit =?", newquantity,
-							Integer.parseInt(recievedProtocol.getOptionsElement(0)));
-					if (querynewquantity) {
-						return ProtocolFactory.createSuccessProtocol();
-					} else {
-						return ProtocolFactory.createErrorProtocol("on n'a pas pus changer la quantit");
-					}
-
-				} else {
-					logger.error("wrong cause : invalid price  ");
-					return ProtocolFactory.createErrorProtocol(" le prix n'est pas possible  ");
-				}
-
+				return ProtocolFactory.getFixedErrorProtocol(" le produit n'a pas t trouver ");
 			}
-
+			if (reservedQuantity > 0) {
+				logger.error("Wrong cause : quantity reserved");
+				return ProtocolFactory.createErrorProtocol(
+						"impossible de retirer cette quantit, " + reservedQuantity + " produits sont rservs");
+			}
+			logger.error("Wrong cause : invalid quantity");
+			return ProtocolFactory.getFixedErrorProtocol("La nouvelle quantit ne peut pas tre ngative");
 		} catch (SQLException ex) { // vrifier l'execption
 			ex.printStackTrace();
 			String errormessage = ex.getMessage();
 			logger.error(errormessage);
-			return ProtocolFactory.createErrorProtocol(
+			return ProtocolFactory.getFixedErrorProtocol(
 					"le produit n'est pas ajouter cause : impossible de se connecter a la base de donnes");
 		} catch (NumberFormatException ex) {
 			String errormessage = ex.getMessage();
 			logger.error(errormessage);
 			return ProtocolFactory
-					.createErrorProtocol("le produit n'est pas modifi . Cause : les donnes sont invalides ");
+					.getFixedErrorProtocol("le produit n'est pas modifi . Cause : les donnes sont invalides ");
+		}
+
+	}
+
+	/**
+	 * Add or remove quantities of several products at once (when a delivery is
+	 * recieved for example). All lines are checked first : if one of them is not
+	 * valid, no stock is modified.
+	 * 
+	 * @param recievedProtocol one option "id;quantity" per line, the quantity
+	 *                         being negative in order to remove products
+	 * @return the new stock of each line, or an error followed by the lines that
+	 *         are not valid ("line;id;reason")
+	 */
+	Protocol queryAdjustSeveralStocks(Protocol recievedProtocol) {
+		int linesNumber = recievedProtocol.getOptionsListSize();
+		if (linesNumber > MAX_ADJUSTMENT_LINES) {
+			return ProtocolFactory.createErrorProtocol("Une modification ne peut pas contenir plus de "
+					+ MAX_ADJUSTMENT_LINES + " lignes");
+		}
+		int[] productIds = new int[linesNumber];
+		int[] quantities = new int[linesNumber];
+		for (int i = 0; i < linesNumber; i++) {
+			String[] line = recievedProtocol.getOptionsElement(i).split(";");
+			try {
+				if (line.length != 2) {
+					throw new NumberFormatException();
+				}
+				productIds[i] = Integer.parseInt(line[0].trim());
+				quantities[i] = Integer.parseInt(line[1].trim());
+			} catch (NumberFormatException e) {
+				logger.error("Stock adjustment line " + (i + 1) + " is not valid");
+				return ProtocolFactory.createErrorProtocol("La ligne " + (i + 1) + " n'est pas valide");
+			}
+		}
+		// nothing can be reserved between the checks and the modifications
+		List<ReentrantLock> locks = reservationManager.lockProducts(productIds);
+		try {
+			// current stocks of all products, read at once
+			Map<Integer, Integer> stocks = new HashMap<>();
+			if (stockLedger != null) {
+				for (int productId : productIds) {
+					try {
+						stocks.put(productId, stockLedger.getStock(productId));
+					} catch (StockException e) {
+						// product not found
+					}
+				}
+			} else {
+				ResultSet currentStocks = databaseManager.executeSelectQueryParams(
+						"SELECT id_produit, stock_total_produit FROM produit WHERE id_produit = ANY(?)",
+						databaseManager.createArray("integer", Arrays.stream(productIds).boxed().toArray()));
+				while (currentStocks.next()) {
+					stocks.put(currentStocks.getInt(1), currentStocks.getInt(2));
+				}
+			}
+			// the stock after each line, reserved quantities can't be removed
+			int[] newStocks = new int[linesNumber];
+			int[] minimums = new int[linesNumber];
+			List<String> invalidLines = new ArrayList<>();
+			for (int i = 0; i < linesNumber; i++) {
+				Integer stock = stocks.get(productIds[i]);
+				if (stock == null) {
+					invalidLines.add((i + 1) + ";" + productIds[i] + ";produit introuvable");
+					continue;
+				}
+				long newStock = (long) stock + quantities[i];
+				minimums[i] = reservationManager.getReservedQuantity(productIds[i]);
+				if (newStock < minimums[i] || newStock > Integer.MAX_VALUE) {
+					invalidLines.add((i + 1) + ";" + productIds[i] + ";quantit impossible (stock " + stock
+							+ ", rserv " + minimums[i] + ")");
+					continue;
+				}
+				newStocks[i] = (int) newStock;
+				stocks.put(productIds[i], newStocks[i]);
+			}
+			if (!invalidLines.isEmpty()) {
+				logger.error(invalidLines.size() + " stock adjustment lines are not valid");
+				Protocol error = ProtocolFactory.createErrorProtocol("Aucun stock n'a t modifi, lignes non valides :");
+				for (String invalidLine : invalidLines) {
+					error.appendOption(invalidLine);
+				}
+				return error;
+			}
+			// stocks are checked again when they are modified, in case another client has
+			// modified one of them meanwhile
+			Map<Integer, Integer> finalStocks = new HashMap<>();
+			if (stockLedger != null) {
+				newStocks = stockLedger.adjustAll(productIds, quantities, minimums, Integer.MAX_VALUE);
+				for (int i = 0; i < linesNumber; i++) {
+					finalStocks.put(productIds[i], newStocks[i]);
+				}
+			} else {
+				finalStocks = applyStockAdjustments(productIds, quantities, minimums);
+				if (finalStocks.isEmpty()) {
+					return ProtocolFactory.getFixedErrorProtocol(
+							"Aucun stock n'a t modifi : un stock a chang entre temps, veuillez ressayer");
+				}
+				// the stock after each line, from the final stock of its product
+				Map<Integer, Integer> followingStocks = new HashMap<>(finalStocks);
+				for (int i = linesNumber - 1; i >= 0; i--) {
+					newStocks[i] = followingStocks.get(productIds[i]);
+					followingStocks.put(productIds[i], newStocks[i] - quantities[i]);
+				}
+			}
+			Protocol protocol = new Protocol(ActionCodes.SUCESS);
+			protocol.appendInt(linesNumber);
+			for (int i = 0; i < linesNumber; i++) {
+				protocol.appendOption(productIds[i] + ";" + newStocks[i]);
+			}
+			// clients are warned with the final stock of each product only
+			for (Map.Entry<Integer, Integer> stock : finalStocks.entrySet()) {
+				productStockChanged(stock.getKey(), stock.getValue());
+			}
+			return protocol;
+		} catch (StockException ex) {
+			logger.error(ex.getMessage());
+			return ProtocolFactory.createErrorProtocol(ex.getMessage());
+		} catch (SQLException ex) {
+			ex.printStackTrace();
+			logger.error(ex.getMessage());
+			return ProtocolFactory.getFixedErrorProtocol(
+					"les stocks ne sont pas modifis cause : impossible de se connecter a la base de donnes");
+		} finally {
+			reservationManager.unlockProducts(locks);
 		}
+	}
 
+	/**
+	 * Modify the stocks of several products in a single query. Products are locked
+	 * first, and stocks are only modified if all of them stay above their minimum.
+	 * 
+	 * @param productIds the product of each line
+	 * @param quantities the quantity to add of each line
+	 * @param minimums   the minimum stock of the product of each line
+	 * @return the new stock of each product, empty if no stock has been modified
+	 *         because one of them would have been under its minimum
+	 * @throws SQLException if an error while communicating database occurs
+	 */
+	private Map<Integer, Integer> applyStockAdjustments(int[] productIds, int[] quantities, int[] minimums) throws SQLException {
+		ResultSet result = databaseManager.executeSelectQueryParams(
+				"WITH totals AS (SELECT id_produit, SUM(quantite) AS quantite, MAX(minimum) AS minimum "
+						+ "FROM unnest(?::integer[], ?::integer[], ?::integer[]) AS line(id_produit, quantite, minimum) "
+						+ "GROUP BY id_produit), "
+						+ "locked AS (SELECT produit.id_produit, produit.stock_total_produit + totals.quantite AS nouveau_stock, totals.minimum "
+						+ "FROM produit JOIN totals ON produit.id_produit = totals.id_produit "
+						+ "ORDER BY produit.id_produit FOR UPDATE OF produit) "
+						+ "UPDATE produit SET stock_total_produit = locked.nouveau_stock FROM locked "
+						+ "WHERE produit.id_produit = locked.id_produit "
+						+ "AND (SELECT COUNT(*) FROM locked WHERE nouveau_stock >= minimum) = (SELECT COUNT(*) FROM totals) "
+						+ "RETURNING produit.id_produit, produit.stock_total_produit",
+				databaseManager.createArray("integer", Arrays.stream(productIds).boxed().toArray()),
+				databaseManager.createArray("integer", Arrays.stream(quantities).boxed().toArray()),
+				databaseManager.createArray("integer", Arrays.stream(minimums).boxed().toArray()));
+		Map<Integer, Integer> newStocks = new HashMap<>();
+		while (result.next()) {
+			newStocks.put(result.getInt(1), result.getInt(2));
+		}
+		return newStocks;
 	}
 
 	/**
@@ -319,66 +869,444 @@ public class ThreadsConnectionHandler extends Thread {
 	 * @return succes or echec protocol
 	 */
 	public Protocol queryRemoveProductQuantity(Protocol recievedProtocol) {
+		if (stockLedger != null) {
+			// same checks as below : new quantity must be between 1 and 999
+			return queryAdjustStockInMemory(recievedProtocol, -1, 1, 999);
+		}
 		try {
+			int productId = recievedProtocol.getInt(0);
+			int removequantity = recievedProtocol.getInt(1);
 			/*
-			 * verify if the produc id exist
+			 * the new quantity must be between 1 and 999, and reserved products can't be
+			 * removed
 			 */
-
-			ResultSet exist = databaseManager.executeSelectQueryParams(
-					"SELECT COUNT(*) AS count FROM produit Where id_produit=?",
-					Integer.parseInt(recievedProtocol.getOptionsElement(0)));
-			exist.next();
-			int count = exist.getInt("count");
-			// if different from 1, we didn't found the id of produc
-			if (count != 1) {
+			int reservedQuantity;
+			Integer newquantity;
+			// nothing can be reserved between the check and the modification
+			List<ReentrantLock> locks = reservationManager.lockProducts(productId);
+			try {
+				reservedQuantity = reservationManager.getReservedQuantity(productId);
+				newquantity = adjustStockInDatabase(productId, -removequantity, Math.max(1, reservedQuantity), 999);
+			} finally {
+				reservationManager.unlockProducts(locks);
+			}
+			if (newquantity != null) {
+				productStockChanged(productId, newquantity);
+				return ProtocolFactory.createSuccessProtocol();
+			}
+			// the stock has not been modified, we look for the reason
+			ResultSet quantity = databaseManager.executeSelectQueryParams(
+					"SELECT stock_total_produit FROM produit Where id_produit=?", productId);
+			if (!quantity.next()) {
 				logger.error("wrong cause : invalid id product  ");
-				return ProtocolFactory.createErrorProtocol(" le produit n'a pas t trouver ");
-			} else {
-				/*
-				 * verify the quantity of stock is under 1000 and superior of 0
-				 */
-				int addquantity = Integer.parseInt(recievedProtocol.getOptionsElement(1));
-				ResultSet quantity = databaseManager.executeSelectQueryParams(
-						"SELECT  stock_total_produit FROM produit Where id_produit=?",
-						Integer.parseInt(recievedProtocol.getOptionsElement(0)));
-				quantity.next();
-				/*
-				 * addition the quantity in db and the addquantity
-				 */
-				int realquantity = quantity.getInt("stock_total_produit");
-				int newquantity = realquantity - addquantity;
-				if ((newquantity > 0) && (newquantity < 1000)) {
-
-					Boolean removeQuantity;
-					removeQuantity = databaseManager.executeDmlQueryParams(
-							"UPDATE produit SET stock_total_produit = ? WHERE id_produit =?", newquantity,
-							Integer.parseInt(recievedProtocol.getOptionsElement(0)));
-					if (removeQuantity) {
-						return ProtocolFactory.createSuccessProtocol();
-					} else {
-						return ProtocolFactory.createErrorProtocol("on n'a pas pus retirer la quantite demander");
-					}
+				return ProtocolFactory.getFixedErrorProtocol(" le produit n'a pas t trouver ");
+			}
+			int wantedquantity = quantity.getInt(1) - removequantity;
+			if (wantedquantity < reservedQuantity) {
+				logger.error("Wrong cause : quantity reserved");
+				return ProtocolFactory.createErrorProtocol(
+						"impossible de retirer cette quantit, " + reservedQuantity + " produits sont rservs");
+			}
+			logger.error("Wrong cause : invalid quantity");
+			return ProtocolFactory.createErrorProtocol("La nouvelle quantit n'est pas valide : " + wantedquantity);
+		} catch (SQLException ex) { // vrifier l'execption
+			ex.printStackTrace();
+			String errormessage = ex.getMessage();
+			logger.error(errormessage);
+			return ProtocolFactory.getFixedErrorProtocol(
+					"le produit n'est pas modifier cause : impossible de se connecter a la base de donnes");
+		} catch (NumberFormatException ex) {
+			String errormessage = ex.getMessage();
+			logger.error(errormessage);
+			return ProtocolFactory
+					.getFixedErrorProtocol("le produit n'est pas ajout. Cause : les donnes sont invalides ");
+		}
+	}
 
-				} else {
-					logger.error("Wrong cause : invalid quantity");
-					return ProtocolFactory
-							.createErrorProtocol("La nouvelle quantit n'est pas valide : " + newquantity);
+	/**
+	 * Add a quantity to the stock of a product with a single query, checking the
+	 * new stock in the same query : modifications done at the same time by other
+	 * clients are never lost or overwritten
+	 * 
+	 * @param quantity the quantity to add, negative in order to remove products
+	 * @param minimum  the minimum stock allowed after modification
+	 * @param maximum  the maximum stock allowed after modification
+	 * @return the new stock, or {@code null} if the product doesn't exist or if the
+	 *         new stock would not be allowed (the stock is then not modified)
+	 */
+	private Integer adjustStockInDatabase(int productId, int quantity, int minimum, int maximum)
+			throws SQLException {
+		return executeGroupedReturningIntQueryParams(
+				"UPDATE produit SET stock_total_produit = stock_total_produit + ? WHERE id_produit = ? "
+						+ "AND stock_total_produit + ? BETWEEN ? AND ? RETURNING stock_total_produit",
+				quantity, productId, quantity, minimum, maximum);
+	}
+
+	/**
+	 * Modify the stock of a product in the stock ledger, without waiting for the
+	 * database
+	 * 
+	 * @param recievedProtocol the protocol containing the product id and the
+	 *                         quantity
+	 * @param sign             1 in order to add the quantity, -1 to remove it
+	 * @param minimum          the minimum stock allowed after modification
+	 * @param maximum          the maximum stock allowed after modification
+	 * @return succes or echec protocol
+	 */
+	private Protocol queryAdjustStockInMemory(Protocol recievedProtocol, int sign, int minimum, int maximum) {
+		try {
+			int productId = recievedProtocol.getInt(0);
+			int quantity = recievedProtocol.getInt(1);
+			int newQuantity;
+			// nothing can be reserved between the check and the modification
+			List<ReentrantLock> locks = reservationManager.lockProducts(productId);
+			try {
+				if (sign * quantity < 0) {
+					// reserved products can't be removed
+					minimum = Math.max(minimum, reservationManager.getReservedQuantity(productId));
 				}
+				newQuantity = stockLedger.adjust(productId, sign * quantity, minimum, maximum);
+			} finally {
+				reservationManager.unlockProducts(locks);
+			}
+			productStockChanged(productId, newQuantity);
+			return ProtocolFactory.createSuccessProtocol();
+		} catch (StockException ex) {
+			logger.error(ex.getMessage());
+			return ProtocolFactory.createErrorProtocol(ex.getMessage());
+		} catch (NumberFormatException ex) {
+			logger.error(ex.getMessage());
+			return ProtocolFactory
+					.getFixedErrorProtocol("le produit n'est pas modifi . Cause : les donnes sont invalides ");
+		}
+	}
+
+	/**
+	 * Execute a modification with the ones of other clients if possible, else
+	 * directly
+	 * 
+	 * @see DatabaseManager#executeDmlQueryParams(String, Object...)
+	 */
+	private boolean executeGroupedDmlQueryParams(String query, Object... params) throws SQLException {
+		if (groupCommitExecutor != null) {
+			return groupCommitExecutor.executeDmlQueryParams(query, params);
+		}
+		return databaseManager.executeDmlQueryParams(query, params);
+	}
+
+	/**
+	 * Execute a modification returning a number with the ones of other clients if
+	 * possible, else directly
+	 * 
+	 * @see GroupCommitExecutor#executeReturningIntQueryParams(String, Object...)
+	 */
+	private Integer executeGroupedReturningIntQueryParams(String query, Object... params) throws SQLException {
+		if (groupCommitExecutor != null) {
+			return groupCommitExecutor.executeReturningIntQueryParams(query, params);
+		}
+		ResultSet result = databaseManager.executeSelectQueryParams(query, params);
+		return result.next() ? result.getInt(1) : null;
+	}
+
+	/**
+	 * Reserve a quantity of a product for an order being prepared. The quantity
+	 * will be removed from the stock when the order is validated, or freed if the
+	 * order is deleted or not modified for a while.
+	 * 
+	 * @param recievedProtocol protocol containing the id of the order, the id of
+	 *                         the product and the quantity to reserve
+	 * @return echec or success protocol
+	 */
+	public Protocol queryReserveProduct(Protocol recievedProtocol) {
+		if (!isReservationEnabled) {
+			return ProtocolFactory.getFixedErrorProtocol("les rservations ne sont pas disponibles sur ce serveur");
+		}
+		try {
+			int orderId = recievedProtocol.getInt(0);
+			int productId = recievedProtocol.getInt(1);
+			int quantity = recievedProtocol.getInt(2);
+			ResultSet order = databaseManager.executeSelectQueryParams(
+					"SELECT COUNT(*) AS count FROM commande WHERE id_commande=?", orderId);
+			order.next();
+			if (order.getInt("count") != 1) {
+				logger.error("wrong cause : invalid id command  ");
+				return ProtocolFactory.getFixedErrorProtocol("la commande n'a pas t trouve");
+			}
+			long expiration;
+			// the stock can't be removed between its reading and the reservation
+			List<ReentrantLock> locks = reservationManager.lockProducts(productId);
+			try {
+				expiration = reservationManager.reserve(orderId, productId, quantity, getStockForReservation(productId));
+			} finally {
+				reservationManager.unlockProducts(locks);
+			}
+			try {
+				executeGroupedDmlQueryParams("INSERT INTO reservation VALUES (?, ?, ?, ?) "
+						+ "ON CONFLICT (id_commande, id_produit) DO UPDATE SET "
+						+ "quantite_reservee = reservation.quantite_reservee + EXCLUDED.quantite_reservee, "
+						+ "date_expiration = EXCLUDED.date_expiration",
+						orderId, productId, quantity, new Timestamp(expiration));
+			} catch (SQLException e) {
+				// a reservation that is not saved could be lost, so we don't keep it
+				reservationManager.cancel(orderId, productId, quantity);
+				throw e;
+			}
+			return ProtocolFactory.createSuccessProtocol();
+		} catch (StockException ex) {
+			logger.error(ex.getMessage());
+			return ProtocolFactory.createErrorProtocol(ex.getMessage());
+		} catch (SQLException ex) {
+			logger.error(ex.getMessage());
+			return ProtocolFactory.getFixedErrorProtocol(
+					"le produit n'a pas pus tre rserv. Cause : impossible de se connecter a la base de donnes");
+		} catch (NumberFormatException ex) {
+			logger.error(ex.getMessage());
+			return ProtocolFactory
+					.getFixedErrorProtocol("le produit n'a pas pus tre rserv. Cause : les donnes sont invalides ");
+		}
+	}
+
+	/**
+	 * @return the current stock of the product, from the ledger if it is used
+	 * @throws StockException if the product doesn't exist
+	 */
+	private int getStockForReservation(int productId) throws StockException, SQLException {
+		if (stockLedger != null) {
+			return stockLedger.getStock(productId);
+		}
+		ResultSet product = databaseManager.executeSelectQueryParams(
+				"SELECT stock_total_produit FROM produit WHERE id_produit=?", productId);
+		if (!product.next()) {
+			throw new StockException("Le produit " + productId + " n'a pas t trouv");
+		}
+		return product.getInt(1);
+	}
+
+	/**
+	 * Remove reserved quantities of an order from the stock of products, and delete
+	 * the order. Either all is done, or nothing.
+	 * 
+	 * @param orderId the id of the order validated
+	 * @return false if the order has not been deleted (deleted meanwhile)
+	 * @throws StockException if stock can't be modified (reservations are kept)
+	 * @throws SQLException   if an error while communicating database occurs
+	 *                        (reservations are kept)
+	 */
+	private boolean validateOrder(int orderId) throws StockException, SQLException {
+		while (true) {
+			Set<Integer> productIds = reservationManager.getReservedProducts(orderId);
+			// nothing can be reserved between the checks and the modifications
+			List<ReentrantLock> locks = reservationManager.lockProducts(productIds);
+			try {
+				Map<Integer, Integer> reservations = reservationManager.release(orderId, productIds);
+				if (reservations == null) {
+					// another product has been reserved meanwhile, it must be locked too
+					continue;
+				}
+				try {
+					if (stockLedger != null) {
+						return validateOrderInMemory(orderId, reservations);
+					}
+					return validateOrderInDatabase(orderId);
+				} catch (StockException | SQLException e) {
+					restoreReservations(orderId, reservations);
+					throw e;
+				}
+			} finally {
+				reservationManager.unlockProducts(locks);
+			}
+		}
+	}
+
+	/**
+	 * Remove reserved quantities from the stock of the ledger, then delete the
+	 * order. If the order can't be deleted, the stock is given back.
+	 * 
+	 * @param reservations the quantities reserved by the order, already released
+	 * @see #validateOrder(int)
+	 */
+	private boolean validateOrderInMemory(int orderId, Map<Integer, Integer> reservations)
+			throws StockException, SQLException {
+		int[] productIds = new int[reservations.size()];
+		int[] quantities = new int[reservations.size()];
+		int index = 0;
+		for (Map.Entry<Integer, Integer> reservation : reservations.entrySet()) {
+			productIds[index] = reservation.getKey();
+			quantities[index] = -reservation.getValue();
+			index++;
+		}
+		if (productIds.length == 0) {
+			return deleteOrder(orderId);
+		}
+		// the ledger will write the new stocks in database
+		int[] newStocks = stockLedger.adjustAll(productIds, quantities, 0, Integer.MAX_VALUE);
+		boolean isDeleted;
+		try {
+			isDeleted = deleteOrder(orderId);
+		} catch (SQLException e) {
+			giveBackStock(productIds, quantities);
+			throw e;
+		}
+		if (!isDeleted) {
+			giveBackStock(productIds, quantities);
+			return false;
+		}
+		for (int i = 0; i < productIds.length; i++) {
+			productStockChanged(productIds[i], newStocks[i]);
+		}
+		return true;
+	}
+
+	/**
+	 * Cancel the modification of the stock of an order that could not be deleted
+	 * 
+	 * @param quantities the quantities removed from the stock (negative)
+	 */
+	private void giveBackStock(int[] productIds, int[] quantities) {
+		int[] givenBack = new int[quantities.length];
+		for (int i = 0; i < quantities.length; i++) {
+			givenBack[i] = -quantities[i];
+		}
+		try {
+			int[] newStocks = stockLedger.adjustAll(productIds, givenBack, Integer.MIN_VALUE, Integer.MAX_VALUE);
+			for (int i = 0; i < productIds.length; i++) {
+				productStockChanged(productIds[i], newStocks[i]);
+			}
+		} catch (StockException e) {
+			logger.error("Could not give back the stock of an order not validated : " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Remove reserved quantities from the stock and delete the order in a single
+	 * query, so all is done or nothing. Quantities are the ones of the reservation
+	 * table, which contains the same reservations as the memory.
+	 * 
+	 * @see #validateOrder(int)
+	 */
+	private boolean validateOrderInDatabase(int orderId) throws StockException, SQLException {
+		if (!isReservationEnabled) {
+			return deleteOrder(orderId);
+		}
+		ResultSet result = databaseManager.executeSelectQueryParams(
+				"WITH ordered AS (SELECT id_commande FROM commande WHERE id_commande = ? FOR UPDATE), "
+						+ "reserved AS (SELECT produit.id_produit, reservation.quantite_reservee, produit.stock_total_produit "
+						+ "FROM reservation JOIN produit ON produit.id_produit = reservation.id_produit "
+						+ "WHERE reservation.id_commande = ? ORDER BY produit.id_produit FOR UPDATE OF produit), "
+						+ "checked AS (SELECT EXISTS (SELECT 1 FROM ordered) AS is_found, NOT EXISTS (SELECT 1 FROM reserved "
+						+ "WHERE stock_total_produit < quantite_reservee) AS is_enough), "
+						+ "updated AS (UPDATE produit SET stock_total_produit = produit.stock_total_produit - reserved.quantite_reservee "
+						+ "FROM reserved, checked WHERE produit.id_produit = reserved.id_produit "
+						+ "AND produit.stock_total_produit >= reserved.quantite_reservee AND checked.is_found AND checked.is_enough "
+						+ "RETURNING produit.id_produit, produit.stock_total_produit), "
+						+ "deleted_reservations AS (DELETE FROM reservation USING checked "
+						+ "WHERE id_commande = ? AND checked.is_found AND checked.is_enough), "
+						+ "deleted_products AS (DELETE FROM produit_commande USING checked "
+						+ "WHERE id_commande = ? AND checked.is_found AND checked.is_enough), "
+						+ "deleted_order AS (DELETE FROM commande USING checked "
+						+ "WHERE id_commande = ? AND checked.is_found AND checked.is_enough) "
+						+ "SELECT checked.is_found, checked.is_enough, updated.id_produit, updated.stock_total_produit "
+						+ "FROM checked LEFT OUTER JOIN updated ON true",
+				orderId, orderId, orderId, orderId, orderId);
+		result.next();
+		if (!result.getBoolean(1)) {
+			// order deleted meanwhile, nothing has been modified
+			return false;
+		}
+		if (!result.getBoolean(2)) {
+			throw new StockException("Le stock des produits rservs n'est plus suffisant pour valider la commande");
+		}
+		do {
+			int productId = result.getInt(3);
+			if (!result.wasNull()) {
+				productStockChanged(productId, result.getInt(4));
+			}
+		} while (result.next());
+		return true;
+	}
+
+	/**
+	 * Delete an order, its products and its reservations in a single query
+	 * 
+	 * @return true if the order has been deleted
+	 */
+	private boolean deleteOrder(int orderId) throws SQLException {
+		if (!isReservationEnabled) {
+			return databaseManager.executeDmlQueryParams("WITH products AS (DELETE FROM produit_commande "
+					+ "WHERE id_commande = ?) DELETE FROM commande WHERE id_commande = ?", orderId, orderId);
+		}
+		return databaseManager.executeDmlQueryParams("WITH reserved AS (DELETE FROM reservation WHERE id_commande = ?), "
+				+ "products AS (DELETE FROM produit_commande WHERE id_commande = ?) "
+				+ "DELETE FROM commande WHERE id_commande = ?", orderId, orderId, orderId);
+	}
+
+	/**
+	 * Give back to an order the reservations released for its validation
+	 */
+	private void restoreReservations(int orderId, Map<Integer, Integer> reservations) {
+		long expiration = System.currentTimeMillis() + ReservationManager.RESERVATION_TIMEOUT;
+		for (Map.Entry<Integer, Integer> reservation : reservations.entrySet()) {
+			reservationManager.restore(orderId, reservation.getKey(), reservation.getValue(), expiration);
+		}
+	}
 
+	/**
+	 * Free reserved quantities of an order, without modifying stocks
+	 * 
+	 * @param orderId the id of the order deleted
+	 * @throws SQLException if an error while communicating database occurs
+	 */
+	private void releaseReservations(int orderId) throws SQLException {
+		if (!reservationManager.release(orderId).isEmpty()) {
+			executeGroupedDmlQueryParams("DELETE FROM reservation WHERE id_commande=?", orderId);
+		}
+	}
+
+	/**
+	 * Free reservations of orders not modified for a while
+	 */
+	private void releaseExpiredReservations() {
+		for (int orderId : reservationManager.releaseExpired()) {
+			logger.info("Reservations of order " + orderId + " have expired");
+			try {
+				executeGroupedDmlQueryParams("DELETE FROM reservation WHERE id_commande=?", orderId);
+			} catch (SQLException e) {
+				// they will be deleted when server restarts
+				logger.error("Could not delete expired reservations : " + e.getMessage());
 			}
+		}
+	}
 
-		} catch (SQLException ex) { // vrifier l'execption
-			ex.printStackTrace();
-			String errormessage = ex.getMessage();
-			logger.error(errormessage);
-			return ProtocolFactory.createErrorProtocol(
-					"le produit n'est pas modifier cause : impossible de se connecter a la base de donnes");
-		} catch (NumberFormatException ex) {
-			String errormessage = ex.getMessage();
-			logger.error(errormessage);
-			return ProtocolFactory
-					.createErrorProtocol("le produit n'est pas ajout. Cause : les donnes sont invalides ");
+	/**
+	 * Read a price in the database, in order to send it to the client
+	 * 
+	 * @param resultSet the result containing the price
+	 * @param column    the index of the column of the price
+	 * @return the price written with 2 decimals, or {@code null} if there is no
+	 *         price
+	 */
+	private static String readPrice(ResultSet resultSet, int column) throws SQLException {
+		BigDecimal price = resultSet.getBigDecimal(column);
+		return price == null ? null : Money.toString(Money.fromBigDecimal(price));
+	}
+
+	/**
+	 * Get the stock of a product to send to the client
+	 * 
+	 * @param productId     the id of the product
+	 * @param databaseStock the stock read in the database
+	 * @return the stock of the ledger if it is used, else the stock of the
+	 *         database
+	 */
+	private String getCurrentStock(int productId, String databaseStock) {
+		if (stockLedger != null) {
+			try {
+				return Integer.toString(stockLedger.getStock(productId));
+			} catch (StockException e) {
+				// product created by another way, database is right
+			}
 		}
+		return databaseStock;
 	}
 
 	/**
@@ -395,13 +1323,13 @@ public class ThreadsConnectionHandler extends Thread {
 			 */
 			ResultSet exist = databaseManager.executeSelectQueryParams(
 					"SELECT COUNT(*) AS count FROM produit Where id_produit=? ",
-					Integer.parseInt(recievedProtocol.getOptionsElement(0)));
+					recievedProtocol.getInt(0));
 			exist.next();
 			int count = exist.getInt("count");
 			// if different from 1, we didn't found the id of produc
 			if (count != 1) {
 				logger.error("Wrong cause : invalid id product");
-				return ProtocolFactory.createErrorProtocol("Le produit n'a pas t trouv ");
+				return ProtocolFactory.getFixedErrorProtocol("Le produit n'a pas t trouv ");
 			} else {
 				/*
 				 * delete de product delte produit ins favorit table before produit table
@@ -409,17 +1337,21 @@ public class ThreadsConnectionHandler extends Thread {
 				Boolean deleteProduct;
 
 				deleteProduct = databaseManager.executeDmlQueryParams("DELETE FROM Favori WHERE id_produit=?",
-						Integer.parseInt(recievedProtocol.getOptionsElement(0)));
+						recievedProtocol.getInt(0));
 				deleteProduct = databaseManager.executeDmlQueryParams("DELETE FROM promotion WHERE id_produit=?",
-						Integer.parseInt(recievedProtocol.getOptionsElement(0)));
+						recievedProtocol.getInt(0));
 
 				deleteProduct = databaseManager.executeDmlQueryParams("DELETE FROM produit WHERE id_produit=?",
-						Integer.parseInt(recievedProtocol.getOptionsElement(0)));
+						recievedProtocol.getInt(0));
 				//TODO pourquoi ne pas utiliser CASCADE ?
 				if (deleteProduct) {
+					if (stockLedger != null) {
+						stockLedger.remove(recievedProtocol.getInt(0));
+					}
+					productRemoved(recievedProtocol.getInt(0));
 					return ProtocolFactory.createSuccessProtocol();
 				} else {
-					return ProtocolFactory.createErrorProtocol("on n'a pas pus supprimer le produit");
+					return ProtocolFactory.getFixedErrorProtocol("on n'a pas pus supprimer le produit");
 				}
 
 			}
@@ -428,12 +1360,12 @@ public class ThreadsConnectionHandler extends Thread {
 			ex.printStackTrace();
 			String errormessage = ex.getMessage();
 			logger.error(errormessage);
-			return ProtocolFactory.createErrorProtocol(
+			return ProtocolFactory.getFixedErrorProtocol(
 					"le produit n'a  pas pus tre supprim  cause : impossible de se connecter a la base de donnes");
 		} catch (NumberFormatException ex) {
 			String errormessage = ex.getMessage();
 			logger.error(errormessage);
-			return ProtocolFactory.createErrorProtocol("le produit n'est supprim  Cause : l'id est invalide");
+			return ProtocolFactory.getFixedErrorProtocol("le produit n'est supprim  Cause : l'id est invalide");
 		}
 	}
 
@@ -451,39 +1383,38 @@ public class ThreadsConnectionHandler extends Thread {
 
 			ResultSet exist = databaseManager.executeSelectQueryParams(
 					"SELECT COUNT(*) AS count FROM commande Where id_commande=?",
-					Integer.parseInt(recievedProtocol.getOptionsElement(0)));
+					recievedProtocol.getInt(0));
 			exist.next();
 			int count = exist.getInt("count");
 			// if different from 1, we didn't found the id of produc
 			if (count != 1) {
 				logger.error("wrong cause : invalid id command  ");
-				return ProtocolFactory.createErrorProtocol(" la commande n'a pas t trouver  n'a pas t trouver ");
+				return ProtocolFactory.getFixedErrorProtocol(" la commande n'a pas t trouver  n'a pas t trouver ");
 			} else {
-				Boolean queryDelete;
-				queryDelete = databaseManager.executeDmlQueryParams("DELETE FROM Produit_commande WHERE id_commande=?",
-						Integer.parseInt(recievedProtocol.getOptionsElement(0)));
-				if (queryDelete) {
-					queryDelete = databaseManager.executeDmlQueryParams("DELETE FROM commande WHERE id_commande=?",
-							Integer.parseInt(recievedProtocol.getOptionsElement(0)));
-					if (queryDelete) {
-						return ProtocolFactory.createSuccessProtocol();
-					} else {
-						return ProtocolFactory.createErrorProtocol("on n'a pas pus facilit  la commande");
-					}
+				boolean isValidated;
+				try {
+					isValidated = validateOrder(recievedProtocol.getInt(0));
+				} catch (StockException e) {
+					logger.error(e.getMessage());
+					return ProtocolFactory.createErrorProtocol(e.getMessage());
+				}
+				if (isValidated) {
+					invalidationChannel.publish(InvalidationChannel.TABLE_ORDER, recievedProtocol.getOptionsElement(0));
+					return ProtocolFactory.createSuccessProtocol();
 				} else {
-					return ProtocolFactory.createErrorProtocol("on n'a pas supprimer les produit commander ");
+					return ProtocolFactory.getFixedErrorProtocol("on n'a pas pus facilit  la commande");
 				}
 			}
 		} catch (SQLException ex) { // vrifier l'execption
 			ex.printStackTrace();
 			String errormessage = ex.getMessage();
 			logger.error(errormessage);
-			return ProtocolFactory.createErrorProtocol(
+			return ProtocolFactory.getFixedErrorProtocol(
 					"la commande n'a pas pus tre valide. Cause : impossible de se connecter a la base de donnes");
 		} catch (NumberFormatException ex) {
 			String errormessage = ex.getMessage();
 			logger.error(errormessage);
-			return ProtocolFactory.createErrorProtocol("la commande n'a pas t valide. Cause : l'id est invalide");
+			return ProtocolFactory.getFixedErrorProtocol("la commande n'a pas t valide. Cause : l'id est invalide");
 		}
 	}
 
@@ -500,7 +1431,7 @@ public class ThreadsConnectionHandler extends Thread {
 	public Protocol queryAddEmploye(Protocol recievedProtocol, User userAsking) {
 		// first, we want to check if user is admin or not
 		if (!userAsking.isAdmin()) {
-			return ProtocolFactory.createErrorProtocol(
+			return ProtocolFactory.getFixedErrorProtocol(
 					"Vous n'tes pas un administrateur, vous n'tes donc pas autoriss  faire ceci.");
 		}
 		try {
@@ -511,14 +1442,14 @@ public class ThreadsConnectionHandler extends Thread {
 			// if different from 1, we didn't found the id of produc
 			if (count != 0) {
 				logger.error("wrong cause : have a employe with this name  ");
-				return ProtocolFactory.createErrorProtocol(" il y a dja un employer ayant ce nom ");
+				return ProtocolFactory.getFixedErrorProtocol(" il y a dja un employer ayant ce nom ");
 			} else {
 
 				Boolean newEmploye;
 				String password = recievedProtocol.getOptionsElement(1);
 				if (password.length() < 4) {
 					logger.error("invalid password");
-					return ProtocolFactory.createErrorProtocol(
+					return ProtocolFactory.getFixedErrorProtocol(
 							"Mot de passe invalide : un mot de passe doit tre compos d'au moins 4 caractres");
 
 				} else {
@@ -526,9 +1457,11 @@ public class ThreadsConnectionHandler extends Thread {
 							"INSERT INTO Employe (nom_employe,mot_de_passe_Employe) VALUES(?,?)",
 							recievedProtocol.getOptionsElement(0), password);
 					if (newEmploye) {
+						credentialCache.invalidate(recievedProtocol.getOptionsElement(0));
+						invalidationChannel.publish(InvalidationChannel.TABLE_EMPLOYEE, recievedProtocol.getOptionsElement(0));
 						return ProtocolFactory.createSuccessProtocol();
 					} else {
-						return ProtocolFactory.createErrorProtocol("on n'a pas pus ajouter le nouvelle employer");
+						return ProtocolFactory.getFixedErrorProtocol("on n'a pas pus ajouter le nouvelle employer");
 					}
 				}
 
@@ -537,7 +1470,7 @@ public class ThreadsConnectionHandler extends Thread {
 			ex.printStackTrace();
 			String errormessage = ex.getMessage();
 			logger.error(errormessage);
-			return ProtocolFactory.createErrorProtocol(
+			return ProtocolFactory.getFixedErrorProtocol(
 					"l'employer n'a pas pu tre ajouter: impossible de se connecter  la base de donne");
 		}
 	}
@@ -551,7 +1484,7 @@ public class ThreadsConnectionHandler extends Thread {
 	public Protocol queryDeleteEmploye(Protocol recievedProtocol, User userAsking) {
 		// first, we want to check if user is admin or not
 		if (!userAsking.isAdmin()) {
-			return ProtocolFactory.createErrorProtocol(
+			return ProtocolFactory.getFixedErrorProtocol(
 					"Vous n'tes pas un administrateur, vous n'tes donc pas autoriss  faire ceci.");
 		}
 		try {
@@ -566,13 +1499,16 @@ public class ThreadsConnectionHandler extends Thread {
 			// if different from 1, we didn't found the id of produc
 			if (count != 1) {
 				logger.error("wrong cause : doesn't have a employe with this name  ");
-				return ProtocolFactory.createErrorProtocol(" il n'y a pas d'employer de ce nom ");
+				return ProtocolFactory.getFixedErrorProtocol(" il n'y a pas d'employer de ce nom ");
 			} else {
 				Boolean deleteEmploye;
 
 				deleteEmploye = databaseManager.executeDmlQueryParams("DELETE FROM Employe WHERE nom_employe=?",
 						recievedProtocol.getOptionsElement(0));
 				if (deleteEmploye) {
+					credentialCache.invalidate(recievedProtocol.getOptionsElement(0));
+					sessionManager.revokeUser(recievedProtocol.getOptionsElement(0));
+					invalidationChannel.publish(InvalidationChannel.TABLE_EMPLOYEE, recievedProtocol.getOptionsElement(0));
 					return ProtocolFactory.createSuccessProtocol();
 				} else {
 					return ProtocolFactory.createSuccessProtocol();
@@ -583,11 +1519,26 @@ public class ThreadsConnectionHandler extends Thread {
 			ex.printStackTrace();
 			String errormessage = ex.getMessage();
 			logger.error(errormessage);
-			return ProtocolFactory.createErrorProtocol(
+			return ProtocolFactory.getFixedErrorProtocol(
 					"l'employer n'a  pas pus tre supprimer  cause : impossible de se connecter a la base de donnes");
 		}
 	}
 
+	/**
+	 * Execute a request that doesn't modify anything : clients waiting for the
+	 * same request share a single execution, started after all of them asked.
+	 * 
+	 * @param recievedProtocol
+	 * @param query            the method answering the request
+	 * @return the answer, which must not be modified
+	 */
+	Protocol queryReadOnly(Protocol recievedProtocol, Function<Protocol, Protocol> query) {
+		if (!USE_REQUEST_COALESCING) {
+			return query.apply(recievedProtocol);
+		}
+		return requestCoalescer.execute(recievedProtocol, query);
+	}
+
 	/**
 	 * function use for seen all product
 	 * 
@@ -595,6 +1546,20 @@ public class ThreadsConnectionHandler extends Thread {
 	 * @return the list of product on protocol
 	 */
 	Protocol queryListProduct(Protocol recievedProtocol) {
+		if (productCatalog != null) {
+			ProductCatalog.Snapshot snapshot = productCatalog.getSnapshot();
+			// products can be removed while they are read, so they are counted once read
+			List<String> listProduct = new ArrayList<String>(snapshot.getProductsNumber());
+			StringBuilder product = new StringBuilder();
+			for (int slot = 0; slot < snapshot.getSlotsNumber(); slot++) {
+				if (!snapshot.isRemoved(slot)) {
+					product.setLength(0);
+					snapshot.appendProduct(slot, product);
+					listProduct.add(product.toString());
+				}
+			}
+			return ProtocolFactory.listProtocol(listProduct);
+		}
 		try {
 			ResultSet list;
 			list = databaseManager.executeSelectQueryParams(
@@ -602,8 +1567,8 @@ public class ThreadsConnectionHandler extends Thread {
 			// create a list for insert product
 			List<String> listProduct = new ArrayList<String>();
 			while (list.next()) {
-				listProduct.add(list.getString(1) + ";" + list.getString(2) + ";" + list.getString(3) + ";"
-						+ list.getString(4) + ";" + list.getString(5));
+				listProduct.add(list.getString(1) + ";" + list.getString(2) + ";" + readPrice(list, 3) + ";"
+						+ getCurrentStock(list.getInt(1), list.getString(4)) + ";" + readPrice(list, 5));
 
 			}
 			return ProtocolFactory.listProtocol(listProduct);
@@ -611,7 +1576,7 @@ public class ThreadsConnectionHandler extends Thread {
 			ex.printStackTrace();
 			String errormessage = ex.getMessage();
 			logger.error(errormessage);
-			return ProtocolFactory.createErrorProtocol("on n'a pas pus afficher la liste des produit");
+			return ProtocolFactory.getFixedErrorProtocol("on n'a pas pus afficher la liste des produit");
 		}
 	}
 	
@@ -623,38 +1588,49 @@ public class ThreadsConnectionHandler extends Thread {
 	 */
 	Protocol queryGetSpecificOrder(Protocol recievedProtocol) {
 		try {
-			int orderId = Integer.parseInt(recievedProtocol.getOptionsElement(0));
-			ResultSet exist = databaseManager.executeSelectQueryParams("SELECT SUM(prix_total_commande) FROM produit_commande WHERE id_commande = ?", orderId);
-			exist.next();
-			BigDecimal totalPrice = exist.getBigDecimal("sum");
+			int orderId = recievedProtocol.getInt(0);
+			// the total and the products are read in a single query, the total being
+			// repeated on each row
+			ResultSet list;
+			if (isOrderTotalStored) {
+				// total kept up to date by a trigger, an order without products has a
+				// single row without product
+				list = databaseManager.executeSelectQueryParams(
+						"SELECT commande." + OrderTotalTrigger.TOTAL_COLUMN + ", produit.id_produit, nom_produit, produit_commande.quantite_commande FROM commande " +
+						"LEFT OUTER JOIN (Produit_Commande INNER JOIN Produit ON (produit.id_produit = produit_commande.id_produit)) " +
+						"ON (commande.id_commande = produit_commande.id_commande) WHERE commande.id_commande = ?", orderId);
+			} else {
+				list = databaseManager.executeSelectQueryParams(
+						"SELECT SUM(prix_total_commande) OVER (), produit.id_produit, nom_produit, produit_commande.quantite_commande FROM Produit " + 
+						"INNER JOIN Produit_Commande ON (produit.id_produit = produit_commande.id_produit) " + 
+						"WHERE id_commande = ?", orderId);
+			}
+			String totalPrice = list.next() ? readPrice(list, 1) : null;
 			// if different , we didn't found the id of produc
 			if (totalPrice == null ) {
 				logger.error("Couldn't find a total Price for Order "+orderId);
 				return ProtocolFactory.createErrorProtocol("Impossible de trouver la commande avec l'ID "+ orderId);
 			}
 			else {
-				ResultSet list;
-				list = databaseManager.executeSelectQueryParams(
-						"SELECT produit.id_produit, nom_produit, produit_commande.quantite_commande FROM Produit " + 
-						"INNER JOIN Produit_Commande ON (produit.id_produit = produit_commande.id_produit) " + 
-						"WHERE id_commande = ?", orderId);
 				// create a list to insert data
 				List<String> listOrderProduct = new ArrayList<String>();
 				// add total price
-				listOrderProduct.add(totalPrice.toString());
-				while (list.next()) {
-					listOrderProduct.add(list.getString(1) + ";" + list.getString(2) + ";" + list.getString(3));
-				}
+				listOrderProduct.add(totalPrice);
+				do {
+					if (list.getString(2) != null) {
+						listOrderProduct.add(list.getString(2) + ";" + list.getString(3) + ";" + list.getString(4));
+					}
+				} while (list.next());
 				return ProtocolFactory.listProtocol(listOrderProduct);
 			}
 		} catch (SQLException ex) {
 			ex.printStackTrace();
 			String errormessage = ex.getMessage();
 			logger.error(errormessage);
-			return ProtocolFactory.createErrorProtocol("Erreur dans la communication avec la Base de Donne");
+			return ProtocolFactory.getFixedErrorProtocol("Erreur dans la communication avec la Base de Donne");
 		} catch (NumberFormatException ex) {
 			logger.error("ID number is not valid");
-			return ProtocolFactory.createErrorProtocol("L'ID de la commande n'est pas valide");
+			return ProtocolFactory.getFixedErrorProtocol("L'ID de la commande n'est pas valide");
 		}
 	}
 	
@@ -666,15 +1642,25 @@ public class ThreadsConnectionHandler extends Thread {
 	 */
 	Protocol queryGetSpecificProduct(Protocol recievedProtocol) {
 		try {
+			if (productCatalog != null) {
+				ProductCatalog.Snapshot snapshot = productCatalog.getSnapshot();
+				int slot = snapshot.findSlot(recievedProtocol.getInt(0));
+				if (slot < 0) {
+					return ProtocolFactory.createErrorProtocol("Couldn't retrive Product with the id " + recievedProtocol.getOptionsElement(0));
+				}
+				StringBuilder product = new StringBuilder();
+				snapshot.appendProduct(slot, product);
+				return ProtocolFactory.listProtocol(Collections.singletonList(product.toString()));
+			}
 			ResultSet list;
 			list = databaseManager.executeSelectQueryParams(
 					"select produit.id_produit,nom_produit,prix_produit,stock_total_produit,prix_promotion FROM produit LEFT OUTER JOIN promotion on produit.id_produit = promotion.id_produit"
-					+ "WHERE produit.id_produit = ?", recievedProtocol.getOptionsElement(0));
+					+ " WHERE produit.id_produit = ?", recievedProtocol.getInt(0));
 			// create a list for insert product
 			List<String> listProduct = new ArrayList<String>();
 			while (list.next()) {
-				listProduct.add(list.getString(1) + ";" + list.getString(2) + ";" + list.getString(3) + ";"
-						+ list.getString(4) + ";" + list.getString(5));
+				listProduct.add(list.getString(1) + ";" + list.getString(2) + ";" + readPrice(list, 3) + ";"
+						+ getCurrentStock(list.getInt(1), list.getString(4)) + ";" + readPrice(list, 5));
 			}
 			if (listProduct.size() != 1) {
 				return ProtocolFactory.createErrorProtocol("Couldn't retrive Product with the id " + recievedProtocol.getOptionsElement(0));
@@ -684,9 +1670,249 @@ public class ThreadsConnectionHandler extends Thread {
 			ex.printStackTrace();
 			String errormessage = ex.getMessage();
 			logger.error(errormessage);
-			return ProtocolFactory.createErrorProtocol("on n'a pas pus afficher la liste des produit");
+			return ProtocolFactory.getFixedErrorProtocol("on n'a pas pus afficher la liste des produit");
 			
+		} catch (NumberFormatException ex) {
+			logger.error("ID number is not valid");
+			return ProtocolFactory.getFixedErrorProtocol("L'ID du produit n'est pas valide");
+		}
+	}
+
+	/**
+	 * Send several products in a single answer, instead of one request per product
+	 * 
+	 * @param recievedProtocol the ids of the products, one per option
+	 * @return the products, in the order of the ids asked
+	 */
+	Protocol queryGetSeveralProducts(Protocol recievedProtocol) {
+		try {
+			int[] productIds = new int[recievedProtocol.getOptionsListSize()];
+			for (int i = 0; i < productIds.length; i++) {
+				productIds[i] = recievedProtocol.getInt(i);
+			}
+			Map<Integer, String> products = new HashMap<>();
+			if (productCatalog != null) {
+				ProductCatalog.Snapshot snapshot = productCatalog.getSnapshot();
+				StringBuilder product = new StringBuilder();
+				for (int productId : productIds) {
+					int slot = snapshot.findSlot(productId);
+					if (slot >= 0) {
+						product.setLength(0);
+						snapshot.appendProduct(slot, product);
+						products.put(productId, product.toString());
+					}
+				}
+			} else {
+				Integer[] distinctIds = Arrays.stream(productIds).distinct().boxed().toArray(Integer[]::new);
+				// a single query for all products
+				ResultSet list = databaseManager.executeSelectQueryParams(
+						"SELECT produit.id_produit, nom_produit, prix_produit, stock_total_produit, prix_promotion "
+								+ "FROM produit LEFT OUTER JOIN promotion ON produit.id_produit = promotion.id_produit "
+								+ "WHERE produit.id_produit = ANY(?)",
+						databaseManager.createArray("integer", distinctIds));
+				while (list.next()) {
+					products.put(list.getInt(1), list.getString(1) + ";" + list.getString(2) + ";" + readPrice(list, 3)
+							+ ";" + getCurrentStock(list.getInt(1), list.getString(4)) + ";" + readPrice(list, 5));
+				}
+			}
+			List<String> listProduct = new ArrayList<>(productIds.length);
+			StringBuilder missingIds = new StringBuilder();
+			for (int productId : productIds) {
+				String product = products.get(productId);
+				if (product == null) {
+					missingIds.append(missingIds.length() == 0 ? "" : ", ").append(productId);
+				} else {
+					listProduct.add(product);
+				}
+			}
+			if (missingIds.length() > 0) {
+				logger.error("Couldn't find products " + missingIds);
+				return ProtocolFactory.createErrorProtocol("Impossible de trouver les produits avec les ID " + missingIds);
+			}
+			return ProtocolFactory.listProtocol(listProduct);
+		} catch (SQLException ex) {
+			ex.printStackTrace();
+			String errormessage = ex.getMessage();
+			logger.error(errormessage);
+			return ProtocolFactory.getFixedErrorProtocol("on n'a pas pus afficher la liste des produit");
+		} catch (NumberFormatException ex) {
+			logger.error("ID number is not valid");
+			return ProtocolFactory.getFixedErrorProtocol("L'ID du produit n'est pas valide");
+		}
+	}
+
+	/**
+	 * Find the products whose name contains a text, without taking care of
+	 * accents and case
+	 * 
+	 * @param recievedProtocol the text searched, and optionally the maximum number
+	 *                         of products to send
+	 * @return the products found, names starting with the text first
+	 */
+	Protocol querySearchProducts(Protocol recievedProtocol) {
+		try {
+			String text = recievedProtocol.getOptionsElement(0);
+			int maxResultsNumber = DEFAULT_SEARCH_RESULTS;
+			if (recievedProtocol.getOptionsListSize() > 1) {
+				maxResultsNumber = Math.min(recievedProtocol.getInt(1), MAX_SEARCH_RESULTS);
+			}
+			if (maxResultsNumber <= 0) {
+				return ProtocolFactory.getFixedErrorProtocol("Le nombre de produits demand n'est pas valide");
+			}
+			if (text.trim().isEmpty()) {
+				return ProtocolFactory.listProtocol(new ArrayList<String>());
+			}
+			if (productSearchIndex != null) {
+				return listCatalogProducts(productSearchIndex.search(text, maxResultsNumber));
+			}
+			// without the catalog, accents can't be ignored
+			String pattern = text.trim().replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+			return listDatabaseProducts("WHERE nom_produit ILIKE '%' || ? || '%' "
+					+ "ORDER BY nom_produit NOT ILIKE ? || '%', lower(nom_produit) LIMIT ?",
+					pattern, pattern, maxResultsNumber);
+		} catch (SQLException ex) {
+			ex.printStackTrace();
+			String errormessage = ex.getMessage();
+			logger.error(errormessage);
+			return ProtocolFactory.getFixedErrorProtocol("on n'a pas pus afficher la liste des produit");
+		} catch (NumberFormatException ex) {
+			logger.error("Number of products is not valid");
+			return ProtocolFactory.getFixedErrorProtocol("Le nombre de produits demand n'est pas valide");
+		}
+	}
+
+	/**
+	 * Send the products having the lowest stocks
+	 * 
+	 * @param recievedProtocol the number of products wanted
+	 * @return the products, the lowest stock first
+	 */
+	Protocol queryLowestStocks(Protocol recievedProtocol) {
+		try {
+			int productsNumber = recievedProtocol.getInt(0);
+			if (productsNumber <= 0) {
+				return ProtocolFactory.getFixedErrorProtocol("Le nombre de produits demand n'est pas valide");
+			}
+			productsNumber = Math.min(productsNumber, MAX_DASHBOARD_RESULTS);
+			if (productCatalog != null) {
+				return listCatalogProducts(
+						productCatalog.getSnapshot().getStockIndex().getLowestStocks(productsNumber));
+			}
+			return listDatabaseProducts("ORDER BY stock_total_produit, produit.id_produit LIMIT ?", productsNumber);
+		} catch (SQLException ex) {
+			ex.printStackTrace();
+			String errormessage = ex.getMessage();
+			logger.error(errormessage);
+			return ProtocolFactory.getFixedErrorProtocol("on n'a pas pus afficher la liste des produit");
+		} catch (NumberFormatException ex) {
+			logger.error("Number of products is not valid");
+			return ProtocolFactory.getFixedErrorProtocol("Le nombre de produits demand n'est pas valide");
+		}
+	}
+
+	/**
+	 * Send the products having a stock lower than a threshold
+	 * 
+	 * @param recievedProtocol the threshold, and optionally the maximum number of
+	 *                         products to send
+	 * @return the products, the lowest stock first
+	 */
+	Protocol queryStocksBelow(Protocol recievedProtocol) {
+		try {
+			int threshold = recievedProtocol.getInt(0);
+			int maxProductsNumber = MAX_DASHBOARD_RESULTS;
+			if (recievedProtocol.getOptionsListSize() > 1) {
+				maxProductsNumber = Math.min(recievedProtocol.getInt(1), MAX_DASHBOARD_RESULTS);
+			}
+			if (maxProductsNumber <= 0) {
+				return ProtocolFactory.getFixedErrorProtocol("Le nombre de produits demand n'est pas valide");
+			}
+			if (productCatalog != null) {
+				return listCatalogProducts(
+						productCatalog.getSnapshot().getStockIndex().getStocksBelow(threshold, maxProductsNumber));
+			}
+			return listDatabaseProducts("WHERE stock_total_produit < ? "
+					+ "ORDER BY stock_total_produit, produit.id_produit LIMIT ?", threshold, maxProductsNumber);
+		} catch (SQLException ex) {
+			ex.printStackTrace();
+			String errormessage = ex.getMessage();
+			logger.error(errormessage);
+			return ProtocolFactory.getFixedErrorProtocol("on n'a pas pus afficher la liste des produit");
+		} catch (NumberFormatException ex) {
+			logger.error("Threshold or number of products is not valid");
+			return ProtocolFactory.getFixedErrorProtocol("Le seuil ou le nombre de produits n'est pas valide");
+		}
+	}
+
+	/**
+	 * Send the products having a promotion
+	 * 
+	 * @param recievedProtocol optionally the maximum number of products to send
+	 * @return the products, sorted by id
+	 */
+	Protocol queryPromotedProducts(Protocol recievedProtocol) {
+		try {
+			int maxProductsNumber = MAX_DASHBOARD_RESULTS;
+			if (recievedProtocol.getOptionsListSize() > 0) {
+				maxProductsNumber = Math.min(recievedProtocol.getInt(0), MAX_DASHBOARD_RESULTS);
+			}
+			if (maxProductsNumber <= 0) {
+				return ProtocolFactory.getFixedErrorProtocol("Le nombre de produits demand n'est pas valide");
+			}
+			if (productCatalog != null) {
+				return listCatalogProducts(productCatalog.getSnapshot().getStockIndex().getPromotions(maxProductsNumber));
+			}
+			return listDatabaseProducts("WHERE prix_promotion IS NOT NULL ORDER BY produit.id_produit LIMIT ?",
+					maxProductsNumber);
+		} catch (SQLException ex) {
+			ex.printStackTrace();
+			String errormessage = ex.getMessage();
+			logger.error(errormessage);
+			return ProtocolFactory.getFixedErrorProtocol("on n'a pas pus afficher la liste des produit");
+		} catch (NumberFormatException ex) {
+			logger.error("Number of products is not valid");
+			return ProtocolFactory.getFixedErrorProtocol("Le nombre de produits demand n'est pas valide");
+		}
+	}
+
+	/**
+	 * @param productIds the ids of products found in an index of the catalog
+	 * @return the products, in the same order
+	 */
+	private Protocol listCatalogProducts(int[] productIds) {
+		ProductCatalog.Snapshot snapshot = productCatalog.getSnapshot();
+		List<String> listProduct = new ArrayList<String>(productIds.length);
+		StringBuilder product = new StringBuilder();
+		for (int productId : productIds) {
+			int slot = snapshot.findSlot(productId);
+			// the product may have been removed since the index was read
+			if (slot >= 0) {
+				product.setLength(0);
+				snapshot.appendProduct(slot, product);
+				listProduct.add(product.toString());
+			}
+		}
+		return ProtocolFactory.listProtocol(listProduct);
+	}
+
+	/**
+	 * Read products in the database, when the catalog is not used
+	 * 
+	 * @param condition the end of the query (WHERE, ORDER BY...)
+	 * @param params    the parameters of the condition
+	 * @return the products, in the order of the query
+	 */
+	private Protocol listDatabaseProducts(String condition, Object... params) throws SQLException {
+		ResultSet list = databaseManager.executeSelectQueryParams(
+				"SELECT produit.id_produit, nom_produit, prix_produit, stock_total_produit, prix_promotion "
+						+ "FROM produit LEFT OUTER JOIN promotion ON produit.id_produit = promotion.id_produit "
+						+ condition, params);
+		List<String> listProduct = new ArrayList<String>();
+		while (list.next()) {
+			listProduct.add(list.getString(1) + ";" + list.getString(2) + ";" + readPrice(list, 3) + ";"
+					+ getCurrentStock(list.getInt(1), list.getString(4)) + ";" + readPrice(list, 5));
 		}
+		return ProtocolFactory.listProtocol(listProduct);
 	}
 
 	/**
@@ -696,20 +1922,25 @@ public class ThreadsConnectionHandler extends Thread {
 	Protocol queryListOrder(Protocol recievedProtocol) {
 		try {
 			ResultSet list;
-			list = databaseManager.executeSelectQueryParams("select * from commande");
+			String totalColumn;
+			if (isOrderTotalStored) {
+				// kept up to date by a trigger
+				list = databaseManager.executeSelectQueryParams("select * from commande");
+				totalColumn = OrderTotalTrigger.TOTAL_COLUMN;
+			} else {
+				// totals of all orders are computed in the same query, instead of one
+				// query per order
+				list = databaseManager.executeSelectQueryParams("SELECT commande.*, totals.somme_commande FROM commande "
+						+ "LEFT OUTER JOIN (SELECT id_commande, SUM(prix_total_commande) AS somme_commande "
+						+ "FROM produit_commande GROUP BY id_commande) AS totals ON commande.id_commande = totals.id_commande");
+				totalColumn = "somme_commande";
+			}
 			// create a list for insert product
 			List<String> listOrder = new ArrayList<String>();
+			int totalIndex = list.findColumn(totalColumn);
 			while (list.next()) {
-				// get total price
-				ResultSet totalPrice = databaseManager.executeSelectQueryParams(
-						"SELECT SUM(prix_total_commande) FROM produit_commande WHERE id_commande =?",
-						Integer.parseInt(list.getString(1)));
-
-				if (!totalPrice.next()) {
-					throw new SQLException("Impossible de calculer le prix de la commande");
-				}
 				listOrder.add(list.getString(1) + ";" + list.getString(2) + ";" + list.getString(3) + ";"
-						+ list.getString(4) + ";" + list.getString(5) + ";" + totalPrice.getString(1));
+						+ list.getString(4) + ";" + list.getString(5) + ";" + readPrice(list, totalIndex));
 
 			}
 			return ProtocolFactory.listProtocol(listOrder);
@@ -717,17 +1948,60 @@ public class ThreadsConnectionHandler extends Thread {
 			ex.printStackTrace();
 			String errormessage = ex.getMessage();
 			logger.error(errormessage);
-			return ProtocolFactory.createErrorProtocol("on n'a pas pus afficher la liste des commandes");
+			return ProtocolFactory.getFixedErrorProtocol("on n'a pas pus afficher la liste des commandes");
 
-		} catch (NumberFormatException ex) {
-			String errormessage = ex.getMessage();
-			logger.error(errormessage);
-			return ProtocolFactory
-					.createErrorProtocol("La commande n'a  pas t trouver . Cause : l'id est  invalides");
 		}
 
 	}
 
+	/**
+	 * Add or modify a lot of products at once (administrators only). Products
+	 * having the same name as an existing one modify it, the others are added.
+	 * 
+	 * @param recievedProtocol one option "name;price;quantity" per product
+	 * @param userAsking       the user doing the import
+	 * @return the number of products added, the number of products modified, the
+	 *         number of lines rejected and then each rejected line ("line;reason")
+	 */
+	Protocol queryImportProducts(Protocol recievedProtocol, User userAsking) {
+		if (!userAsking.isAdmin()) {
+			return ProtocolFactory.getFixedErrorProtocol(
+					"Vous n'tes pas un administrateur, vous n'tes donc pas autoriss  faire ceci.");
+		}
+		if (productImporter == null) {
+			return ProtocolFactory.getFixedErrorProtocol("L'import de produits n'est pas disponible");
+		}
+		try {
+			ProductImporter.ImportReport report = productImporter.importProducts(recievedProtocol.getOptionsList());
+			if (!report.getStocks().isEmpty()) {
+				for (Map.Entry<Integer, Integer> stock : report.getStocks().entrySet()) {
+					if (stockLedger != null) {
+						stockLedger.register(stock.getKey(), stock.getValue());
+					}
+					subscriptionManager.publishStockChange(stock.getKey(), stock.getValue());
+				}
+				if (productCatalog != null) {
+					loadProductCatalog();
+				}
+				// a single message for all products modified
+				invalidationChannel.publish(InvalidationChannel.TABLE_PRODUCT, null);
+			}
+			Protocol protocol = new Protocol(ActionCodes.SUCESS);
+			protocol.appendInt(report.getAddedNumber());
+			protocol.appendInt(report.getModifiedNumber());
+			protocol.appendInt(report.getRejectedLines().size());
+			for (String rejectedLine : report.getRejectedLines()) {
+				protocol.appendOption(rejectedLine);
+			}
+			return protocol;
+		} catch (SQLException ex) {
+			ex.printStackTrace();
+			logger.error(ex.getMessage());
+			return ProtocolFactory.getFixedErrorProtocol(
+					"les produits ne sont pas imports cause : erreur avec la base de donnes");
+		}
+	}
+
 	/**
 	 * 
 	 * @param recievedProtocol
@@ -738,7 +2012,7 @@ public class ThreadsConnectionHandler extends Thread {
 	Protocol queryListEmploye(Protocol recievedProtocol, User userAsking) {
 		// first, we want to check if user is admin or not
 		if (!userAsking.isAdmin()) {
-			return ProtocolFactory.createErrorProtocol(
+			return ProtocolFactory.getFixedErrorProtocol(
 					"Vous n'tes pas un administrateur, vous n'tes donc pas autoriss  faire ceci.");
 		}
 		try {
@@ -755,7 +2029,7 @@ public class ThreadsConnectionHandler extends Thread {
 			ex.printStackTrace();
 			String errormessage = ex.getMessage();
 			logger.error(errormessage);
-			return ProtocolFactory.createErrorProtocol("on n'a pas pu afficher les employs");
+			return ProtocolFactory.getFixedErrorProtocol("on n'a pas pu afficher les employs");
 		}
 	}
 
@@ -766,73 +2040,60 @@ public class ThreadsConnectionHandler extends Thread {
 	 */
 	Protocol queryApplyPromotion(Protocol recievedProtocol) {
 		try {
+			long promotionPrice = recievedProtocol.getPriceCents(1);
 			ResultSet exist;
 			/*
-			 * verify if the produc exist
+			 * verify if the produc exist, and read its price and its promotion in the
+			 * same query
 			 */
 			exist = databaseManager.executeSelectQueryParams(
-					"SELECT COUNT(*) AS count FROM produit Where id_produit=?;",
-					Integer.parseInt(recievedProtocol.getOptionsElement(0)));
-			exist.next();
-			int count = exist.getInt("count");
-			// if different from 1, we didn't found the id of produc
-			if (count != 1) {
+					"SELECT prix_produit, promotion.id_produit IS NOT NULL FROM produit "
+							+ "LEFT OUTER JOIN promotion ON produit.id_produit = promotion.id_produit "
+							+ "WHERE produit.id_produit = ?",
+					recievedProtocol.getInt(0));
+			// no row if we didn't found the id of produc
+			if (!exist.next()) {
 				logger.error("wrong cause : invalid id product  ");
-				return ProtocolFactory.createErrorProtocol(" le produit existe pas   ");
+				return ProtocolFactory.getFixedErrorProtocol(" le produit existe pas   ");
 			} else {
 				/*
 				 * verification of price between 0.1 and 999.99
-				 */ResultSet realprice;
-				realprice = databaseManager.executeSelectQueryParams(
-						"SELECT prix_produit	 FROM produit Where id_produit=?;",
-						Integer.parseInt(recievedProtocol.getOptionsElement(0)));
-				BigDecimal promotionPrice = new BigDecimal(recievedProtocol.getOptionsElement(1));
-
-				realprice.next();
-				BigDecimal initialPrice = realprice.getBigDecimal(1);
-				if ((promotionPrice.compareTo(new BigDecimal("0.01"))) >= 0
-						&& promotionPrice.compareTo(initialPrice) == -1) {
-					/*
-					 * prepare the SQL resquest fpr BD
-					 */
-					ResultSet promotionexist;
-					/*
-					 * verify if the produc exist
-					 */
-					promotionexist = databaseManager.executeSelectQueryParams(
-							"SELECT COUNT(*) AS count FROM promotion Where id_produit=?;",
-							Integer.parseInt(recievedProtocol.getOptionsElement(0)));
-					promotionexist.next();
-					int existP = promotionexist.getInt("count");
-					// if different from 1, we didn't found the id of produc
-					if (existP == 1) {
+				 */
+				long initialPrice = Money.fromBigDecimal(exist.getBigDecimal(1));
+				if (promotionPrice >= Money.MINIMUM_PRICE && promotionPrice < initialPrice) {
+					// true if the product already has a promotion
+					if (exist.getBoolean(2)) {
 						Boolean addPromotion;
 						addPromotion = databaseManager.executeDmlQueryParams(
-								"UPDATE promotion SET prix_promotion = ? WHERE id_produit =?", promotionPrice,
-								Integer.parseInt(recievedProtocol.getOptionsElement(0)));
+								"UPDATE promotion SET prix_promotion = ? WHERE id_produit =?", Money.toBigDecimal(promotionPrice),
+								recievedProtocol.getInt(0));
 						if (addPromotion) {
+							productPromotionChanged(
+									recievedProtocol.getInt(0), Money.toString(promotionPrice));
 							return ProtocolFactory.createSuccessProtocol();
 						} else {
 							logger.error("Error while modifying promotion query");
-							return ProtocolFactory.createErrorProtocol("n'a pas pus mdofier  cette promotion");
+							return ProtocolFactory.getFixedErrorProtocol("n'a pas pus mdofier  cette promotion");
 						}
 					} else {
 						Boolean addPromotion;
 						addPromotion = databaseManager.executeDmlQueryParams(
 								"INSERT INTO promotion (id_produit,prix_promotion)  VALUES (?,?)",
-								Integer.parseInt(recievedProtocol.getOptionsElement(0)), promotionPrice);
+								recievedProtocol.getInt(0), Money.toBigDecimal(promotionPrice));
 						if (addPromotion) {
+							productPromotionChanged(
+									recievedProtocol.getInt(0), Money.toString(promotionPrice));
 							return ProtocolFactory.createSuccessProtocol();
 						} else {
 							logger.error("Error while inserting promotion query");
-							return ProtocolFactory.createErrorProtocol("n'a pas pus ajouter cette promotion");
+							return ProtocolFactory.getFixedErrorProtocol("n'a pas pus ajouter cette promotion");
 						}
 					}
 				} else {
 					logger.error("wrong cause : invalid price ");
 					return ProtocolFactory.createErrorProtocol(
 							"La promotion n'a pas pu tre ajoute. Verifiez que la promotion est comprise entre 0.01  et le prix initial. Prix initial : "
-									+ initialPrice + " prix promotion : " + promotionPrice);
+									+ Money.toString(initialPrice) + " prix promotion : " + Money.toString(promotionPrice));
 				}
 
 			}
@@ -840,13 +2101,13 @@ public class ThreadsConnectionHandler extends Thread {
 			ex.printStackTrace();
 			String errormessage = ex.getMessage();
 			logger.error(errormessage);
-			return ProtocolFactory.createErrorProtocol(
+			return ProtocolFactory.getFixedErrorProtocol(
 					"la promotion n'a pas pus tre ajouter : impossible de se connecter a la base de donnes");
 		} catch (NumberFormatException ex) {
 			String errormessage = ex.getMessage();
 			logger.error(errormessage);
 			return ProtocolFactory
-					.createErrorProtocol("le produit n'est pas ajout. Cause : les donnes sont invalides ");
+					.getFixedErrorProtocol("le produit n'est pas ajout. Cause : les donnes sont invalides ");
 		}
 	}
 
@@ -863,35 +2124,180 @@ public class ThreadsConnectionHandler extends Thread {
 			 */
 			exist = databaseManager.executeSelectQueryParams(
 					"SELECT COUNT(*) AS count FROM promotion Where id_produit=?;",
-					Integer.parseInt(recievedProtocol.getOptionsElement(0)));
+					recievedProtocol.getInt(0));
 			exist.next();
 			int count = exist.getInt("count");
 			// if different from 1, we didn't found the id of produc
 			if (count != 1) {
 				logger.error("wrong cause : invalid id product  ");
-				return ProtocolFactory.createErrorProtocol(" le produit n'a pas de pormotion   ");
+				return ProtocolFactory.getFixedErrorProtocol(" le produit n'a pas de pormotion   ");
 			} else {
 				/*
 				 * prepare the SQL resquest fpr BD
 				 */
 				Boolean removePromotion;
 				removePromotion = databaseManager.executeDmlQueryParams("delete from promotion where id_produit=?",
-						Integer.parseInt(recievedProtocol.getOptionsElement(0)));
+						recievedProtocol.getInt(0));
 				if (removePromotion) {
+					productPromotionChanged(recievedProtocol.getInt(0),
+							null);
 					return ProtocolFactory.createSuccessProtocol();
 				} else {
-					return ProtocolFactory.createErrorProtocol("n'a pas pus supprimer  cette promotion");
+					return ProtocolFactory.getFixedErrorProtocol("n'a pas pus supprimer  cette promotion");
 				}
 			}
 		} catch (SQLException ex) { // vrifier l'execption
 			ex.printStackTrace();
 			String errormessage = ex.getMessage();
 			logger.error(errormessage);
-			return ProtocolFactory.createErrorProtocol(
+			return ProtocolFactory.getFixedErrorProtocol(
 					"la promotion na pas pus tre supprimer  cause : impossible de se connecter a la base de donnes");
 		}
 	}
 
+	/**
+	 * Subscribe the client to the changes of products. If the protocol has no
+	 * options, the client will be notified for all products, else only for the
+	 * products whose ids are in the options.
+	 * 
+	 * @param recievedProtocol
+	 * @param client           the client that will recieve the changes
+	 * @return succes or echec protocol
+	 */
+	Protocol querySubscribeProducts(Protocol recievedProtocol, ClientThread client) {
+		try {
+			Set<Integer> productIds = null;
+			if (recievedProtocol.getOptionsListSize() > 0) {
+				productIds = new HashSet<>();
+				for (int i = 0; i < recievedProtocol.getOptionsListSize(); i++) {
+					productIds.add(recievedProtocol.getInt(i));
+				}
+			}
+			subscriptionManager.subscribe(client, productIds);
+			return ProtocolFactory.createSuccessProtocol();
+		} catch (NumberFormatException ex) {
+			logger.error(ex.getMessage());
+			return ProtocolFactory.getFixedErrorProtocol("L'abonnement n'a pas t pris en compte. Cause : un id est invalide");
+		}
+	}
+
+	/**
+	 * Stop sending product changes to this client
+	 * 
+	 * @param client the client that does not want to recieve changes anymore
+	 */
+	public void removeSubscriber(ClientThread client) {
+		subscriptionManager.unsubscribe(client);
+	}
+
+	/**
+	 * Warn subscribed clients and other servers that the stock of a product has
+	 * changed
+	 */
+	private void productStockChanged(int productId, int newStock) {
+		if (productCatalog != null) {
+			productCatalog.setStock(productId, newStock);
+		}
+		subscriptionManager.publishStockChange(productId, newStock);
+		invalidationChannel.publish(InvalidationChannel.TABLE_PRODUCT, Integer.toString(productId));
+	}
+
+	/**
+	 * Warn subscribed clients and other servers that the promotion of a product
+	 * has changed
+	 * 
+	 * @param promotionPrice the new price, or {@code null} if promotion has been
+	 *                       removed
+	 */
+	private void productPromotionChanged(int productId, String promotionPrice) {
+		if (productCatalog != null) {
+			productCatalog.setPromotion(productId,
+					promotionPrice == null ? ProductCatalog.NO_PROMOTION : Money.parse(promotionPrice));
+		}
+		subscriptionManager.publishPromotionChange(productId, promotionPrice);
+		invalidationChannel.publish(InvalidationChannel.TABLE_PROMOTION, Integer.toString(productId));
+	}
+
+	/**
+	 * Warn subscribed clients and other servers that a product has been deleted
+	 */
+	private void productRemoved(int productId) {
+		if (productCatalog != null) {
+			productCatalog.remove(productId);
+		}
+		subscriptionManager.publishProductRemoved(productId);
+		invalidationChannel.publish(InvalidationChannel.TABLE_PRODUCT, Integer.toString(productId));
+	}
+
+	/**
+	 * Called when another server (or a script) has modified the database. Cached
+	 * credentials and tokens of a modified employee are forgotten, and clients subscribed to
+	 * the product modified recieve its new values.
+	 * 
+	 * @param table the table modified
+	 * @param key   the key of the row modified, or {@code null} for the whole table
+	 */
+	private void onInvalidation(String table, String key) {
+		if (InvalidationChannel.TABLE_EMPLOYEE.equals(table)) {
+			if (key == null) {
+				credentialCache.invalidateAll();
+				sessionManager.revokeAll();
+			} else {
+				credentialCache.invalidate(key);
+				sessionManager.revokeUser(key);
+			}
+			return;
+		}
+		if (!InvalidationChannel.TABLE_PRODUCT.equals(table) && !InvalidationChannel.TABLE_PROMOTION.equals(table)) {
+			return;
+		}
+		if (key == null) {
+			logger.info("Table " + table + " modified by another server");
+			if (stockLedger != null && InvalidationChannel.TABLE_PRODUCT.equals(table)) {
+				stockLedger.reloadAll();
+			}
+			if (productCatalog != null) {
+				try {
+					loadProductCatalog();
+				} catch (SQLException e) {
+					logger.error("Could not reload product catalog : " + e.getMessage());
+				}
+			}
+			return;
+		}
+		try {
+			int productId = Integer.parseInt(key);
+			if (stockLedger != null && InvalidationChannel.TABLE_PRODUCT.equals(table)) {
+				stockLedger.reload(productId);
+			}
+			if (productCatalog != null) {
+				productCatalog.reload(productId);
+				if (stockLedger != null) {
+					try {
+						productCatalog.setStock(productId, stockLedger.getStock(productId));
+					} catch (StockException e) {
+						// product removed, or not known by the ledger
+					}
+				}
+			}
+			if (!subscriptionManager.hasSubscribers(productId)) {
+				return;
+			}
+			ResultSet product = databaseManager.executeSelectQueryParams(
+					"SELECT stock_total_produit, prix_promotion FROM produit LEFT OUTER JOIN promotion ON produit.id_produit = promotion.id_produit WHERE produit.id_produit = ?",
+					productId);
+			if (product.next()) {
+				subscriptionManager.publishStockChange(productId,
+						Integer.parseInt(getCurrentStock(productId, product.getString(1))));
+				subscriptionManager.publishPromotionChange(productId, readPrice(product, 2));
+			} else {
+				subscriptionManager.publishProductRemoved(productId);
+			}
+		} catch (NumberFormatException | SQLException e) {
+			logger.error("Could not refresh product " + key + " : " + e.getMessage());
+		}
+	}
+
 	/**
 	 * 
 	 * @param recievedProtocol
@@ -905,47 +2311,60 @@ public class ThreadsConnectionHandler extends Thread {
 			 */
 			exist = databaseManager.executeSelectQueryParams(
 					"SELECT COUNT(*) AS count FROM commande Where id_commande=?;",
-					Integer.parseInt(recievedProtocol.getOptionsElement(0)));
+					recievedProtocol.getInt(0));
 			exist.next();
 			int count = exist.getInt("count");
 			// if different from 1, we didn't found the id of produc
 			if (count != 1) {
 				logger.error("wrong cause : invalid id commande  ");
-				return ProtocolFactory.createErrorProtocol(" la commande existe pas    ");
+				return ProtocolFactory.getFixedErrorProtocol(" la commande existe pas    ");
 			} else {
 				ResultSet orderProduct;
 				boolean deleteProductOrder;
 				orderProduct = databaseManager.executeSelectQueryParams(
 						"SELECT id_produit,quantite_commande FROM produit_commande WHERE id_commande=?",
-						Integer.parseInt(recievedProtocol.getOptionsElement(0)));
-				boolean removeProductOrder;
+						recievedProtocol.getInt(0));
 				// we add the stock taked by the commande
 				while (orderProduct.next()) {
-					removeProductOrder = databaseManager.executeDmlQueryParams(
-							"UPDATE produit SET stock_total_produit = stock_total_produit + ? WHERE id_produit = ?",
-							orderProduct.getInt(2), orderProduct.getInt(1));
-					if (!removeProductOrder) {
+					if (stockLedger != null) {
+						// the ledger will write the new stock in database, same checks as below
+						try {
+							productStockChanged(orderProduct.getInt(1), stockLedger.adjust(orderProduct.getInt(1),
+									orderProduct.getInt(2), 0, Integer.MAX_VALUE));
+						} catch (StockException e) {
+							logger.error(e.getMessage());
+							return ProtocolFactory.getFixedErrorProtocol("on n'a pas pus remettre un produit dans le stock");
+						}
+						continue;
+					}
+					// the stock can't become negative
+					Integer newquantity = adjustStockInDatabase(orderProduct.getInt(1), orderProduct.getInt(2), 0,
+							Integer.MAX_VALUE);
+					if (newquantity == null) {
 
-						return ProtocolFactory.createErrorProtocol("on n'a pas pus remettre un produit dans le stock");
+						return ProtocolFactory.getFixedErrorProtocol("on n'a pas pus remettre un produit dans le stock");
 					}
+					productStockChanged(orderProduct.getInt(1), newquantity);
 				}
+				releaseReservations(recievedProtocol.getInt(0));
 				// delete de commande from table produit_commander and commande
 				deleteProductOrder = databaseManager.executeDmlQueryParams(
 						"Delete from produit_commande where id_commande=? ",
-						Integer.parseInt(recievedProtocol.getOptionsElement(0)));
+						recievedProtocol.getInt(0));
 				if (deleteProductOrder) {
 					deleteProductOrder = databaseManager.executeDmlQueryParams(
 							"Delete from commande where id_commande=? ",
-							Integer.parseInt(recievedProtocol.getOptionsElement(0)));
+							recievedProtocol.getInt(0));
 					if (deleteProductOrder) {
+						invalidationChannel.publish(InvalidationChannel.TABLE_ORDER, recievedProtocol.getOptionsElement(0));
 						return ProtocolFactory.createSuccessProtocol();
 					} else {
-						return ProtocolFactory.createErrorProtocol("on n'a pas pus supprimer la commander");
+						return ProtocolFactory.getFixedErrorProtocol("on n'a pas pus supprimer la commander");
 					}
 
 				} else {
 
-					return ProtocolFactory.createErrorProtocol("on n'a pas pus supprimer les produit commander");
+					return ProtocolFactory.getFixedErrorProtocol("on n'a pas pus supprimer les produit commander");
 				}
 
 			}
@@ -953,7 +2372,7 @@ public class ThreadsConnectionHandler extends Thread {
 			ex.printStackTrace();
 			String errormessage = ex.getMessage();
 			logger.error(errormessage);
-			return ProtocolFactory.createErrorProtocol(
+			return ProtocolFactory.getFixedErrorProtocol(
 					"la commande  na pas pus tre supprimer  cause : impossible de se connecter a la base de donnes");
 		}
 	}
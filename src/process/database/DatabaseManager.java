@@ -1,5 +1,8 @@
 package process.database;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Array;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.ParameterMetaData;
@@ -7,9 +10,14 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.SQLTimeoutException;
+import java.sql.Savepoint;
 import java.sql.Statement;
+import java.util.List;
+import java.util.Properties;
 
 import org.apache.log4j.Logger;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
 
 import logger.LoggerUtility;
 
@@ -32,9 +40,25 @@ public class DatabaseManager {
 	 * @throws SQLException if a database access error occurs. This can be happening if database server is down or one of the arguments is not valid.
 	 */
 	public DatabaseManager(String url, String user, String password) throws SQLException{
+		this(url, user, password, null);
+	}
+	
+	/**
+	 * Create the database manager, giving a name to the connection.<p>
+	 * The name can be read in the database with {@code current_setting('application_name')}.
+	 * @param applicationName the name of the connection, or {@code null} to keep the default one.
+	 * @see #DatabaseManager(String, String, String)
+	 */
+	public DatabaseManager(String url, String user, String password, String applicationName) throws SQLException{
 		logger.info("Start connection to " + url);
 		DriverManager.setLoginTimeout(LOGIN_TIMEOUT);
-		connection = DriverManager.getConnection("jdbc:postgresql://" + url, user, password);
+		Properties properties = new Properties();
+		properties.setProperty("user", user);
+		properties.setProperty("password", password);
+		if(applicationName != null) {
+			properties.setProperty("ApplicationName", applicationName);
+		}
+		connection = DriverManager.getConnection("jdbc:postgresql://" + url, properties);
 		//if we are here, we are connected
 		logger.info("Database connected !");
 	}
@@ -150,5 +174,151 @@ public class DatabaseManager {
 		}
 		
 	}
+	
+	/**
+	 * Excecute the same DML query several times with different parameters, sending all of them to the database at once.
+	 * @param query the DML query, with '?' instead of parameters (see {@link #executeDmlQueryParams(String, Object...)})
+	 * @param paramsList the parameters for each execution of the query. All arrays must have as many elements as there are '?' in the query.
+	 * @return the number of rows modified by each execution
+	 * @throws IllegalArgumentException if the number of '?' in the query is not the same as the number of parameters provided 
+	 * @throws SQLException if an error while communicating database occurs
+	 */
+	public int[] executeBatchDmlQueryParams(String query, List<Object[]> paramsList) throws SQLException, IllegalArgumentException{
+		try(PreparedStatement preparedStatement = connection.prepareStatement(query)){
+			preparedStatement.setQueryTimeout(QUERY_TIMEOUT);
+			int parameterCount = preparedStatement.getParameterMetaData().getParameterCount();
+			for(Object[] params : paramsList) {
+				if(parameterCount != params.length) {
+					throw new IllegalArgumentException(
+							"Le nombre de paramtres ncssaires de la requte et le nombre de paramtres fournis n'est pas le mme.\n"
+							+ "Nombre de paramtres ncssaires : " + parameterCount + "\n"
+							+ "Nombre de paramtres fournis : " + params.length);
+				}
+				for(int i = 0; i < params.length; i++) {
+					preparedStatement.setObject(i + 1, params[i]);
+				}
+				preparedStatement.addBatch();
+			}
+			return preparedStatement.executeBatch();
+		}catch (SQLTimeoutException e) {
+			logger.error("Query timeouts exceed");
+			throw new SQLException(e);
+		}
+	}
+	
+	/**
+	 * Execute one or more statements that don't have parameters and don't return result (creation of functions or triggers for example).<p>
+	 * Must never be used with strings coming from clients.
+	 * @param query the statements to execute
+	 * @throws SQLException if an error while communicating database occurs
+	 */
+	public void executeStatement(String query) throws SQLException{
+		try(Statement statement = connection.createStatement()){
+			statement.setQueryTimeout(QUERY_TIMEOUT);
+			statement.execute(query);
+		}
+	}
+	
+	/**
+	 * Create an array that can be given as a parameter of a query, in order to use several values with a single '?'.
+	 * For example :
+	 * <pre>SELECT * FROM table WHERE id_table = ANY(?)</pre>
+	 * @param typeName the SQL type of the elements ("integer" for example)
+	 * @param elements the elements of the array
+	 * @return the array to give as parameter
+	 * @throws SQLException if an error while communicating database occurs
+	 */
+	public Array createArray(String typeName, Object[] elements) throws SQLException{
+		return connection.createArrayOf(typeName, elements);
+	}
+	
+	/**
+	 * Start a transaction : queries executed after this call will only be saved with {@link #commitTransaction()}.
+	 * @throws SQLException if an error while communicating database occurs
+	 */
+	public void beginTransaction() throws SQLException{
+		connection.setAutoCommit(false);
+	}
+	
+	/**
+	 * Save all queries executed since {@link #beginTransaction()}, and go back to the default mode (each query is saved immediately).
+	 * @throws SQLException if an error while communicating database occurs
+	 */
+	public void commitTransaction() throws SQLException{
+		try {
+			connection.commit();
+		}finally {
+			connection.setAutoCommit(true);
+		}
+	}
+	
+	/**
+	 * Cancel all queries executed since {@link #beginTransaction()}, and go back to the default mode.
+	 */
+	public void rollbackTransaction() {
+		try {
+			connection.rollback();
+			connection.setAutoCommit(true);
+		} catch (SQLException e) {
+			logger.error("Could not rollback transaction : " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Mark the current point of the transaction, so queries executed after it can be cancelled alone.
+	 * @return the point created
+	 * @throws SQLException if an error while communicating database occurs
+	 */
+	public Savepoint createSavepoint() throws SQLException{
+		return connection.setSavepoint();
+	}
+	
+	/**
+	 * Cancel queries executed after the savepoint, keeping the ones executed before.
+	 * @throws SQLException if an error while communicating database occurs
+	 */
+	public void rollbackToSavepoint(Savepoint savepoint) throws SQLException{
+		connection.rollback(savepoint);
+	}
+	
+	/**
+	 * Forget the savepoint when queries executed after it are correct.
+	 * @throws SQLException if an error while communicating database occurs
+	 */
+	public void releaseSavepoint(Savepoint savepoint) throws SQLException{
+		connection.releaseSavepoint(savepoint);
+	}
+	
+	/**
+	 * Send a lot of rows to the database with a single COPY, much faster than one INSERT per row.
+	 * @param query the COPY query, reading from STDIN. For example :
+	 * <pre>COPY table FROM STDIN WITH (FORMAT csv)</pre>
+	 * @param rows the rows, in the format of the query
+	 * @return the number of rows copied
+	 * @throws SQLException if an error while communicating database occurs, or if a row is not valid
+	 * @throws IOException if the rows could not be read
+	 */
+	public long copyIn(String query, InputStream rows) throws SQLException, IOException{
+		return connection.unwrap(PGConnection.class).getCopyAPI().copyIn(query, rows);
+	}
+	
+	/**
+	 * Start listening to a PostgreSQL notification channel. Notifications can then be read with {@link #getNotifications(int)}.
+	 * @param channel the name of the channel (must be a valid identifier, it can't be passed as parameter)
+	 * @throws SQLException if an error while communicating database occurs
+	 */
+	public void listen(String channel) throws SQLException{
+		executeStatement("LISTEN " + channel);
+	}
+	
+	/**
+	 * Wait for notifications of the channels listened.
+	 * @param timeoutMillis the maximum time to wait, in milliseconds (0 to wait until a notification comes)
+	 * @return the notifications recieved, or {@code null} if none came before timeout
+	 * @throws SQLException if an error while communicating database occurs
+	 */
+	public PGNotification[] getNotifications(int timeoutMillis) throws SQLException{
+		return connection.unwrap(PGConnection.class).getNotifications(timeoutMillis);
+	}
 
 }
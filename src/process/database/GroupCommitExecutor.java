@@ -0,0 +1,246 @@
+package process.database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import logger.LoggerUtility;
+
+/**
+ * Execute DML queries of many clients together : queries submitted during a
+ * short delay are executed in a single transaction, on a dedicated connection,
+ * so the database only saves them once on disk.<p>
+ * Each query has its own savepoint, so a failing query is cancelled alone and
+ * the others are still saved. Each client gets the result of its own query.
+ *
+ * @author Aldric Vitali Silvestre <aldric.vitali@outlook.fr>
+ */
+public class GroupCommitExecutor {
+	private static Logger logger = LoggerUtility.getLogger(GroupCommitExecutor.class, LoggerUtility.LOG_PREFERENCE);
+
+	/**
+	 * Change this constant in order to modify the maximum time a query waits for
+	 * other ones (in milliseconds)
+	 */
+	private static final long MAX_DELAY = 5;
+
+	/**
+	 * Change this constant in order to modify the maximum number of queries
+	 * executed in a single transaction
+	 */
+	private static final int MAX_BATCH_SIZE = 64;
+
+	private DatabaseManager databaseManager;
+
+	private BlockingQueue<PendingQuery<?>> pendingQueries = new LinkedBlockingQueue<>();
+
+	private volatile boolean isRunning = true;
+
+	private Thread executorThread;
+
+	/**
+	 * @param databaseManager the connection used for the queries. It must not be
+	 *                        used by anything else, since transactions are opened
+	 *                        on it.
+	 */
+	public GroupCommitExecutor(DatabaseManager databaseManager) {
+		this.databaseManager = databaseManager;
+		executorThread = new Thread(this::executeLoop, "group-commit");
+		executorThread.setDaemon(true);
+		executorThread.start();
+	}
+
+	/**
+	 * Execute a DML query with the queries of other clients, and wait for its
+	 * result.
+	 *
+	 * @see DatabaseManager#executeDmlQueryParams(String, Object...)
+	 * @return true if query has modified something, false else
+	 * @throws IllegalArgumentException if the number of '?' in the query is not
+	 *                                  the same as the number of parameters
+	 *                                  provided
+	 * @throws SQLException             if this query, or the whole transaction,
+	 *                                  failed
+	 */
+	public boolean executeDmlQueryParams(String query, Object... params) throws SQLException, IllegalArgumentException {
+		return execute(new PendingQuery<>(() -> databaseManager.executeDmlQueryParams(query, params)));
+	}
+
+	/**
+	 * Execute a DML query returning a number ({@code UPDATE ... RETURNING} for
+	 * instance) with the queries of other clients, and wait for its result.
+	 *
+	 * @see DatabaseManager#executeSelectQueryParams(String, Object...)
+	 * @return the first column of the first row returned, {@code null} if the
+	 *         query has returned no row
+	 * @throws IllegalArgumentException if the number of '?' in the query is not
+	 *                                  the same as the number of parameters
+	 *                                  provided
+	 * @throws SQLException             if this query, or the whole transaction,
+	 *                                  failed
+	 */
+	public Integer executeReturningIntQueryParams(String query, Object... params)
+			throws SQLException, IllegalArgumentException {
+		return execute(new PendingQuery<>(() -> {
+			ResultSet result = databaseManager.executeSelectQueryParams(query, params);
+			return result.next() ? result.getInt(1) : null;
+		}));
+	}
+
+	/**
+	 * Submit a query and wait for its result
+	 */
+	private <T> T execute(PendingQuery<T> pendingQuery) throws SQLException, IllegalArgumentException {
+		if (!isRunning) {
+			throw new SQLException("Les requtes ne sont plus acceptes, le serveur s'arrte.");
+		}
+		pendingQueries.add(pendingQuery);
+		try {
+			return pendingQuery.result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof SQLException) {
+				throw (SQLException) cause;
+			} else if (cause instanceof IllegalArgumentException) {
+				throw (IllegalArgumentException) cause;
+			}
+			throw new SQLException(cause);
+		}
+	}
+
+	private void executeLoop() {
+		List<PendingQuery<?>> batch = new ArrayList<>(MAX_BATCH_SIZE);
+		while (isRunning || !pendingQueries.isEmpty()) {
+			try {
+				PendingQuery<?> first = pendingQueries.poll(1, TimeUnit.SECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				// wait a little for other queries, without waiting more than MAX_DELAY
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_DELAY);
+				while (batch.size() < MAX_BATCH_SIZE) {
+					long remaining = deadline - System.nanoTime();
+					PendingQuery<?> next = remaining > 0 ? pendingQueries.poll(remaining, TimeUnit.NANOSECONDS)
+							: pendingQueries.poll();
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+				}
+			} catch (InterruptedException e) {
+				// we are closing, execute what we have
+			}
+			if (!batch.isEmpty()) {
+				executeBatch(batch);
+				batch.clear();
+			}
+		}
+		// queries submitted while closing
+		PendingQuery<?> pendingQuery;
+		while ((pendingQuery = pendingQueries.poll()) != null) {
+			pendingQuery.result.completeExceptionally(
+					new SQLException("Les requtes ne sont plus acceptes, le serveur s'arrte."));
+		}
+	}
+
+	private void executeBatch(List<PendingQuery<?>> batch) {
+		if (batch.size() == 1) {
+			// no need of a transaction for a single query
+			PendingQuery<?> pendingQuery = batch.get(0);
+			try {
+				pendingQuery.execute();
+				pendingQuery.complete();
+			} catch (SQLException | IllegalArgumentException e) {
+				pendingQuery.result.completeExceptionally(e);
+			}
+			return;
+		}
+
+		// results of successful queries are only given once the transaction is saved
+		try {
+			databaseManager.beginTransaction();
+			for (int i = 0; i < batch.size(); i++) {
+				PendingQuery<?> pendingQuery = batch.get(i);
+				Savepoint savepoint = databaseManager.createSavepoint();
+				try {
+					pendingQuery.execute();
+					databaseManager.releaseSavepoint(savepoint);
+				} catch (SQLException | IllegalArgumentException e) {
+					// only this query is cancelled
+					databaseManager.rollbackToSavepoint(savepoint);
+					pendingQuery.result.completeExceptionally(e);
+				}
+			}
+			databaseManager.commitTransaction();
+		} catch (SQLException e) {
+			logger.error("Group of " + batch.size() + " queries failed : " + e.getMessage());
+			databaseManager.rollbackTransaction();
+			for (PendingQuery<?> pendingQuery : batch) {
+				pendingQuery.result.completeExceptionally(e);
+			}
+			return;
+		}
+		for (PendingQuery<?> pendingQuery : batch) {
+			// does nothing for queries already failed
+			pendingQuery.complete();
+		}
+	}
+
+	/**
+	 * Execute the queries already submitted, refuse new ones, and close the
+	 * connection
+	 */
+	public void close() {
+		isRunning = false;
+		executorThread.interrupt();
+		try {
+			executorThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		databaseManager.closeConnection();
+	}
+
+	/**
+	 * A query, executed on the connection of the executor
+	 */
+	@FunctionalInterface
+	private interface QueryExecution<T> {
+		T execute() throws SQLException, IllegalArgumentException;
+	}
+
+	private static class PendingQuery<T> {
+		private QueryExecution<T> execution;
+		private CompletableFuture<T> result = new CompletableFuture<>();
+
+		/**
+		 * The result of the query, given to the client once the transaction is saved
+		 */
+		private T value;
+
+		public PendingQuery(QueryExecution<T> execution) {
+			this.execution = execution;
+		}
+
+		private void execute() throws SQLException, IllegalArgumentException {
+			value = execution.execute();
+		}
+
+		private void complete() {
+			result.complete(value);
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package process.database;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.log4j.Logger;
+
+import logger.LoggerUtility;
+
+/**
+ * Channel used by all server instances to tell each other that data has been
+ * modified, so they can refresh what they keep in memory.<p>
+ * A message is composed like this : {@code origin:table:key}. The origin is the
+ * name of the server that made the modification, so a server will not handle its
+ * own messages.
+ * 
+ * @author Aldric Vitali Silvestre <aldric.vitali@outlook.fr>
+ */
+public abstract class InvalidationChannel {
+	private static Logger logger = LoggerUtility.getLogger(InvalidationChannel.class, LoggerUtility.LOG_PREFERENCE);
+
+	public static final String TABLE_PRODUCT = "produit";
+	public static final String TABLE_PROMOTION = "promotion";
+	public static final String TABLE_ORDER = "commande";
+	public static final String TABLE_ORDER_PRODUCT = "produit_commande";
+	public static final String TABLE_EMPLOYEE = "employe";
+
+	private static final char SEPARATOR = ':';
+
+	/**
+	 * Name of this server, added in every message sent
+	 */
+	private String origin;
+
+	private List<InvalidationListener> listeners = new CopyOnWriteArrayList<>();
+
+	public InvalidationChannel(String origin) {
+		this.origin = origin;
+	}
+
+	public String getOrigin() {
+		return origin;
+	}
+
+	public void addListener(InvalidationListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(InvalidationListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Tell all other servers that a row has been modified. Must be called after
+	 * the modification has been commited.
+	 * 
+	 * @param table the table modified
+	 * @param key   the key of the row modified, or {@code null} for the whole table
+	 */
+	public abstract void publish(String table, String key);
+
+	/**
+	 * Stop listening for messages
+	 */
+	public abstract void close();
+
+	protected String createMessage(String table, String key) {
+		return origin + SEPARATOR + table + SEPARATOR + (key == null ? "" : key);
+	}
+
+	/**
+	 * Read a message recieved and warn all listeners, except if the message comes
+	 * from this server.
+	 * 
+	 * @param message the message formatted like {@code origin:table:key}
+	 */
+	protected void dispatch(String message) {
+		int firstSeparator = message.indexOf(SEPARATOR);
+		int secondSeparator = message.indexOf(SEPARATOR, firstSeparator + 1);
+		if (firstSeparator < 0 || secondSeparator < 0) {
+			logger.warn("Invalidation message not valid : " + message);
+			return;
+		}
+		// we already know what we have modified
+		if (message.substring(0, firstSeparator).equals(origin)) {
+			return;
+		}
+		String table = message.substring(firstSeparator + 1, secondSeparator);
+		String key = message.substring(secondSeparator + 1);
+		dispatchLocally(table, key.isEmpty() ? null : key);
+	}
+
+	/**
+	 * Warn all listeners of this server, without sending anything to the other
+	 * servers
+	 * 
+	 * @param table the table modified
+	 * @param key   the key of the row modified, or {@code null} for the whole table
+	 */
+	protected void dispatchLocally(String table, String key) {
+		for (InvalidationListener listener : listeners) {
+			try {
+				listener.onInvalidation(table, key);
+			} catch (RuntimeException e) {
+				logger.error("Error while invalidating " + table + " " + key + " : " + e.getMessage());
+			}
+		}
+	}
+}
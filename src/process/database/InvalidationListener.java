@@ -0,0 +1,21 @@
+package process.database;
+
+/**
+ * Object that must be warned when data has been modified in the database by
+ * someone else (another server or a script for example).
+ * 
+ * @author Aldric Vitali Silvestre <aldric.vitali@outlook.fr>
+ * @see InvalidationChannel
+ */
+public interface InvalidationListener {
+
+	/**
+	 * Called when a row has been modified
+	 * 
+	 * @param table the name of the table modified (see constants in
+	 *              {@link InvalidationChannel})
+	 * @param key   the key of the row modified (id or name), or {@code null} if
+	 *              the whole table must be reloaded
+	 */
+	void onInvalidation(String table, String key);
+}
@@ -0,0 +1,96 @@
+package process.database;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import logger.LoggerUtility;
+
+/**
+ * Keep in memory the last connection date of employees, and write them in the
+ * database from time to time, all in one batch.<p>
+ * If an employee connects several times between two writings, only his last
+ * connection is written.
+ * 
+ * @author Aldric Vitali Silvestre <aldric.vitali@outlook.fr>
+ */
+public class LastConnectionWriter {
+	private static Logger logger = LoggerUtility.getLogger(LastConnectionWriter.class, LoggerUtility.LOG_PREFERENCE);
+
+	/**
+	 * Change this constant in order to modify the delay between two writings (in
+	 * milliseconds)
+	 */
+	private static final long FLUSH_DELAY = 10 * 1000;
+
+	private static final String UPDATE_QUERY = "UPDATE Employe SET date_derniere_connexion_employe = ? WHERE nom_employe = ?";
+
+	private DatabaseManager databaseManager;
+
+	/**
+	 * Last connection date of each employee that has not been written yet
+	 */
+	private Map<String, Timestamp> pendingConnections = new ConcurrentHashMap<>();
+
+	private ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "last-connection-writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	public LastConnectionWriter(DatabaseManager databaseManager) {
+		this.databaseManager = databaseManager;
+		scheduler.scheduleWithFixedDelay(this::flush, FLUSH_DELAY, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Remember that this employee has just connected. Date will be written in
+	 * database later.
+	 * 
+	 * @param employeeName the name of the employee
+	 */
+	public void recordConnection(String employeeName) {
+		pendingConnections.put(employeeName, new Timestamp(System.currentTimeMillis()));
+	}
+
+	/**
+	 * Write all pending dates in the database
+	 */
+	public synchronized void flush() {
+		if (pendingConnections.isEmpty()) {
+			return;
+		}
+		List<Object[]> paramsList = new ArrayList<>();
+		for (String employeeName : pendingConnections.keySet()) {
+			Timestamp date = pendingConnections.remove(employeeName);
+			if (date != null) {
+				paramsList.add(new Object[] { date, employeeName });
+			}
+		}
+		try {
+			databaseManager.executeBatchDmlQueryParams(UPDATE_QUERY, paramsList);
+		} catch (IllegalArgumentException | SQLException e) {
+			logger.error("Could not write last connection dates : " + e.getMessage());
+			// keep them for next time, unless the employee has connected again since
+			for (Object[] params : paramsList) {
+				pendingConnections.putIfAbsent((String) params[1], (Timestamp) params[0]);
+			}
+		}
+	}
+
+	/**
+	 * Stop writing periodically, and write the dates not written yet
+	 */
+	public void close() {
+		scheduler.shutdown();
+		flush();
+	}
+}
@@ -0,0 +1,67 @@
+package process.database;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Invalidation channel working only in memory, without database. Useful for
+ * tests, or when server runs alone.<p>
+ * Several channels can be linked together in order to simulate several servers.
+ * 
+ * @author Aldric Vitali Silvestre <aldric.vitali@outlook.fr>
+ */
+public class LocalInvalidationChannel extends InvalidationChannel {
+
+	/**
+	 * Origin of the messages simulating a modification made outside of servers
+	 */
+	private static final String DATABASE_ORIGIN = "database";
+
+	/**
+	 * All channels linked together (including this one)
+	 */
+	private List<LocalInvalidationChannel> linkedChannels;
+
+	/**
+	 * Create a channel linked with no other
+	 */
+	public LocalInvalidationChannel(String origin) {
+		super(origin);
+		linkedChannels = new CopyOnWriteArrayList<>();
+		linkedChannels.add(this);
+	}
+
+	/**
+	 * Create a channel recieving messages of the other channel (and of all
+	 * channels linked with it)
+	 */
+	public LocalInvalidationChannel(String origin, LocalInvalidationChannel otherChannel) {
+		super(origin);
+		linkedChannels = otherChannel.linkedChannels;
+		linkedChannels.add(this);
+	}
+
+	@Override
+	public void publish(String table, String key) {
+		String message = createMessage(table, key);
+		for (LocalInvalidationChannel channel : linkedChannels) {
+			channel.dispatch(message);
+		}
+	}
+
+	/**
+	 * Simulate a modification made directly in the database (by a trigger for
+	 * example)
+	 */
+	public void publishFromDatabase(String table, String key) {
+		String message = DATABASE_ORIGIN + ":" + table + ":" + (key == null ? "" : key);
+		for (LocalInvalidationChannel channel : linkedChannels) {
+			channel.dispatch(message);
+		}
+	}
+
+	@Override
+	public void close() {
+		linkedChannels.remove(this);
+	}
+}
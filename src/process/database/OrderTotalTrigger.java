@@ -0,0 +1,47 @@
+package process.database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * The total price of each order kept in the {@code commande} table, so orders
+ * can be read without adding the prices of all their products.<p>
+ * The total is updated by a trigger each time a product of an order is added,
+ * modified or removed, whoever does it (a server, the application creating the
+ * orders, a script...). The column and the trigger are created once by
+ * sql/order_total.sql : the server only checks that they exist.
+ *
+ * @author Aldric Vitali Silvestre <aldric.vitali@outlook.fr>
+ */
+public class OrderTotalTrigger {
+
+	/**
+	 * Column of the {@code commande} table containing the total price
+	 */
+	public static final String TOTAL_COLUMN = "total_commande";
+
+	/**
+	 * Trigger of the {@code produit_commande} table updating the total
+	 */
+	public static final String TRIGGER_NAME = "drive_order_total";
+
+	private DatabaseManager databaseManager;
+
+	public OrderTotalTrigger(DatabaseManager databaseManager) {
+		this.databaseManager = databaseManager;
+	}
+
+	/**
+	 * @return true if the column and the trigger exist, so the column is up to date
+	 * @throws SQLException if an error while communicating database occurs
+	 */
+	public boolean isInstalled() throws SQLException {
+		ResultSet installed = databaseManager.executeSelectQueryParams(
+				"SELECT EXISTS (SELECT 1 FROM information_schema.columns "
+						+ "WHERE table_name = 'commande' AND column_name = ?) "
+						+ "AND EXISTS (SELECT 1 FROM information_schema.triggers "
+						+ "WHERE event_object_table = 'produit_commande' AND trigger_name = ?)",
+				TOTAL_COLUMN, TRIGGER_NAME);
+		return installed.next() && installed.getBoolean(1);
+	}
+}
@@ -0,0 +1,206 @@
+package process.database;
+
+import java.sql.SQLException;
+
+import org.apache.log4j.Logger;
+import org.postgresql.PGNotification;
+
+import logger.LoggerUtility;
+
+/**
+ * Invalidation channel using PostgreSQL {@code LISTEN / NOTIFY}.<p>
+ * Messages are sent with the connection used by the server, and are recieved on
+ * a dedicated connection (a connection listening can't be used for anything
+ * else). If this connection is lost, it is created again (waiting longer after
+ * each failure), and products are then entirely reloaded since messages sent in
+ * the meantime are lost.<p>
+ * Triggers can also be installed with {@link #installTriggers()}, so that
+ * modifications made by scripts directly in the database are also sent. In this
+ * case, the origin of the message is the {@code application_name} of the
+ * connection, so the server connections must be created with the server name as
+ * application name. Triggers then send the modifications of the servers too, so
+ * {@link #publish(String, String)} doesn't send anything anymore.
+ * 
+ * @author Aldric Vitali Silvestre <aldric.vitali@outlook.fr>
+ */
+public class PostgresInvalidationChannel extends InvalidationChannel implements Runnable {
+	private static Logger logger = LoggerUtility.getLogger(PostgresInvalidationChannel.class,
+			LoggerUtility.LOG_PREFERENCE);
+
+	/**
+	 * Name of the PostgreSQL channel
+	 */
+	public static final String CHANNEL_NAME = "drive_invalidation";
+
+	/**
+	 * Time to wait for notifications before checking if channel is closed
+	 */
+	private static final int POLL_TIMEOUT = 1000;
+
+	/**
+	 * Time to wait before creating the listening connection again, doubled after
+	 * each failure
+	 */
+	private static final long MIN_RECONNECT_DELAY = 1000;
+	private static final long MAX_RECONNECT_DELAY = 60000;
+
+	private static final String TRIGGERS_QUERY = "CREATE OR REPLACE FUNCTION drive_notify_invalidation() RETURNS trigger AS $$ "
+			+ "DECLARE row_key text; "
+			+ "BEGIN "
+			+ "IF TG_OP = 'DELETE' THEN row_key := row_to_json(OLD) ->> TG_ARGV[0]; "
+			+ "ELSE row_key := row_to_json(NEW) ->> TG_ARGV[0]; END IF; "
+			+ "PERFORM pg_notify('" + CHANNEL_NAME + "', current_setting('application_name') || ':' || TG_TABLE_NAME || ':' || coalesce(row_key, '')); "
+			+ "RETURN NULL; "
+			+ "END; $$ LANGUAGE plpgsql; "
+			+ createTriggerQuery(TABLE_PRODUCT, "id_produit")
+			+ createTriggerQuery(TABLE_PROMOTION, "id_produit")
+			+ createTriggerQuery(TABLE_ORDER, "id_commande")
+			+ createTriggerQuery(TABLE_ORDER_PRODUCT, "id_commande")
+			+ createTriggerQuery(TABLE_EMPLOYEE, "nom_employe");
+
+	private DatabaseManager databaseManager;
+	private volatile DatabaseManager listeningDatabaseManager;
+
+	/**
+	 * Used to create the listening connection again
+	 */
+	private String databaseUrl;
+	private String databaseUser;
+	private String databasePassword;
+
+	private volatile boolean isListening = true;
+
+	/**
+	 * True if triggers send all modifications
+	 */
+	private volatile boolean areTriggersInstalled = false;
+
+	/**
+	 * Start listening for messages, on a connection created only to recieve them
+	 * 
+	 * @param origin           the name of this server
+	 * @param databaseManager  the connection used to send messages
+	 * @param databaseUrl      the url of the database, used to create the
+	 *                         listening connection
+	 * @param databaseUser
+	 * @param databasePassword
+	 * @throws SQLException if the connection can't be created or the LISTEN query
+	 *                      fails
+	 */
+	public PostgresInvalidationChannel(String origin, DatabaseManager databaseManager, String databaseUrl,
+			String databaseUser, String databasePassword) throws SQLException {
+		super(origin);
+		this.databaseManager = databaseManager;
+		this.databaseUrl = databaseUrl;
+		this.databaseUser = databaseUser;
+		this.databasePassword = databasePassword;
+		listeningDatabaseManager = createListeningConnection();
+
+		Thread thread = new Thread(this, "invalidation-listener");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private DatabaseManager createListeningConnection() throws SQLException {
+		DatabaseManager listeningDatabaseManager = new DatabaseManager(databaseUrl, databaseUser, databasePassword,
+				getOrigin());
+		try {
+			listeningDatabaseManager.listen(CHANNEL_NAME);
+		} catch (SQLException e) {
+			listeningDatabaseManager.closeConnection();
+			throw e;
+		}
+		return listeningDatabaseManager;
+	}
+
+	private static String createTriggerQuery(String table, String keyColumn) {
+		String triggerName = "drive_invalidation_" + table;
+		return "DROP TRIGGER IF EXISTS " + triggerName + " ON " + table + "; "
+				+ "CREATE TRIGGER " + triggerName + " AFTER INSERT OR UPDATE OR DELETE ON " + table
+				+ " FOR EACH ROW EXECUTE PROCEDURE drive_notify_invalidation('" + keyColumn + "'); ";
+	}
+
+	/**
+	 * Create (or replace) triggers sending messages for each modification in the
+	 * tables kept in memory. Only needed if database can be modified without
+	 * servers.
+	 * 
+	 * @throws SQLException if triggers could not be created
+	 */
+	public void installTriggers() throws SQLException {
+		databaseManager.executeStatement(TRIGGERS_QUERY);
+		areTriggersInstalled = true;
+	}
+
+	@Override
+	public void publish(String table, String key) {
+		if (areTriggersInstalled) {
+			// the trigger has already sent the modification
+			return;
+		}
+		try {
+			databaseManager.executeSelectQueryParams("SELECT pg_notify(?, ?)", CHANNEL_NAME, createMessage(table, key));
+		} catch (SQLException e) {
+			// other servers will keep old data, but we can't do anything more here
+			logger.error("Could not send invalidation of " + table + " " + key + " : " + e.getMessage());
+		}
+	}
+
+	@Override
+	public void run() {
+		while (isListening) {
+			try {
+				PGNotification[] notifications = listeningDatabaseManager.getNotifications(POLL_TIMEOUT);
+				if (notifications != null) {
+					for (PGNotification notification : notifications) {
+						dispatch(notification.getParameter());
+					}
+				}
+			} catch (SQLException e) {
+				if (isListening) {
+					logger.error("Error while listening for invalidations : " + e.getMessage());
+					listeningDatabaseManager.closeConnection();
+					reconnect();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Create the listening connection again, until it works or the channel is
+	 * closed. Messages sent while it was lost are unknown, so all products are
+	 * then reloaded.
+	 */
+	private void reconnect() {
+		long delay = MIN_RECONNECT_DELAY;
+		while (isListening) {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			try {
+				DatabaseManager newDatabaseManager = createListeningConnection();
+				listeningDatabaseManager = newDatabaseManager;
+				if (!isListening) {
+					// closed while connecting
+					newDatabaseManager.closeConnection();
+					return;
+				}
+				logger.info("Listening for invalidations again");
+				dispatchLocally(TABLE_PRODUCT, null);
+				return;
+			} catch (SQLException e) {
+				logger.error("Cannot listen for invalidations again : " + e.getMessage());
+				delay = Math.min(delay * 2, MAX_RECONNECT_DELAY);
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		isListening = false;
+		listeningDatabaseManager.closeConnection();
+	}
+}
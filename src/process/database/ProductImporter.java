@@ -0,0 +1,187 @@
+package process.database;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import data.Money;
+import logger.LoggerUtility;
+
+/**
+ * Add or modify a lot of products at once (when a supplier catalog is loaded
+ * for example).<p>
+ * Lines are checked, then sent with a single COPY in a temporary table, and
+ * finally merged in the products with a single query : existing products (same
+ * name) are modified, the others are added. All is done in a transaction on a
+ * dedicated connection, so clients don't wait for the import.<p>
+ * Only one import is done at a time.
+ *
+ * @author Aldric Vitali Silvestre <aldric.vitali@outlook.fr>
+ */
+public class ProductImporter {
+	private static Logger logger = LoggerUtility.getLogger(ProductImporter.class, LoggerUtility.LOG_PREFERENCE);
+
+	/**
+	 * Same limits as the products added one by one
+	 */
+	private static final int MAX_NAME_LENGTH = 50;
+	private static final long MAX_PRICE = 1000 * 100 - 1;
+
+	private DatabaseManager databaseManager;
+
+	/**
+	 * @param databaseManager the connection used only for imports
+	 */
+	public ProductImporter(DatabaseManager databaseManager) {
+		this.databaseManager = databaseManager;
+	}
+
+	/**
+	 * Import products. Lines that are not valid are ignored, the others are
+	 * imported.
+	 *
+	 * @param lines one line per product : "name;price;quantity"
+	 * @return what has been done for each line
+	 * @throws SQLException if products could not be imported (none of them is
+	 *                      then imported)
+	 */
+	public synchronized ImportReport importProducts(List<String> lines) throws SQLException {
+		ImportReport report = new ImportReport();
+		ByteArrayOutputStream rows = new ByteArrayOutputStream();
+		Set<String> names = new HashSet<>();
+		int rowsNumber = 0;
+		for (int i = 0; i < lines.size(); i++) {
+			String rejectionReason = appendRow(rows, i + 1, lines.get(i), names);
+			if (rejectionReason != null) {
+				report.rejectedLines.add((i + 1) + ";" + rejectionReason);
+			} else {
+				rowsNumber++;
+			}
+		}
+		if (rowsNumber == 0) {
+			return report;
+		}
+		databaseManager.beginTransaction();
+		try {
+			databaseManager.executeStatement("CREATE TEMPORARY TABLE import_produit ("
+					+ "ligne INTEGER, nom_produit VARCHAR(" + MAX_NAME_LENGTH + "), "
+					+ "prix_produit NUMERIC(7, 2), stock_total_produit INTEGER) ON COMMIT DROP");
+			databaseManager.copyIn("COPY import_produit FROM STDIN WITH (FORMAT csv)",
+					new ByteArrayInputStream(rows.toByteArray()));
+			// products having the same name are modified, the others are added
+			ResultSet result = databaseManager.executeSelectQueryParams("WITH modified AS ("
+					+ "UPDATE produit SET prix_produit = import_produit.prix_produit, "
+					+ "stock_total_produit = import_produit.stock_total_produit FROM import_produit "
+					+ "WHERE produit.nom_produit = import_produit.nom_produit "
+					+ "RETURNING produit.id_produit, produit.stock_total_produit), "
+					+ "added AS (INSERT INTO produit (nom_produit, prix_produit, stock_total_produit) "
+					+ "SELECT nom_produit, prix_produit, stock_total_produit FROM import_produit "
+					+ "WHERE NOT EXISTS (SELECT 1 FROM produit WHERE produit.nom_produit = import_produit.nom_produit) "
+					+ "ORDER BY ligne RETURNING id_produit, stock_total_produit) "
+					+ "SELECT id_produit, stock_total_produit, FALSE FROM modified "
+					+ "UNION ALL SELECT id_produit, stock_total_produit, TRUE FROM added");
+			while (result.next()) {
+				report.stocks.put(result.getInt(1), result.getInt(2));
+				if (result.getBoolean(3)) {
+					report.addedNumber++;
+				} else {
+					report.modifiedNumber++;
+				}
+			}
+			databaseManager.commitTransaction();
+		} catch (SQLException | IOException e) {
+			databaseManager.rollbackTransaction();
+			throw e instanceof SQLException ? (SQLException) e : new SQLException(e);
+		}
+		logger.info("Products imported : " + report.addedNumber + " added, " + report.modifiedNumber
+				+ " modified, " + report.rejectedLines.size() + " rejected");
+		return report;
+	}
+
+	/**
+	 * Check a line and write it as a CSV row
+	 *
+	 * @param names the names of the lines already accepted
+	 * @return the reason why the line is rejected, or {@code null} if it has been
+	 *         written
+	 */
+	private String appendRow(ByteArrayOutputStream rows, int lineNumber, String line, Set<String> names) {
+		String[] fields = line.split(";", -1);
+		if (fields.length != 3) {
+			return "la ligne doit contenir un nom, un prix et une quantit";
+		}
+		String name = fields[0].trim();
+		if (name.isEmpty() || name.length() > MAX_NAME_LENGTH) {
+			return "le nom doit contenir entre 1 et " + MAX_NAME_LENGTH + " caractres";
+		}
+		if (!names.add(name)) {
+			return "le produit est dj prsent dans l'import";
+		}
+		long price;
+		int quantity;
+		try {
+			price = Money.parse(fields[1].trim());
+			quantity = Integer.parseInt(fields[2].trim());
+		} catch (NumberFormatException e) {
+			names.remove(name);
+			return "le prix ou la quantit n'est pas un nombre";
+		}
+		if (price < Money.MINIMUM_PRICE || price > MAX_PRICE) {
+			names.remove(name);
+			return "le prix n'est pas valide";
+		}
+		if (quantity < 0) {
+			names.remove(name);
+			return "la quantit n'est pas valide";
+		}
+		// quotes of the name are doubled, as CSV requires
+		String row = lineNumber + ",\"" + name.replace("\"", "\"\"") + "\"," + Money.toString(price) + ","
+				+ quantity + "\n";
+		byte[] rowBytes = row.getBytes(StandardCharsets.UTF_8);
+		rows.write(rowBytes, 0, rowBytes.length);
+		return null;
+	}
+
+	/**
+	 * Result of an import
+	 */
+	public static class ImportReport {
+		private int addedNumber;
+		private int modifiedNumber;
+		private List<String> rejectedLines = new ArrayList<>();
+		private Map<Integer, Integer> stocks = new HashMap<>();
+
+		public int getAddedNumber() {
+			return addedNumber;
+		}
+
+		public int getModifiedNumber() {
+			return modifiedNumber;
+		}
+
+		/**
+		 * @return the lines that have not been imported : "line;reason"
+		 */
+		public List<String> getRejectedLines() {
+			return rejectedLines;
+		}
+
+		/**
+		 * @return the stock of each product added or modified, by product id
+		 */
+		public Map<Integer, Integer> getStocks() {
+			return stocks;
+		}
+	}
+}
@@ -1,12 +1,11 @@
 package process.protocol;
 
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
 
 import org.apache.log4j.Logger;
 
 import data.Protocol;
+import data.ProtocolFrame;
 import data.enums.ActionCodes;
 import exceptions.CodeNotFoundException;
 import exceptions.InvalidProtocolException;
@@ -21,7 +20,6 @@ import process.connection.ClientThread;
 public class ProtocolExtractor {
 	private static Logger logger = LoggerUtility.getLogger(ProtocolExtractor.class, LoggerUtility.LOG_PREFERENCE);
 
-	private String protocolString;
 	private Protocol protocol;
 
 	/**
@@ -30,24 +28,54 @@ public class ProtocolExtractor {
 	 * @throws InvalidProtocolException
 	 */
 	public ProtocolExtractor(String protocolString) throws InvalidProtocolException{
-		this.protocolString = protocolString;
-		protocol = extract();
+		byte[] protocolBytes = protocolString.getBytes(StandardCharsets.UTF_8);
+		protocol = extract(protocolBytes, protocolBytes.length, new ProtocolFrame());
 	}
 	
 	/**
-	 * Construct a protocol from a char array. Useful when reading with limited buffer size.
-	 * If the array is full, the InvalidProtocoleException is raised.
-	 * @param protocolCharArray
+	 * Construct a protocol from the bytes of a message read in a buffer.
+	 * @param protocolBytes the buffer containing the message, encoded in UTF-8
+	 * @param length the number of bytes of the message
 	 * @throws InvalidProtocolException
 	 */
-	public ProtocolExtractor(char[] protocolCharArray) throws InvalidProtocolException{
-		//check if last character is terminal, in the other case, raise exception
-		if(protocolCharArray[protocolCharArray.length - 1] != '\u0000') {
-			logger.error("Message recieved too long.");
-			throw new InvalidProtocolException("Le message reu est trop long.");
+	public ProtocolExtractor(byte[] protocolBytes, int length) throws InvalidProtocolException{
+		protocol = extract(protocolBytes, length, new ProtocolFrame());
+	}
+
+	/**
+	 * Read a message directly in the buffer where it has been recieved, without creating any object.<p>
+	 * Bytes are not decoded : '<' and '>' are searched in the UTF-8 bytes, and only the options read as strings
+	 * will be decoded.<p>
+	 * The protocol returned is the one of the frame : it will change when the frame is used for the next message.
+	 * @param bytes the buffer containing the message, encoded in UTF-8
+	 * @param length the number of bytes of the message in the buffer
+	 * @param frame the frame where to store the positions of the fields, reused for each message of a connection
+	 * @return the protocol of the frame
+	 * @throws InvalidProtocolException if the message is not well formatted or the action code is not valid
+	 */
+	public static Protocol extract(byte[] bytes, int length, ProtocolFrame frame) throws InvalidProtocolException {
+		/*
+		 * The String is like this : <ActionCode><opt1><opt2>... We want to get all
+		 * strings between '<' and '>'
+		 */
+		findFields(bytes, length, frame);
+
+		// if no args, we can already say that no code is provided
+		if (frame.getFieldCount() == 0) {
+			logger.error("No field found in the string");
+			throw new InvalidProtocolException("Aucun champ n'a t trouv dans le message");
+		}
+		
+		Protocol protocol = frame.getProtocol();
+		//the action code is located at the first field (normally).
+		try {
+			protocol.setActionCode(ActionCodes.fromBytes(bytes, frame.getFieldStart(0), frame.getFieldLength(0)));
+		} catch (CodeNotFoundException e) {
+			throw new InvalidProtocolException(e.getMessage());
 		}
-		this.protocolString = String.valueOf(protocolCharArray);
-		protocol = extract();
+		
+		//if we are here, we have a well formatted protocol, but we didn't check the content for now
+		return protocol;
 	}
 
 	public Protocol getProtocol() {
@@ -85,80 +113,36 @@ public class ProtocolExtractor {
 		throw new InvalidProtocolException("Action non reconnue par le serveur.");
 	}
 	
-	private Protocol extract() throws InvalidProtocolException {
-		/*
-		 * The String is like this : <ActionCode><opt1><opt2>... We want to get all
-		 * strings between '<' and '>', so we will use a regular expression
-		 */
-		List<String> args = getFields();
-
-		// if no args, we can already say that no code is provided
-		if (args.size() == 0) {
-			logger.error("No field found in the string");
-			throw new InvalidProtocolException("Aucun champ n'a t trouv dans le message");
-		}
-		
-		ActionCodes actionCode;
-		//we will try to get the action code located at the first index of the list (normally).
-		try {
-			actionCode = ActionCodes.fromCode(args.get(0));
-			//remove it from the list
-			args.remove(0);
-		} catch (CodeNotFoundException e) {
-			throw new InvalidProtocolException(e.getMessage());
-		}
-		
-		//if we are here, we have a well formatted protocol, but we didn't check the content for now
-		return new Protocol(actionCode, args);
-
-	}
-
-	private List<String> getFields() throws InvalidProtocolException {
-		StringBuilder stringBuilder = new StringBuilder();
-		boolean isInArg = false;
-		ArrayList<String> fields = new ArrayList<String>();
-		/* we will iterate over each character of the string and find all args */
-		for (char c : protocolString.toCharArray()) {
-
-			switch (c) {
-			case '<':
+	private static void findFields(byte[] bytes, int length, ProtocolFrame frame) throws InvalidProtocolException {
+		frame.reset(bytes);
+		// index of the first character of the field we are in, -1 if we are not in a field
+		int fieldStart = -1;
+		/* we will iterate over each byte of the buffer and find all args (bytes of multi-byte characters are never '<' or '>') */
+		for (int i = 0; i < length; i++) {
+			byte c = bytes[i];
+			if (c == '<') {
 				// if we are parsing an arg, we have a formatting issue in the string
-				if (isInArg) {
+				if (fieldStart >= 0) {
 					logger.error("'<' found before closing '>'.");
 					throw new InvalidProtocolException("Le message envoy n'est pas form correctement.");
-				} else {
-					// else, we will reset the stringBuilder for the next arg
-					isInArg = true;
-					stringBuilder.setLength(0);
 				}
-				break;
-				
-			case '>':
+				fieldStart = i + 1;
+			} else if (c == '>') {
 				// if we are not parsing an arg, we have a formatting issue in the string
-				if (!isInArg) {
+				if (fieldStart < 0) {
 					logger.error("'>' found before opening '<'.");
 					throw new InvalidProtocolException("Le message envoy n'est pas form correctement.");
-				} else {
-					// else, we will get the content of the string builder and append it to the
-					// result list
-					isInArg = false;
-					fields.add(stringBuilder.toString());
 				}
-				
-			default:
-				//just add current character to the builder
-				stringBuilder.append(c);
-				break;
+				frame.addField(fieldStart, i);
+				fieldStart = -1;
 			}
 		}
 		
-		//last test : if isInArg is still true, it means that we didn't close the last field
-		if(isInArg) {
+		//last test : if we are still in a field, it means that we didn't close the last field
+		if(fieldStart >= 0) {
 			logger.error("Last '>' not found.");
 			throw new InvalidProtocolException("Le message envoy au serveur n'a peut-tre pas t envoy dans sa totalit.");
 		}
-		
-		return fields;
 	}
 
 }
@@ -1,6 +1,8 @@
 package process.protocol;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import data.Protocol;
 import data.enums.ActionCodes;
@@ -10,6 +12,13 @@ import data.enums.ActionCodes;
  * @author Aldric Vitali Silvestre <aldric.vitali@outlook.fr>
  */
 public class ProtocolFactory {
+	
+	private static final Protocol SUCCESS = new Protocol(ActionCodes.SUCESS).freeze();
+	
+	/**
+	 * Error protocols already created for messages that never change
+	 */
+	private static final Map<String, Protocol> FIXED_ERRORS = new ConcurrentHashMap<>();
 
 	/**
 	 * Create a simple error protocol message
@@ -23,11 +32,48 @@ public class ProtocolFactory {
 	}
 	
 	/**
-	 * Create a sucess protocol containg only the success action code
+	 * Create a sucess protocol containg only the success action code.<p>
+	 * The same protocol is returned each time, it can't be modified.
 	 */
 	public static Protocol createSuccessProtocol() {
-		return new Protocol(ActionCodes.SUCESS);
+		return SUCCESS;
+	}
+	
+	/**
+	 * Get the error protocol of a message that never changes. The protocol is created the first time and then shared, it can't be modified.<p>
+	 * The message must be a constant : messages containing data (an id for example) must use {@link #createErrorProtocol(String)}.
+	 * @param errorMessage the message describing the error
+	 * @return the protocol containing this message
+	 */
+	public static Protocol getFixedErrorProtocol(String errorMessage) {
+		return FIXED_ERRORS.computeIfAbsent(errorMessage, message -> createErrorProtocol(message).freeze());
 	}
+	/**
+	 * Create the answer to a successful connection
+	 * @param sessionToken the token the client can use in order to reconnect without login and password
+	 * @return a success protocol containing the token
+	 */
+	public static Protocol createConnectionSuccessProtocol(String sessionToken) {
+		Protocol protocol = new Protocol(ActionCodes.SUCESS);
+		protocol.appendOption(sessionToken);
+		return protocol;
+	}
+
+	/**
+	 * Create the message pushed to subscribed clients when a product changes
+	 * @param productId the id of the product that changed
+	 * @param field the name of the field that changed
+	 * @param value the new value of the field
+	 * @return protocol for send a product change
+	 */
+	public static Protocol createProductChangeProtocol(int productId, String field, String value) {
+		Protocol protocol = new Protocol(ActionCodes.PRODUCT_UPDATE);
+		protocol.appendInt(productId);
+		protocol.appendOption(field);
+		protocol.appendOption(value);
+		return protocol;
+	}
+
 	/**
 	 * 
 	 * @param list
@@ -36,7 +82,7 @@ public class ProtocolFactory {
 	public static Protocol listProtocol(List<String> list) {
 		  Protocol protocol = new Protocol(ActionCodes.SUCESS);
 		  //on a besoin du nombre d'items en premier 
-		  protocol.appendOption(Integer.toString(list.size()));
+		  protocol.appendInt(list.size());
 		  for(String item : list){
 		    protocol.appendOption(item);
 		  }
@@ -0,0 +1,289 @@
+package process.stock;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import exceptions.StockException;
+
+/**
+ * Keep in memory the quantities of products reserved for orders being
+ * prepared.<p>
+ * The reserved quantity of a product is only modified with compare-and-set, so
+ * several clients can reserve the same product at the same time without
+ * locking, and without reserving more than the stock.<p>
+ * The stock given to a reservation must not decrease before the reservation is
+ * made : reservations and modifications of the stock that check reserved
+ * quantities must hold the lock of their products ({@link #lockProducts}).
+ * Products are locked by stripes, always in the same order.<p>
+ * Reservations of an order expire if the order is not modified during
+ * {@link #RESERVATION_TIMEOUT}. This class only works in memory : saving
+ * reservations in database is done by the caller.
+ *
+ * @author Aldric Vitali Silvestre <aldric.vitali@outlook.fr>
+ */
+public class ReservationManager {
+
+	/**
+	 * Change this constant in order to modify how long reservations of an order
+	 * are kept after its last modification (in milliseconds)
+	 */
+	public static final long RESERVATION_TIMEOUT = 15 * 60 * 1000;
+
+	private static final int STRIPES_NUMBER = 64;
+
+	private ReentrantLock[] stripes = new ReentrantLock[STRIPES_NUMBER];
+
+	/**
+	 * Quantity reserved for each product, all orders included
+	 */
+	private Map<Integer, AtomicInteger> reservedQuantities = new ConcurrentHashMap<>();
+
+	private Map<Integer, OrderReservation> orders = new ConcurrentHashMap<>();
+
+	public ReservationManager() {
+		for (int i = 0; i < STRIPES_NUMBER; i++) {
+			stripes[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * Lock products, so their stock and their reserved quantities can be checked
+	 * and modified without another client reserving them meanwhile
+	 *
+	 * @param productIds the ids of the products (an id can be present several
+	 *                   times)
+	 * @return the locks taken, to give to {@link #unlockProducts(List)}
+	 */
+	public List<ReentrantLock> lockProducts(Collection<Integer> productIds) {
+		return lockProducts(productIds.stream().mapToInt(Integer::intValue).toArray());
+	}
+
+	/**
+	 * @see #lockProducts(Collection)
+	 */
+	public List<ReentrantLock> lockProducts(int... productIds) {
+		boolean[] isNeeded = new boolean[STRIPES_NUMBER];
+		for (int productId : productIds) {
+			isNeeded[(productId & Integer.MAX_VALUE) % STRIPES_NUMBER] = true;
+		}
+		List<ReentrantLock> locks = new ArrayList<>();
+		for (int i = 0; i < STRIPES_NUMBER; i++) {
+			if (isNeeded[i]) {
+				stripes[i].lock();
+				locks.add(stripes[i]);
+			}
+		}
+		return locks;
+	}
+
+	public void unlockProducts(List<ReentrantLock> locks) {
+		for (int i = locks.size() - 1; i >= 0; i--) {
+			locks.get(i).unlock();
+		}
+	}
+
+	/**
+	 * Reserve a quantity of a product for an order
+	 *
+	 * @param orderId   the id of the order
+	 * @param productId the id of the product
+	 * @param quantity  the quantity to reserve (must be positive)
+	 * @param stock     the current stock of the product
+	 * @return the date when reservations of this order will expire
+	 * @throws StockException if quantity is not valid or if there is not enough
+	 *                        stock that is not reserved yet
+	 */
+	public long reserve(int orderId, int productId, int quantity, int stock) throws StockException {
+		return reserve(orderId, productId, quantity, stock, System.currentTimeMillis() + RESERVATION_TIMEOUT);
+	}
+
+	private long reserve(int orderId, int productId, int quantity, int stock, long expiration)
+			throws StockException {
+		if (quantity <= 0) {
+			throw new StockException("La quantit  rserver doit tre positive");
+		}
+		while (true) {
+			OrderReservation order = orders.computeIfAbsent(orderId, id -> new OrderReservation());
+			synchronized (order) {
+				if (order.isReleased) {
+					// order released meanwhile, a new one has to be created
+					continue;
+				}
+				AtomicInteger reserved = reservedQuantities.computeIfAbsent(productId, id -> new AtomicInteger());
+				int currentReserved;
+				do {
+					currentReserved = reserved.get();
+					if (currentReserved + quantity > stock) {
+						throw new StockException("Il ne reste que " + Math.max(0, stock - currentReserved)
+								+ " produits disponibles pour le produit " + productId);
+					}
+				} while (!reserved.compareAndSet(currentReserved, currentReserved + quantity));
+				order.quantities.merge(productId, quantity, Integer::sum);
+				order.expiration = Math.max(order.expiration, expiration);
+				return order.expiration;
+			}
+		}
+	}
+
+	/**
+	 * Add a reservation read from the database, without checking the stock (it
+	 * has already been checked when the reservation was made)
+	 *
+	 * @param expiration the date when the reservation expires
+	 */
+	public void restore(int orderId, int productId, int quantity, long expiration) {
+		try {
+			reserve(orderId, productId, quantity, Integer.MAX_VALUE, expiration);
+		} catch (StockException e) {
+			// not possible with an unlimited stock
+		}
+	}
+
+	/**
+	 * Cancel a reservation made with {@link #reserve(int, int, int, int)}, when it
+	 * could not be saved for instance
+	 */
+	public void cancel(int orderId, int productId, int quantity) {
+		OrderReservation order = orders.get(orderId);
+		if (order == null) {
+			return;
+		}
+		synchronized (order) {
+			if (order.isReleased) {
+				return;
+			}
+			Integer orderQuantity = order.quantities.get(productId);
+			if (orderQuantity == null) {
+				return;
+			}
+			int cancelledQuantity = Math.min(quantity, orderQuantity);
+			if (cancelledQuantity == orderQuantity) {
+				order.quantities.remove(productId);
+			} else {
+				order.quantities.put(productId, orderQuantity - cancelledQuantity);
+			}
+			reservedQuantities.get(productId).addAndGet(-cancelledQuantity);
+		}
+	}
+
+	/**
+	 * Remove all reservations of an order (when order is validated or deleted)
+	 *
+	 * @param orderId the id of the order
+	 * @return the quantity that was reserved for each product (empty if the order
+	 *         had no reservation)
+	 */
+	public Map<Integer, Integer> release(int orderId) {
+		OrderReservation order = orders.remove(orderId);
+		if (order == null) {
+			return Collections.emptyMap();
+		}
+		synchronized (order) {
+			releaseOrder(order);
+			return order.quantities;
+		}
+	}
+
+	/**
+	 * Remove all reservations of an order, only if it has not reserved other
+	 * products than the ones given (the ones locked by the caller)
+	 *
+	 * @param orderId    the id of the order
+	 * @param productIds the products the order is allowed to have reserved
+	 * @return the quantity that was reserved for each product (empty if the order
+	 *         had no reservation), or {@code null} if the order has reserved other
+	 *         products : nothing is released then
+	 */
+	public Map<Integer, Integer> release(int orderId, Set<Integer> productIds) {
+		OrderReservation order = orders.get(orderId);
+		if (order == null) {
+			return Collections.emptyMap();
+		}
+		synchronized (order) {
+			if (order.isReleased) {
+				return Collections.emptyMap();
+			}
+			if (!productIds.containsAll(order.quantities.keySet())) {
+				return null;
+			}
+			orders.remove(orderId, order);
+			releaseOrder(order);
+			return order.quantities;
+		}
+	}
+
+	/**
+	 * @param orderId the id of the order
+	 * @return the products reserved by the order
+	 */
+	public Set<Integer> getReservedProducts(int orderId) {
+		OrderReservation order = orders.get(orderId);
+		if (order == null) {
+			return Collections.emptySet();
+		}
+		synchronized (order) {
+			return order.isReleased ? Collections.emptySet() : new HashSet<>(order.quantities.keySet());
+		}
+	}
+
+	/**
+	 * Must be called with the lock of the order, once it has been removed
+	 */
+	private void releaseOrder(OrderReservation order) {
+		order.isReleased = true;
+		for (Map.Entry<Integer, Integer> entry : order.quantities.entrySet()) {
+			reservedQuantities.get(entry.getKey()).addAndGet(-entry.getValue());
+		}
+	}
+
+	/**
+	 * Remove reservations of all orders that have expired
+	 *
+	 * @return the ids of orders whose reservations have been removed
+	 */
+	public List<Integer> releaseExpired() {
+		long now = System.currentTimeMillis();
+		List<Integer> expiredOrders = new ArrayList<>();
+		for (Map.Entry<Integer, OrderReservation> entry : orders.entrySet()) {
+			OrderReservation order = entry.getValue();
+			synchronized (order) {
+				// order could have been modified since we got it
+				if (!order.isReleased && order.expiration <= now && orders.remove(entry.getKey(), order)) {
+					releaseOrder(order);
+					expiredOrders.add(entry.getKey());
+				}
+			}
+		}
+		return expiredOrders;
+	}
+
+	/**
+	 * @return the quantity of this product reserved by all orders
+	 */
+	public int getReservedQuantity(int productId) {
+		AtomicInteger reserved = reservedQuantities.get(productId);
+		return reserved == null ? 0 : reserved.get();
+	}
+
+	/**
+	 * Reservations of a single order
+	 */
+	private static class OrderReservation {
+		private Map<Integer, Integer> quantities = new HashMap<>();
+		private long expiration;
+
+		/**
+		 * True once the order has been removed : it must not be modified anymore
+		 */
+		private boolean isReleased = false;
+	}
+}
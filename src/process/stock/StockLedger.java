@@ -0,0 +1,559 @@
+package process.stock;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.log4j.Logger;
+
+import exceptions.StockException;
+import logger.LoggerUtility;
+import process.database.DatabaseManager;
+
+/**
+ * Stock of all products, kept in memory. When it is used, this class is the
+ * reference for stocks : modifications are checked and applied here
+ * immediately, and written later in the database.<p>
+ * Stocks are stored in an array indexed by product id. Each modification locks
+ * only a part of the products (a "stripe"), so modifications of different
+ * products don't wait for each other. Modifications of several products lock
+ * their stripes always in the same order.<p>
+ * Products modified since the last writing are written all at once, every
+ * {@link #FLUSH_DELAY} milliseconds, with only their last stock.<p>
+ * If a {@link StockWriteAheadLog} is used, each modification is written in it
+ * before being applied, and methods return only when it is on disk.
+ *
+ * @author Aldric Vitali Silvestre <aldric.vitali@outlook.fr>
+ */
+public class StockLedger {
+	private static Logger logger = LoggerUtility.getLogger(StockLedger.class, LoggerUtility.LOG_PREFERENCE);
+
+	/**
+	 * Change this constant in order to modify the delay between two writings in
+	 * database (in milliseconds)
+	 */
+	private static final long FLUSH_DELAY = 500;
+
+	/**
+	 * Change this constant in order to modify the delay between two logs of the
+	 * persistence lag and of the number of products not written yet (in
+	 * milliseconds)
+	 */
+	private static final long METRICS_DELAY = 60000;
+
+	/**
+	 * A warning is logged when stocks are not written for longer than this (in
+	 * milliseconds)
+	 */
+	private static final long LAG_WARNING = 5000;
+
+	private static final int STRIPES_NUMBER = 64;
+
+	/**
+	 * One id in each stripe, used in order to lock all of them
+	 */
+	private static final int[] ALL_STRIPES = new int[STRIPES_NUMBER];
+	static {
+		for (int i = 0; i < STRIPES_NUMBER; i++) {
+			ALL_STRIPES[i] = i;
+		}
+	}
+
+	/**
+	 * Value stored for ids that are not products
+	 */
+	private static final int UNKNOWN = Integer.MIN_VALUE;
+
+	private static final String UPDATE_QUERY = "UPDATE produit SET stock_total_produit = ? WHERE id_produit = ?";
+
+	private DatabaseManager databaseManager;
+
+	/**
+	 * Stock of each product, at the index of its id
+	 */
+	private volatile AtomicIntegerArray stocks = createEmptyArray(1024);
+
+	private ReentrantLock[] stripes = new ReentrantLock[STRIPES_NUMBER];
+
+	/**
+	 * Modifications take the read lock, the array can only be replaced with the
+	 * write lock
+	 */
+	private ReentrantReadWriteLock resizeLock = new ReentrantReadWriteLock();
+
+	/**
+	 * Products modified and not written in the database yet
+	 */
+	private Set<Integer> modifiedProducts = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Time of the oldest modification not written yet, 0 if there is none
+	 */
+	private AtomicLong oldestPendingTime = new AtomicLong();
+
+	private Object flushLock = new Object();
+
+	/**
+	 * Journal of modifications, {@code null} if not used
+	 */
+	private StockWriteAheadLog writeAheadLog;
+
+	private ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "stock-writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	public StockLedger(DatabaseManager databaseManager) {
+		this.databaseManager = databaseManager;
+		for (int i = 0; i < STRIPES_NUMBER; i++) {
+			stripes[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * Use a journal in order to not lose modifications if server crashes. Must be
+	 * called before {@link #start()}.
+	 */
+	public void setWriteAheadLog(StockWriteAheadLog writeAheadLog) {
+		this.writeAheadLog = writeAheadLog;
+	}
+
+	/**
+	 * Read all stocks from the database, apply the modifications of the journal
+	 * that are not in database yet, and start writing modifications periodically.
+	 * Must be called before any other method.
+	 *
+	 * @throws SQLException if stocks can't be read
+	 */
+	public void start() throws SQLException {
+		ResultSet result = databaseManager.executeSelectQueryParams("SELECT id_produit, stock_total_produit FROM produit");
+		int count = 0;
+		while (result.next()) {
+			setStock(result.getInt(1), result.getInt(2));
+			count++;
+		}
+		logger.info(count + " product stocks loaded in memory");
+		if (writeAheadLog != null) {
+			for (int[] record : writeAheadLog.readPendingRecords()) {
+				setStock(record[0], record[1]);
+				modifiedProducts.add(record[0]);
+				oldestPendingTime.compareAndSet(0, System.currentTimeMillis());
+			}
+		}
+		scheduler.scheduleWithFixedDelay(this::flush, FLUSH_DELAY, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+		scheduler.scheduleWithFixedDelay(this::logMetrics, METRICS_DELAY, METRICS_DELAY, TimeUnit.MILLISECONDS);
+	}
+
+	private static AtomicIntegerArray createEmptyArray(int length) {
+		AtomicIntegerArray array = new AtomicIntegerArray(length);
+		for (int i = 0; i < length; i++) {
+			array.set(i, UNKNOWN);
+		}
+		return array;
+	}
+
+	private static int getStripeIndex(int productId) {
+		return (productId & Integer.MAX_VALUE) % STRIPES_NUMBER;
+	}
+
+	private ReentrantLock getStripe(int productId) {
+		return stripes[getStripeIndex(productId)];
+	}
+
+	/**
+	 * @param productId the id of the product
+	 * @return the current stock of the product
+	 * @throws StockException if the product doesn't exist
+	 */
+	public int getStock(int productId) throws StockException {
+		AtomicIntegerArray currentStocks = stocks;
+		int stock = productId >= 0 && productId < currentStocks.length() ? currentStocks.get(productId) : UNKNOWN;
+		if (stock == UNKNOWN) {
+			throw new StockException("Le produit " + productId + " n'a pas t trouv");
+		}
+		return stock;
+	}
+
+	/**
+	 * Add a quantity to the stock of a product
+	 *
+	 * @param productId the id of the product
+	 * @param quantity  the quantity to add (negative to remove)
+	 * @param minimum   the minimum stock allowed after modification
+	 * @param maximum   the maximum stock allowed after modification
+	 * @return the new stock
+	 * @throws StockException if the product doesn't exist or if new stock is not
+	 *                        between minimum and maximum
+	 */
+	public int adjust(int productId, int quantity, int minimum, int maximum) throws StockException {
+		return adjustAll(new int[] { productId }, new int[] { quantity }, minimum, maximum)[0];
+	}
+
+	/**
+	 * Add quantities to the stocks of several products. Either all modifications
+	 * are applied, or none of them.
+	 *
+	 * @param productIds the ids of the products (an id can be present several
+	 *                   times)
+	 * @param quantities the quantity to add for each id (negative to remove)
+	 * @param minimum    the minimum stock allowed after modification
+	 * @param maximum    the maximum stock allowed after modification
+	 * @return the new stock for each id, in the same order
+	 * @throws StockException if one of the products doesn't exist or if one of the
+	 *                        new stocks is not between minimum and maximum
+	 */
+	public int[] adjustAll(int[] productIds, int[] quantities, int minimum, int maximum) throws StockException {
+		int[] minimums = new int[productIds.length];
+		Arrays.fill(minimums, minimum);
+		return adjustAll(productIds, quantities, minimums, maximum);
+	}
+
+	/**
+	 * Add quantities to the stocks of several products, each line having its own
+	 * minimum. Either all modifications are applied, or none of them.
+	 *
+	 * @param productIds the ids of the products (an id can be present several
+	 *                   times)
+	 * @param quantities the quantity to add for each id (negative to remove)
+	 * @param minimums   the minimum stock allowed after the modification of each
+	 *                   id
+	 * @param maximum    the maximum stock allowed after modification
+	 * @return the new stock for each id, in the same order
+	 * @throws StockException if one of the products doesn't exist or if one of the
+	 *                        new stocks is not between its minimum and maximum
+	 */
+	public int[] adjustAll(int[] productIds, int[] quantities, int[] minimums, int maximum) throws StockException {
+		long journalSequence;
+		int[] result;
+		List<ReentrantLock> locks = lockStripes(productIds);
+		try {
+			AtomicIntegerArray currentStocks = stocks;
+			// first, compute new stocks without modifying anything
+			long[] newStocks = new long[productIds.length];
+			for (int i = 0; i < productIds.length; i++) {
+				long stock = getStock(productIds[i]);
+				// the same product may already have been modified before in the list
+				for (int j = 0; j < i; j++) {
+					if (productIds[j] == productIds[i]) {
+						stock = newStocks[j];
+					}
+				}
+				newStocks[i] = stock + quantities[i];
+				if (newStocks[i] < minimums[i] || newStocks[i] > maximum) {
+					throw new StockException(
+							"La nouvelle quantit du produit " + productIds[i] + " n'est pas valide : " + newStocks[i]);
+				}
+			}
+			result = new int[productIds.length];
+			for (int i = 0; i < productIds.length; i++) {
+				result[i] = (int) newStocks[i];
+			}
+			// all is valid, we write them in the journal before applying them
+			journalSequence = appendToJournal(productIds, result);
+			for (int i = 0; i < productIds.length; i++) {
+				currentStocks.set(productIds[i], result[i]);
+				modifiedProducts.add(productIds[i]);
+			}
+			oldestPendingTime.compareAndSet(0, System.currentTimeMillis());
+		} finally {
+			unlockStripes(locks);
+		}
+		if (writeAheadLog != null) {
+			// other threads can add records while we wait, they will be written with ours
+			writeAheadLog.awaitWritten(journalSequence);
+			if (writeAheadLog.isAlmostFull()) {
+				scheduler.execute(this::flush);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the sequence number of the last record added, 0 if there is no
+	 *         journal
+	 */
+	private long appendToJournal(int[] productIds, int[] stocks) throws StockException {
+		if (writeAheadLog == null) {
+			return 0;
+		}
+		try {
+			return writeAheadLog.append(productIds, stocks);
+		} catch (IOException e) {
+			logger.error(e.getMessage());
+			scheduler.execute(this::flush);
+			throw new StockException("Le stock ne peut pas tre modifi pour l'instant, veuillez ressayer.", e);
+		}
+	}
+
+	/**
+	 * Lock all the stripes of these products, always in the same order
+	 */
+	private List<ReentrantLock> lockStripes(int[] productIds) {
+		boolean[] isNeeded = new boolean[STRIPES_NUMBER];
+		for (int productId : productIds) {
+			isNeeded[getStripeIndex(productId)] = true;
+		}
+		resizeLock.readLock().lock();
+		List<ReentrantLock> locks = new ArrayList<>();
+		for (int i = 0; i < STRIPES_NUMBER; i++) {
+			if (isNeeded[i]) {
+				stripes[i].lock();
+				locks.add(stripes[i]);
+			}
+		}
+		return locks;
+	}
+
+	private void unlockStripes(List<ReentrantLock> locks) {
+		for (int i = locks.size() - 1; i >= 0; i--) {
+			locks.get(i).unlock();
+		}
+		resizeLock.readLock().unlock();
+	}
+
+	/**
+	 * Add a product that has just been created in the database
+	 */
+	public void register(int productId, int stock) {
+		setStock(productId, stock);
+	}
+
+	/**
+	 * Remove a product that has just been deleted from the database
+	 */
+	public void remove(int productId) {
+		ReentrantLock stripe = getStripe(productId);
+		resizeLock.readLock().lock();
+		stripe.lock();
+		try {
+			AtomicIntegerArray currentStocks = stocks;
+			if (productId >= 0 && productId < currentStocks.length()) {
+				currentStocks.set(productId, UNKNOWN);
+			}
+			modifiedProducts.remove(productId);
+		} finally {
+			stripe.unlock();
+			resizeLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Read again the stock of a product in the database (after another server
+	 * modified it for example). Ignored if the product has modifications not
+	 * written yet.
+	 */
+	public void reload(int productId) {
+		if (modifiedProducts.contains(productId)) {
+			logger.warn("Product " + productId + " modified elsewhere while having pending modifications");
+			return;
+		}
+		try {
+			ResultSet result = databaseManager
+					.executeSelectQueryParams("SELECT stock_total_produit FROM produit WHERE id_produit = ?", productId);
+			if (result.next()) {
+				setStock(productId, result.getInt(1));
+			} else {
+				remove(productId);
+			}
+		} catch (SQLException e) {
+			logger.error("Could not reload stock of product " + productId + " : " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Read again the stocks of all products in the database (after another server
+	 * imported products for example). Products having modifications not written
+	 * yet keep their stock, products not in the database anymore are removed.
+	 */
+	public void reloadAll() {
+		// a stock being written could be read before its writing
+		synchronized (flushLock) {
+			try {
+				ResultSet result = databaseManager
+						.executeSelectQueryParams("SELECT id_produit, stock_total_produit FROM produit");
+				Set<Integer> productIds = new HashSet<>();
+				int ignoredNumber = 0;
+				while (result.next()) {
+					productIds.add(result.getInt(1));
+					if (!setStockIfNotModified(result.getInt(1), result.getInt(2))) {
+						ignoredNumber++;
+					}
+				}
+				AtomicIntegerArray currentStocks = stocks;
+				for (int productId = 0; productId < currentStocks.length(); productId++) {
+					if (currentStocks.get(productId) != UNKNOWN && !productIds.contains(productId)) {
+						remove(productId);
+					}
+				}
+				if (ignoredNumber > 0) {
+					logger.warn(ignoredNumber + " products modified elsewhere while having pending modifications");
+				}
+			} catch (SQLException e) {
+				logger.error("Could not reload stocks : " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * @return false if the product has modifications not written yet : its stock
+	 *         is not modified then
+	 */
+	private boolean setStockIfNotModified(int productId, int stock) {
+		if (productId < 0) {
+			return true;
+		}
+		if (productId >= stocks.length()) {
+			grow(productId);
+		}
+		ReentrantLock stripe = getStripe(productId);
+		resizeLock.readLock().lock();
+		stripe.lock();
+		try {
+			// products are added to the modified ones with the lock of their stripe
+			if (modifiedProducts.contains(productId)) {
+				return false;
+			}
+			stocks.set(productId, stock);
+			return true;
+		} finally {
+			stripe.unlock();
+			resizeLock.readLock().unlock();
+		}
+	}
+
+	private void setStock(int productId, int stock) {
+		if (productId < 0) {
+			return;
+		}
+		if (productId >= stocks.length()) {
+			grow(productId);
+		}
+		ReentrantLock stripe = getStripe(productId);
+		resizeLock.readLock().lock();
+		stripe.lock();
+		try {
+			stocks.set(productId, stock);
+		} finally {
+			stripe.unlock();
+			resizeLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Replace the array with a bigger one, able to contain this id
+	 */
+	private void grow(int productId) {
+		resizeLock.writeLock().lock();
+		try {
+			AtomicIntegerArray currentStocks = stocks;
+			if (productId < currentStocks.length()) {
+				// another thread already did it
+				return;
+			}
+			AtomicIntegerArray newStocks = createEmptyArray(Math.max(productId + 1, currentStocks.length() * 2));
+			for (int i = 0; i < currentStocks.length(); i++) {
+				newStocks.set(i, currentStocks.get(i));
+			}
+			stocks = newStocks;
+		} finally {
+			resizeLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the number of products whose stock is not written in the database
+	 *         yet
+	 */
+	public int getPendingProductsNumber() {
+		return modifiedProducts.size();
+	}
+
+	/**
+	 * @return the time since the oldest modification not written in the database
+	 *         (in milliseconds), 0 if all is written
+	 */
+	public long getPersistenceLag() {
+		long oldest = oldestPendingTime.get();
+		return oldest == 0 ? 0 : System.currentTimeMillis() - oldest;
+	}
+
+	/**
+	 * Log the persistence lag, so it can be followed in the logs of the server
+	 */
+	private void logMetrics() {
+		logger.info("Stock persistence lag : " + getPersistenceLag() + " ms, " + getPendingProductsNumber()
+				+ " products not written yet");
+	}
+
+	/**
+	 * Write in the database the stocks of all products modified since last time.
+	 * If a journal is used, the records written are then marked with a checkpoint.
+	 */
+	public void flush() {
+		synchronized (flushLock) {
+			if (modifiedProducts.isEmpty()) {
+				return;
+			}
+			long journalSequence = 0;
+			if (writeAheadLog != null) {
+				// no modification must be between its journal record and its application
+				List<ReentrantLock> locks = lockStripes(ALL_STRIPES);
+				journalSequence = writeAheadLog.getLastSequence();
+				unlockStripes(locks);
+			}
+			long lag = getPersistenceLag();
+			long flushStartTime = System.currentTimeMillis();
+			List<Object[]> paramsList = new ArrayList<>();
+			for (Integer productId : modifiedProducts) {
+				// removed before reading stock : a modification happening now will add it again
+				modifiedProducts.remove(productId);
+				AtomicIntegerArray currentStocks = stocks;
+				int stock = currentStocks.get(productId);
+				if (stock != UNKNOWN) {
+					paramsList.add(new Object[] { stock, productId });
+				}
+			}
+			try {
+				databaseManager.executeBatchDmlQueryParams(UPDATE_QUERY, paramsList);
+				// modifications made during writing are still pending
+				oldestPendingTime.set(modifiedProducts.isEmpty() ? 0 : flushStartTime);
+				if (writeAheadLog != null) {
+					writeAheadLog.checkpoint(journalSequence);
+				}
+				if (lag > LAG_WARNING) {
+					logger.warn("Stocks written with " + lag + " ms of lag");
+				}
+			} catch (IllegalArgumentException | SQLException e) {
+				logger.error("Could not write stocks (" + paramsList.size() + " products) : " + e.getMessage());
+				for (Object[] params : paramsList) {
+					modifiedProducts.add((Integer) params[1]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stop writing periodically, and write the stocks not written yet
+	 */
+	public void close() {
+		scheduler.shutdown();
+		flush();
+		if (writeAheadLog != null) {
+			writeAheadLog.close();
+		}
+	}
+}
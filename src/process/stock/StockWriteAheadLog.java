@@ -0,0 +1,274 @@
+package process.stock;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+import logger.LoggerUtility;
+
+/**
+ * Journal written on the local disk before a stock modification is applied, so
+ * modifications not written in the database yet are not lost if the server
+ * crashes.<p>
+ * The file is mapped in memory. Each record contains the new stock of a product
+ * (not the quantity added), so reading a record twice gives the same result.<p>
+ * Writing on disk is done for several records at once : a thread waiting for
+ * its record to be on disk writes all records added before, and threads
+ * arriving meanwhile wait for the next writing.<p>
+ * The records are written in the file as in a ring : the place of a record is
+ * given by its sequence number. When the database contains all modifications
+ * until a record, a checkpoint is saved and the places of these records can be
+ * used again by the next ones, so the journal never needs to be emptied.
+ *
+ * @author Aldric Vitali Silvestre <aldric.vitali@outlook.fr>
+ */
+public class StockWriteAheadLog {
+	private static Logger logger = LoggerUtility.getLogger(StockWriteAheadLog.class, LoggerUtility.LOG_PREFERENCE);
+
+	/**
+	 * Change this constant in order to modify the size of new files. A record
+	 * takes {@link #RECORD_SIZE} bytes.
+	 */
+	private static final int FILE_SIZE = 16 * 1024 * 1024;
+
+	private static final int MAGIC_NUMBER = 0x44525753;
+
+	/**
+	 * Header : magic number (int), checkpoint (long), number of records the file
+	 * can contain (int)
+	 */
+	private static final int HEADER_SIZE = 16;
+	private static final int CHECKPOINT_POSITION = 4;
+	private static final int CAPACITY_POSITION = 12;
+
+	/**
+	 * Record : sequence number (long), product id (int), stock (int), checksum
+	 * (int)
+	 */
+	private static final int RECORD_SIZE = 20;
+
+	private RandomAccessFile file;
+	private MappedByteBuffer buffer;
+
+	/**
+	 * Number of records the file can contain
+	 */
+	private int capacity;
+
+	/**
+	 * Sequence number of the last record added
+	 */
+	private volatile long lastSequence;
+
+	/**
+	 * Sequence number of the last record saved with a checkpoint
+	 */
+	private long checkpointSequence;
+
+	/**
+	 * Sequence number of the last record written on disk
+	 */
+	private long syncedSequence;
+	private boolean isSyncing = false;
+	private ReentrantLock syncLock = new ReentrantLock();
+	private Condition syncDone = syncLock.newCondition();
+
+	/**
+	 * Open the journal, or create it if the file doesn't exist
+	 *
+	 * @param path the path of the file
+	 * @throws IOException if the file can't be opened
+	 */
+	public StockWriteAheadLog(String path) throws IOException {
+		this(path, (FILE_SIZE - HEADER_SIZE) / RECORD_SIZE);
+	}
+
+	/**
+	 * Open the journal, or create it if the file doesn't exist
+	 *
+	 * @param path     the path of the file
+	 * @param capacity the number of records a new file can contain (an existing
+	 *                 file keeps its own)
+	 * @throws IOException if the file can't be opened
+	 */
+	public StockWriteAheadLog(String path, int capacity) throws IOException {
+		File journalFile = new File(path);
+		if (journalFile.getParentFile() != null) {
+			journalFile.getParentFile().mkdirs();
+		}
+		file = new RandomAccessFile(journalFile, "rw");
+		boolean isNew = true;
+		if (file.length() >= HEADER_SIZE) {
+			file.seek(0);
+			if (file.readInt() == MAGIC_NUMBER) {
+				file.seek(CAPACITY_POSITION);
+				int fileCapacity = file.readInt();
+				if (fileCapacity > 0) {
+					capacity = fileCapacity;
+					isNew = false;
+				}
+			}
+		}
+		this.capacity = capacity;
+		buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+				HEADER_SIZE + (long) capacity * RECORD_SIZE);
+		if (isNew) {
+			logger.info("New stock journal created in " + path);
+			buffer.putInt(0, MAGIC_NUMBER);
+			buffer.putLong(CHECKPOINT_POSITION, 0);
+			buffer.putInt(CAPACITY_POSITION, capacity);
+			buffer.force();
+		}
+		checkpointSequence = buffer.getLong(CHECKPOINT_POSITION);
+		lastSequence = checkpointSequence;
+		syncedSequence = checkpointSequence;
+	}
+
+	/**
+	 * Read all records that are not in the database yet (after the checkpoint).
+	 * Must be called once, before any record is added.
+	 *
+	 * @return the records, each one being {product id, stock}, in the order they
+	 *         have been added
+	 */
+	public synchronized List<int[]> readPendingRecords() {
+		List<int[]> records = new ArrayList<>();
+		for (long sequence = checkpointSequence + 1; sequence - checkpointSequence <= capacity; sequence++) {
+			int recordPosition = getPosition(sequence);
+			int productId = buffer.getInt(recordPosition + 8);
+			int stock = buffer.getInt(recordPosition + 12);
+			int checksum = buffer.getInt(recordPosition + 16);
+			// an older record (of the previous turn) or a record not fully written : it's the end
+			if (buffer.getLong(recordPosition) != sequence || checksum != computeChecksum(sequence, productId, stock)) {
+				break;
+			}
+			records.add(new int[] { productId, stock });
+			lastSequence = sequence;
+		}
+		syncedSequence = lastSequence;
+		if (!records.isEmpty()) {
+			logger.info(records.size() + " stock modifications found in journal");
+		}
+		return records;
+	}
+
+	/**
+	 * @return the position of the record in the file
+	 */
+	private int getPosition(long sequence) {
+		return HEADER_SIZE + (int) (sequence % capacity) * RECORD_SIZE;
+	}
+
+	private static int computeChecksum(long sequence, int productId, int stock) {
+		int hash = MAGIC_NUMBER;
+		hash = 31 * hash + Long.hashCode(sequence);
+		hash = 31 * hash + productId;
+		hash = 31 * hash + stock;
+		return hash;
+	}
+
+	/**
+	 * Add records in the journal, all of them or none if there is not enough
+	 * space. They will only be on disk after {@link #awaitWritten(long)}.
+	 *
+	 * @param productIds the ids of the products
+	 * @param stocks     the new stock of each product
+	 * @return the sequence number of the last record added
+	 * @throws IOException if the journal is full (database is too late)
+	 */
+	public synchronized long append(int[] productIds, int[] stocks) throws IOException {
+		// places of records not in the database yet can't be used
+		if (lastSequence + productIds.length - checkpointSequence > capacity) {
+			throw new IOException("Le journal des stocks est plein.");
+		}
+		for (int i = 0; i < productIds.length; i++) {
+			long sequence = lastSequence + 1;
+			int position = getPosition(sequence);
+			buffer.putLong(position, sequence);
+			buffer.putInt(position + 8, productIds[i]);
+			buffer.putInt(position + 12, stocks[i]);
+			buffer.putInt(position + 16, computeChecksum(sequence, productIds[i], stocks[i]));
+			lastSequence = sequence;
+		}
+		return lastSequence;
+	}
+
+	/**
+	 * @return true if the journal is almost full, and stocks should be written in
+	 *         the database as soon as possible
+	 */
+	public synchronized boolean isAlmostFull() {
+		return lastSequence - checkpointSequence > capacity * 3L / 4;
+	}
+
+	/**
+	 * @return the sequence number of the last record added
+	 */
+	public long getLastSequence() {
+		return lastSequence;
+	}
+
+	/**
+	 * Wait until the record is written on disk
+	 *
+	 * @param sequence the sequence number of the record
+	 */
+	public void awaitWritten(long sequence) {
+		syncLock.lock();
+		try {
+			while (syncedSequence < sequence) {
+				if (isSyncing) {
+					// another thread is writing, maybe our record too
+					syncDone.awaitUninterruptibly();
+					continue;
+				}
+				isSyncing = true;
+				long sequenceToSync = lastSequence;
+				syncLock.unlock();
+				try {
+					buffer.force();
+				} finally {
+					syncLock.lock();
+					isSyncing = false;
+					syncDone.signalAll();
+				}
+				syncedSequence = Math.max(syncedSequence, sequenceToSync);
+			}
+		} finally {
+			syncLock.unlock();
+		}
+	}
+
+	/**
+	 * Save that all records until this one are in the database : their places can
+	 * then be used by the next records.
+	 *
+	 * @param sequence the sequence number of the last record in the database
+	 */
+	public synchronized void checkpoint(long sequence) {
+		if (sequence <= checkpointSequence) {
+			return;
+		}
+		buffer.putLong(CHECKPOINT_POSITION, sequence);
+		// the checkpoint must be on disk before records can be overwritten
+		buffer.force();
+		checkpointSequence = sequence;
+	}
+
+	public synchronized void close() {
+		buffer.force();
+		try {
+			file.close();
+		} catch (IOException e) {
+			logger.error("Error while closing stock journal : " + e.getMessage());
+		}
+	}
+}
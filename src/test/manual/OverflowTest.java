@@ -8,7 +8,10 @@ import java.net.Socket;
 
 public class OverflowTest {
 	
-	private static final int LENGTH_TO_CHECK = 9000;
+	/**
+	 * Must be greater than the maximum size of a message (the biggest buffer of the server pool)
+	 */
+	private static final int LENGTH_TO_CHECK = 1100 * 1024;
 
 	public static void main(String args[]) throws IOException{
 		BufferedReader inputFlow;
@@ -24,7 +27,8 @@ public class OverflowTest {
 		outputFlow.println("<0001><Alfred><1234>");
 		String str = inputFlow.readLine();
 		
-		if(str.equals("<9993>")) {
+		//the server adds the reconnection token after the success code
+		if(str.startsWith("<9993>")) {
 			String longMessage = createLongString();
 			System.out.println("Send very long message ("+ longMessage.length() +" characters)...");
 			outputFlow.println(longMessage);
@@ -11,7 +11,18 @@ import org.junit.runners.Suite.SuiteClasses;
  */
 @RunWith(Suite.class)
 @SuiteClasses({
-	TestEtuDatabase.class
+	TestEtuDatabase.class,
+	TestInvalidationChannel.class,
+	TestReservationManager.class,
+	TestProtocolExtractor.class,
+	TestMoney.class,
+	TestProductCatalog.class,
+	TestMessageReader.class,
+	TestRequestCoalescer.class,
+	TestProductSearchIndex.class,
+	TestSessionManager.class,
+	TestStockLedger.class,
+	TestStockWriteAheadLog.class
 })
 public class MainTestSuite {
 }
@@ -0,0 +1,71 @@
+package test.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import process.database.InvalidationChannel;
+import process.database.LocalInvalidationChannel;
+
+/**
+ * Unit tests of the messages sent between servers, using channels working only in memory.
+ * @author Aldric Vitali Silvestre
+ */
+public class TestInvalidationChannel {
+	LocalInvalidationChannel firstServer;
+	LocalInvalidationChannel secondServer;
+	List<String> recievedByFirst;
+	List<String> recievedBySecond;
+	
+	@Before
+	public void createChannels() {
+		firstServer = new LocalInvalidationChannel("server1");
+		secondServer = new LocalInvalidationChannel("server2", firstServer);
+		recievedByFirst = new ArrayList<>();
+		recievedBySecond = new ArrayList<>();
+		firstServer.addListener((table, key) -> recievedByFirst.add(table + "/" + key));
+		secondServer.addListener((table, key) -> recievedBySecond.add(table + "/" + key));
+	}
+	
+	@Test
+	public void otherServerIsWarned() {
+		firstServer.publish(InvalidationChannel.TABLE_PRODUCT, "12");
+		assertEquals(1, recievedBySecond.size());
+		assertEquals("produit/12", recievedBySecond.get(0));
+	}
+	
+	@Test
+	public void serverIgnoresItsOwnMessages() {
+		firstServer.publish(InvalidationChannel.TABLE_EMPLOYEE, "Alfred");
+		assertTrue(recievedByFirst.isEmpty());
+	}
+	
+	@Test
+	public void databaseModificationWarnsAllServers() {
+		firstServer.publishFromDatabase(InvalidationChannel.TABLE_ORDER, "3");
+		assertEquals("commande/3", recievedByFirst.get(0));
+		assertEquals("commande/3", recievedBySecond.get(0));
+	}
+	
+	@Test
+	public void wholeTableHasNoKey() {
+		List<String> keys = new ArrayList<>();
+		secondServer.addListener((table, key) -> keys.add(key));
+		firstServer.publish(InvalidationChannel.TABLE_PROMOTION, null);
+		assertEquals(1, keys.size());
+		assertNull(keys.get(0));
+	}
+	
+	@Test
+	public void closedChannelIsNotWarned() {
+		secondServer.close();
+		firstServer.publish(InvalidationChannel.TABLE_PRODUCT, "1");
+		assertTrue(recievedBySecond.isEmpty());
+	}
+}
@@ -0,0 +1,66 @@
+package test.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import exceptions.InvalidProtocolException;
+import process.connection.BufferPool;
+import process.connection.MessageReader;
+
+/**
+ * Unit tests of the reading of messages in pooled buffers.
+ * @author Aldric Vitali Silvestre
+ */
+public class TestMessageReader {
+
+	private MessageReader createReader(String messages) {
+		return new MessageReader(new ByteArrayInputStream(messages.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private String read(MessageReader reader) throws IOException, InvalidProtocolException {
+		int length = reader.readMessage();
+		return length < 0 ? null : new String(reader.getBytes(), 0, length, StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void messagesAreSplitOnNewLines() throws IOException, InvalidProtocolException {
+		MessageReader reader = createReader("<0301>\n<0303><12>\r\n<0601><Clmence>");
+		assertEquals("<0301>", read(reader));
+		assertEquals("<0303><12>", read(reader));
+		// the last message may not end with a new line
+		assertEquals("<0601><Clmence>", read(reader));
+		assertEquals(null, read(reader));
+	}
+
+	@Test
+	public void largeMessageIsRead() throws IOException, InvalidProtocolException {
+		char[] option = new char[100 * 1024];
+		Arrays.fill(option, 'a');
+		String message = "<0601><" + new String(option) + ">";
+		MessageReader reader = createReader(message + "\n<0301>\n");
+		assertEquals(message, read(reader));
+		assertEquals("<0301>", read(reader));
+	}
+
+	@Test
+	public void tooLongMessageIsSkipped() throws IOException, InvalidProtocolException {
+		char[] message = new char[BufferPool.getSharedPool().getMaximumCapacity() + 10];
+		Arrays.fill(message, 'a');
+		MessageReader reader = createReader(new String(message) + "\n<0301>\n");
+		try {
+			read(reader);
+			fail("Message should be too long");
+		} catch (InvalidProtocolException e) {
+			// expected
+		}
+		assertEquals("<0301>", read(reader));
+		reader.close();
+	}
+}
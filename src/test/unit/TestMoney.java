@@ -0,0 +1,55 @@
+package test.unit;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+
+import org.junit.Test;
+
+import data.Money;
+
+/**
+ * Unit tests of the prices stored in cents.
+ * @author Aldric Vitali Silvestre
+ */
+public class TestMoney {
+
+	@Test
+	public void pricesAreParsed() {
+		assertEquals(1200, Money.parse("12"));
+		assertEquals(1250, Money.parse("12.5"));
+		assertEquals(1205, Money.parse("12,05"));
+		assertEquals(50, Money.parse(".5"));
+		assertEquals(-199, Money.parse("-1.99"));
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void priceWithTooManyDecimalsIsRefused() {
+		Money.parse("1.999");
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void priceWithoutDigitIsRefused() {
+		Money.parse(".");
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void priceWithCharacterOutsideAsciiIsRefused() {
+		Money.parse("1\uD83D\uDE00");
+	}
+
+	@Test
+	public void pricesAreWrittenWithTwoDecimals() {
+		assertEquals("12.50", Money.toString(1250));
+		assertEquals("0.07", Money.toString(7));
+		assertEquals("-3.00", Money.toString(-300));
+	}
+
+	@Test
+	public void pricesAreConvertedForDatabase() {
+		assertEquals(new BigDecimal("12.34"), Money.toBigDecimal(1234));
+		assertEquals(1234, Money.fromBigDecimal(new BigDecimal("12.34")));
+		assertEquals(1235, Money.fromBigDecimal(new BigDecimal("12.345")));
+		assertEquals(1200, Money.fromBigDecimal(new BigDecimal("12")));
+	}
+}
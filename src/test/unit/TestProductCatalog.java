@@ -0,0 +1,122 @@
+package test.unit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import process.cache.ProductCatalog;
+import process.cache.ProductCatalog.Snapshot;
+import process.cache.ProductStockIndex;
+
+/**
+ * Unit tests of the products kept in memory.
+ * @author Aldric Vitali Silvestre
+ */
+public class TestProductCatalog {
+	ProductCatalog catalog;
+
+	@Before
+	public void createCatalog() {
+		// products are added by hand, database is not used
+		catalog = new ProductCatalog(null);
+	}
+
+	private String read(Snapshot snapshot, int productId) {
+		StringBuilder builder = new StringBuilder();
+		snapshot.appendProduct(snapshot.findSlot(productId), builder);
+		return builder.toString();
+	}
+
+	@Test
+	public void productsAreStored() {
+		catalog.put(3, "Ptes", 150, 20, ProductCatalog.NO_PROMOTION);
+		catalog.put(7, "Riz", 1205, 4, 999);
+		Snapshot snapshot = catalog.getSnapshot();
+		assertEquals(2, snapshot.getProductsNumber());
+		assertEquals("3;Ptes;1.50;20;null", read(snapshot, 3));
+		assertEquals("7;Riz;12.05;4;9.99", read(snapshot, 7));
+		assertEquals(-1, snapshot.findSlot(5));
+	}
+
+	@Test
+	public void stockAndPromotionAreModified() {
+		catalog.put(3, "Ptes", 150, 20, ProductCatalog.NO_PROMOTION);
+		assertTrue(catalog.setStock(3, 12));
+		assertTrue(catalog.setPromotion(3, 120));
+		assertFalse(catalog.setStock(4, 12));
+		assertEquals("3;Ptes;1.50;12;1.20", read(catalog.getSnapshot(), 3));
+	}
+
+	@Test
+	public void previousSnapshotDoesNotSeeNewProducts() {
+		catalog.put(1, "Lait", 100, 1, ProductCatalog.NO_PROMOTION);
+		Snapshot previous = catalog.getSnapshot();
+		catalog.put(2, "Oeufs", 200, 2, ProductCatalog.NO_PROMOTION);
+		assertEquals(-1, previous.findSlot(2));
+		assertEquals(1, previous.getProductsNumber());
+		assertEquals(2, catalog.getSnapshot().getProductsNumber());
+	}
+
+	@Test
+	public void removedProductIsNotFound() {
+		catalog.put(1, "Lait", 100, 1, ProductCatalog.NO_PROMOTION);
+		assertTrue(catalog.remove(1));
+		assertFalse(catalog.remove(1));
+		assertEquals(-1, catalog.getSnapshot().findSlot(1));
+		assertEquals(0, catalog.getSnapshot().getProductsNumber());
+		catalog.put(1, "Lait", 110, 1, ProductCatalog.NO_PROMOTION);
+		assertEquals("1;Lait;1.10;1;null", read(catalog.getSnapshot(), 1));
+	}
+
+	@Test
+	public void manyProductsAreKept() {
+		for (int i = 0; i < 10000; i++) {
+			catalog.put(i, "Produit " + (i % 100), i, i, ProductCatalog.NO_PROMOTION);
+		}
+		for (int i = 0; i < 10000; i += 2) {
+			catalog.remove(i);
+		}
+		Snapshot snapshot = catalog.getSnapshot();
+		assertEquals(5000, snapshot.getProductsNumber());
+		assertEquals(-1, snapshot.findSlot(42));
+		assertEquals("4243;Produit 43;42.43;4243;null", read(snapshot, 4243));
+		// the stock index is kept when arrays are copied
+		assertArrayEquals(new int[] { 1, 3, 5 }, snapshot.getStockIndex().getLowestStocks(3));
+	}
+
+	@Test
+	public void stocksAreSorted() {
+		catalog.put(1, "Lait", 100, 8, ProductCatalog.NO_PROMOTION);
+		catalog.put(2, "Riz", 100, 3, 90);
+		catalog.put(3, "Sel", 100, 12, ProductCatalog.NO_PROMOTION);
+		catalog.put(4, "Th", 100, 3, ProductCatalog.NO_PROMOTION);
+		ProductStockIndex stockIndex = catalog.getSnapshot().getStockIndex();
+		assertArrayEquals(new int[] { 2, 4, 1 }, stockIndex.getLowestStocks(3));
+		assertArrayEquals(new int[] { 2, 4, 1 }, stockIndex.getStocksBelow(10, 100));
+		assertArrayEquals(new int[] { 2 }, stockIndex.getStocksBelow(10, 1));
+		assertArrayEquals(new int[0], stockIndex.getStocksBelow(3, 100));
+		assertArrayEquals(new int[] { 2 }, stockIndex.getPromotions(100));
+	}
+
+	@Test
+	public void stockIndexFollowsModifications() {
+		catalog.put(1, "Lait", 100, 8, ProductCatalog.NO_PROMOTION);
+		catalog.put(2, "Riz", 100, 3, ProductCatalog.NO_PROMOTION);
+		catalog.put(3, "Sel", 100, 12, ProductCatalog.NO_PROMOTION);
+		catalog.setStock(3, 0);
+		catalog.setPromotion(1, 50);
+		catalog.remove(2);
+		ProductStockIndex stockIndex = catalog.getSnapshot().getStockIndex();
+		assertArrayEquals(new int[] { 3, 1 }, stockIndex.getLowestStocks(10));
+		assertArrayEquals(new int[] { 1 }, stockIndex.getPromotions(100));
+		catalog.setPromotion(1, ProductCatalog.NO_PROMOTION);
+		assertArrayEquals(new int[0], stockIndex.getPromotions(100));
+		// a new catalog has a new index
+		catalog.clear();
+		assertArrayEquals(new int[0], catalog.getSnapshot().getStockIndex().getLowestStocks(10));
+	}
+}
@@ -0,0 +1,71 @@
+package test.unit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import process.cache.ProductCatalog;
+import process.cache.ProductSearchIndex;
+
+/**
+ * Unit tests of the search of products by name.
+ * @author Aldric Vitali Silvestre
+ */
+public class TestProductSearchIndex {
+	ProductCatalog catalog;
+	ProductSearchIndex index;
+
+	private void put(int productId, String name) {
+		catalog.put(productId, name, 100, 10, ProductCatalog.NO_PROMOTION);
+	}
+
+	@Before
+	public void createIndex() {
+		catalog = new ProductCatalog(null);
+		index = new ProductSearchIndex(catalog);
+		put(1, "Ptes compltes");
+		put(2, "Sauce tomate");
+		put(3, "Pt de campagne");
+		put(4, "Tomates cerises");
+		put(5, "Crme brle");
+	}
+
+	@Test
+	public void textIsNormalized() {
+		assertEquals("creme brulee", ProductSearchIndex.normalize("  Crme   BRLE "));
+		assertEquals("oeufs", ProductSearchIndex.normalize("\u0152ufs"));
+	}
+
+	@Test
+	public void prefixIgnoresAccents() {
+		assertArrayEquals(new int[] { 3, 1 }, index.search("PATE", 10));
+		assertArrayEquals(new int[] { 5 }, index.search("creme", 10));
+	}
+
+	@Test
+	public void prefixMatchesComeFirst() {
+		// "tomates cerises" starts with the text, "sauce tomate" only contains it
+		assertArrayEquals(new int[] { 4, 2 }, index.search("tomat", 10));
+		assertArrayEquals(new int[] { 4 }, index.search("tomat", 1));
+	}
+
+	@Test
+	public void substringsAreFound() {
+		assertArrayEquals(new int[] { 3 }, index.search("campa", 10));
+		// too short for trigrams
+		assertArrayEquals(new int[] { 5 }, index.search("ru", 10));
+		assertArrayEquals(new int[0], index.search("riz", 10));
+	}
+
+	@Test
+	public void indexFollowsCatalog() {
+		put(6, "Ptisserie");
+		catalog.remove(1);
+		assertArrayEquals(new int[] { 3, 6 }, index.search("pat", 10));
+		// renamed product
+		put(3, "Terrine");
+		assertArrayEquals(new int[] { 6 }, index.search("pat", 10));
+	}
+}
@@ -0,0 +1,190 @@
+package test.unit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import data.Protocol;
+import data.ProtocolFrame;
+import data.enums.ActionCodes;
+import exceptions.CodeNotFoundException;
+import exceptions.InvalidProtocolException;
+import process.protocol.ProtocolExtractor;
+import process.protocol.ProtocolFactory;
+
+/**
+ * Unit tests of the reading of messages recieved from clients.
+ * @author Aldric Vitali Silvestre
+ */
+public class TestProtocolExtractor {
+	ProtocolFrame frame;
+	byte[] buffer;
+
+	@Before
+	public void createFrame() {
+		frame = new ProtocolFrame();
+		buffer = new byte[100];
+	}
+
+	private Protocol read(String message) throws InvalidProtocolException {
+		byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+		System.arraycopy(bytes, 0, buffer, 0, bytes.length);
+		return ProtocolExtractor.extract(buffer, bytes.length, frame);
+	}
+
+	private String write(Protocol protocol) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		protocol.writeTo(output);
+		return new String(output.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void fieldsAreRead() throws InvalidProtocolException {
+		Protocol protocol = read("<0102><12><5>\n");
+		assertEquals(ActionCodes.ADD_PRODUCT_QUANTITY, protocol.getActionCode());
+		assertEquals(2, protocol.getOptionsListSize());
+		assertEquals("12", protocol.getOptionsElement(0));
+		assertEquals("5", protocol.getOptionsElement(1));
+		assertEquals("<0102><12><5>", protocol.toString());
+	}
+
+	@Test
+	public void frameIsReusedForNextMessage() throws InvalidProtocolException {
+		read("<0102><12><5>");
+		Protocol protocol = read("<0303><7>");
+		assertEquals(ActionCodes.GET_SPECIFIC_PRDUCT, protocol.getActionCode());
+		assertEquals(1, protocol.getOptionsListSize());
+		assertEquals("7", protocol.getOptionsElement(0));
+	}
+
+	@Test
+	public void modifiedProtocolIsReadFromFrameAgain() throws InvalidProtocolException {
+		Protocol protocol = read("<0102><12><5>");
+		protocol.appendOption("test");
+		assertEquals(3, protocol.getOptionsListSize());
+		protocol = read("<0301>");
+		assertEquals(0, protocol.getOptionsListSize());
+	}
+
+	@Test
+	public void accentsAreDecodedFromUtf8() throws InvalidProtocolException, IOException {
+		Protocol protocol = read("<0001><Hlne><1234>");
+		assertEquals("Hlne", protocol.getOptionsElement(0));
+		assertEquals(1234, protocol.getInt(1));
+		protocol.appendOption("Nol");
+		assertEquals("<0001><Hlne><1234><Nol>\n", write(protocol));
+	}
+
+	@Test
+	public void emptyFieldIsKept() throws InvalidProtocolException {
+		Protocol protocol = read("<0601><>");
+		assertEquals("", protocol.getOptionsElement(0));
+	}
+
+	@Test(expected = InvalidProtocolException.class)
+	public void unclosedFieldIsRefused() throws InvalidProtocolException {
+		read("<0102><12");
+	}
+
+	@Test(expected = InvalidProtocolException.class)
+	public void nestedFieldIsRefused() throws InvalidProtocolException {
+		read("<0102<12>>");
+	}
+
+	@Test(expected = InvalidProtocolException.class)
+	public void unknownCodeIsRefused() throws InvalidProtocolException {
+		read("<4242><12>");
+	}
+
+	@Test(expected = InvalidProtocolException.class)
+	public void messageWithoutFieldIsRefused() throws InvalidProtocolException {
+		read("\n");
+	}
+
+	@Test
+	public void charactersAfterLengthAreIgnored() throws InvalidProtocolException {
+		read("<0102><12><5>");
+		Protocol protocol = read("<0301>");
+		assertEquals(0, protocol.getOptionsListSize());
+	}
+
+	@Test
+	public void actionCodeIsReadFromBytes() throws CodeNotFoundException {
+		byte[] bytes = "<0501>".getBytes(StandardCharsets.US_ASCII);
+		assertEquals(ActionCodes.APPLY_PROMOTION, ActionCodes.fromBytes(bytes, 1, 4));
+	}
+
+	@Test(expected = CodeNotFoundException.class)
+	public void actionCodeWithLettersIsRefused() throws CodeNotFoundException {
+		ActionCodes.fromCode("01a1");
+	}
+
+	@Test
+	public void actionCodeIsWrittenInBytes() {
+		byte[] bytes = new byte[6];
+		assertEquals(5, ActionCodes.SUCESS.writeTo(bytes, 1));
+		assertArrayEquals("\0009993\000".getBytes(StandardCharsets.US_ASCII), bytes);
+	}
+
+	@Test
+	public void numbersAreReadFromOptions() throws InvalidProtocolException {
+		Protocol protocol = read("<0102><12><-5><12.5><3,05><7>");
+		assertEquals(12, protocol.getInt(0));
+		assertEquals(-5, protocol.getInt(1));
+		assertEquals(1250, protocol.getPriceCents(2));
+		assertEquals(305, protocol.getPriceCents(3));
+		assertEquals(700, protocol.getPriceCents(4));
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void invalidNumberIsRefused() throws InvalidProtocolException {
+		read("<0102><12a><5>").getInt(0);
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void priceWithTooManyDecimalsIsRefused() throws InvalidProtocolException {
+		read("<0501><12><1.999>").getPriceCents(1);
+	}
+
+	@Test
+	public void numbersAreWrittenInOptions() {
+		Protocol protocol = new Protocol(ActionCodes.SUCESS);
+		protocol.appendInt(-42);
+		protocol.appendPrice(1205);
+		protocol.appendPrice(7);
+		protocol.appendOption("test");
+		assertEquals("<9993><-42><12.05><0.07><test>", protocol.toString());
+		assertEquals(-42, protocol.getInt(0));
+		assertEquals("12.05", protocol.getOptionsElement(1));
+	}
+
+	@Test
+	public void extremeNumbersAreWritten() {
+		Protocol protocol = new Protocol(ActionCodes.SUCESS);
+		protocol.appendInt(Long.MIN_VALUE);
+		protocol.appendInt(Long.MAX_VALUE);
+		protocol.appendInt(0);
+		assertEquals("<9993><" + Long.MIN_VALUE + "><" + Long.MAX_VALUE + "><0>", protocol.toString());
+	}
+
+	@Test
+	public void fixedResponsesAreShared() throws IOException {
+		assertSame(ProtocolFactory.createSuccessProtocol(), ProtocolFactory.createSuccessProtocol());
+		Protocol error = ProtocolFactory.getFixedErrorProtocol("erreur");
+		assertSame(error, ProtocolFactory.getFixedErrorProtocol("erreur"));
+		assertEquals("<9991><erreur>", error.toString());
+		assertEquals("<9991><erreur>\n", write(error));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void sharedResponseCannotBeModified() {
+		ProtocolFactory.createSuccessProtocol().appendOption("test");
+	}
+}
@@ -0,0 +1,121 @@
+package test.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import data.Protocol;
+import data.enums.ActionCodes;
+import process.connection.RequestCoalescer;
+
+/**
+ * Unit tests of the sharing of answers between identical requests.
+ * @author Aldric Vitali Silvestre
+ */
+public class TestRequestCoalescer {
+	RequestCoalescer coalescer = new RequestCoalescer();
+
+	private Protocol createRequest(String productId) {
+		return new Protocol(ActionCodes.GET_SPECIFIC_PRDUCT, Arrays.asList(productId));
+	}
+
+	/**
+	 * Execute a request in a new thread, blocking its execution until it can
+	 * finish
+	 */
+	private Thread executeBlocked(Protocol[] answers, int index, AtomicInteger executionsNumber,
+			CountDownLatch started, CountDownLatch canFinish) {
+		Thread thread = new Thread(() -> answers[index] = coalescer.execute(createRequest("3"), request -> {
+			Protocol answer = new Protocol(ActionCodes.SUCESS, Arrays.asList("" + executionsNumber.incrementAndGet()));
+			started.countDown();
+			try {
+				canFinish.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return answer;
+		}));
+		thread.start();
+		return thread;
+	}
+
+	private void waitUntilWaiting(Thread thread) throws InterruptedException {
+		while (thread.getState() != Thread.State.WAITING && thread.isAlive()) {
+			Thread.sleep(1);
+		}
+	}
+
+	@Test
+	public void identicalRequestsShareTheNextExecution() throws InterruptedException {
+		AtomicInteger executionsNumber = new AtomicInteger();
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch canFinish = new CountDownLatch(1);
+		Protocol[] answers = new Protocol[3];
+		Thread first = executeBlocked(answers, 0, executionsNumber, started, canFinish);
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		// both arrive while the first execution is running
+		Thread second = executeBlocked(answers, 1, executionsNumber, new CountDownLatch(1), canFinish);
+		waitUntilWaiting(second);
+		Thread third = executeBlocked(answers, 2, executionsNumber, new CountDownLatch(1), canFinish);
+		waitUntilWaiting(third);
+		canFinish.countDown();
+		first.join();
+		second.join();
+		third.join();
+		assertEquals(2, executionsNumber.get());
+		assertEquals("2", answers[1].getOptionsElement(0));
+		assertSame(answers[1], answers[2]);
+		assertTrue(answers[1].isImmutable());
+		assertEquals(0, coalescer.getPendingRequestsNumber());
+	}
+
+	@Test
+	public void executionStartedBeforeRequestIsNotJoined() throws InterruptedException {
+		AtomicInteger executionsNumber = new AtomicInteger();
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch canFinish = new CountDownLatch(1);
+		Protocol[] answers = new Protocol[2];
+		Thread first = executeBlocked(answers, 0, executionsNumber, started, canFinish);
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		Thread second = executeBlocked(answers, 1, executionsNumber, new CountDownLatch(1), canFinish);
+		waitUntilWaiting(second);
+		canFinish.countDown();
+		first.join();
+		second.join();
+		// the second request is executed after the first one has finished
+		assertEquals(2, executionsNumber.get());
+		assertEquals("1", answers[0].getOptionsElement(0));
+		assertEquals("2", answers[1].getOptionsElement(0));
+		// answers that are not shared are left as they are
+		assertFalse(answers[0].isImmutable());
+		assertFalse(answers[1].isImmutable());
+		assertEquals(0, coalescer.getPendingRequestsNumber());
+	}
+
+	@Test
+	public void finishedRequestIsExecutedAgain() {
+		AtomicInteger executionsNumber = new AtomicInteger();
+		for (int i = 0; i < 2; i++) {
+			coalescer.execute(createRequest("3"), request -> {
+				executionsNumber.incrementAndGet();
+				return new Protocol(ActionCodes.SUCESS);
+			});
+		}
+		assertEquals(2, executionsNumber.get());
+	}
+
+	@Test
+	public void differentRequestsAreNotShared() {
+		Protocol first = coalescer.execute(createRequest("3"), request -> new Protocol(ActionCodes.SUCESS));
+		Protocol second = coalescer.execute(createRequest("4"), request -> new Protocol(ActionCodes.SUCESS));
+		assertTrue(first != second);
+	}
+}
@@ -0,0 +1,114 @@
+package test.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import exceptions.StockException;
+import process.stock.ReservationManager;
+
+/**
+ * Unit tests of the reservations of products for orders.
+ * @author Aldric Vitali Silvestre
+ */
+public class TestReservationManager {
+	ReservationManager reservationManager;
+
+	@Before
+	public void createManager() {
+		reservationManager = new ReservationManager();
+	}
+
+	@Test
+	public void reservationsOfSeveralOrdersAreAdded() throws StockException {
+		reservationManager.reserve(1, 10, 3, 10);
+		reservationManager.reserve(2, 10, 4, 10);
+		assertEquals(7, reservationManager.getReservedQuantity(10));
+	}
+
+	@Test(expected = StockException.class)
+	public void cannotReserveMoreThanStock() throws StockException {
+		reservationManager.reserve(1, 10, 6, 10);
+		reservationManager.reserve(2, 10, 5, 10);
+	}
+
+	@Test(expected = StockException.class)
+	public void cannotReserveNegativeQuantity() throws StockException {
+		reservationManager.reserve(1, 10, -2, 10);
+	}
+
+	@Test
+	public void releaseFreesQuantitiesOfOrder() throws StockException {
+		reservationManager.reserve(1, 10, 3, 10);
+		reservationManager.reserve(1, 10, 2, 10);
+		reservationManager.reserve(2, 10, 4, 10);
+		Map<Integer, Integer> released = reservationManager.release(1);
+		assertEquals(Integer.valueOf(5), released.get(10));
+		assertEquals(4, reservationManager.getReservedQuantity(10));
+		assertTrue(reservationManager.release(1).isEmpty());
+	}
+
+	@Test
+	public void releaseIsRefusedIfOrderHasOtherProducts() throws StockException {
+		reservationManager.reserve(1, 10, 3, 10);
+		reservationManager.reserve(1, 11, 2, 10);
+		assertNull(reservationManager.release(1, new HashSet<>(Arrays.asList(10))));
+		assertEquals(3, reservationManager.getReservedQuantity(10));
+		Set<Integer> productIds = reservationManager.getReservedProducts(1);
+		assertEquals(new HashSet<>(Arrays.asList(10, 11)), productIds);
+		assertEquals(Integer.valueOf(2), reservationManager.release(1, productIds).get(11));
+		assertEquals(0, reservationManager.getReservedQuantity(10));
+		assertTrue(reservationManager.getReservedProducts(1).isEmpty());
+	}
+
+	@Test
+	public void cancelRemovesOnlyOneReservation() throws StockException {
+		reservationManager.reserve(1, 10, 3, 10);
+		reservationManager.reserve(1, 11, 2, 10);
+		reservationManager.cancel(1, 10, 3);
+		assertEquals(0, reservationManager.getReservedQuantity(10));
+		assertEquals(2, reservationManager.getReservedQuantity(11));
+	}
+
+	@Test
+	public void expiredReservationsAreReleased() {
+		reservationManager.restore(1, 10, 3, System.currentTimeMillis() - 1000);
+		reservationManager.restore(2, 10, 4, System.currentTimeMillis() + 60000);
+		assertEquals(1, reservationManager.releaseExpired().size());
+		assertEquals(4, reservationManager.getReservedQuantity(10));
+	}
+
+	@Test
+	public void concurrentReservationsNeverExceedStock() throws InterruptedException {
+		AtomicInteger succeeded = new AtomicInteger();
+		Thread[] threads = new Thread[8];
+		for(int i = 0; i < threads.length; i++) {
+			int orderId = i;
+			threads[i] = new Thread(() -> {
+				for(int j = 0; j < 100; j++) {
+					try {
+						reservationManager.reserve(orderId, 10, 1, 500);
+						succeeded.incrementAndGet();
+					} catch (StockException e) {
+						// stock is empty
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(500, succeeded.get());
+		assertEquals(500, reservationManager.getReservedQuantity(10));
+	}
+}
@@ -0,0 +1,68 @@
+package test.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import data.User;
+import process.connection.SessionManager;
+
+/**
+ * Unit tests of the tokens used to resume a session, time being simulated.
+ * @author Aldric Vitali Silvestre
+ */
+public class TestSessionManager {
+	private static final long MINUTE = 60 * 1000;
+
+	long now;
+	SessionManager sessionManager;
+
+	@Before
+	public void createManager() {
+		now = 1000000;
+		sessionManager = new SessionManager(() -> now);
+	}
+
+	@Test
+	public void oldConnectionCanBeResumed() {
+		String token = sessionManager.createToken(new User("Marie", false), null);
+		// connected for a long time before losing the connection
+		now += 45 * MINUTE;
+		sessionManager.startExpiration(token);
+		now += 10 * MINUTE;
+		SessionManager.Session session = sessionManager.resume(token);
+		assertNotNull(session);
+		assertEquals("Marie", session.getUser().getName());
+	}
+
+	@Test
+	public void connectedSessionIsNotCleaned() {
+		String token = sessionManager.createToken(new User("Marie", false), null);
+		now += 45 * MINUTE;
+		// creating tokens removes the expired ones
+		for (int i = 0; i < 100; i++) {
+			sessionManager.createToken(new User("Paul" + i, false), null);
+		}
+		sessionManager.startExpiration(token);
+		assertNotNull(sessionManager.resume(token));
+	}
+
+	@Test
+	public void tokenExpiresAfterConnectionLoss() {
+		String token = sessionManager.createToken(new User("Marie", false), null);
+		sessionManager.startExpiration(token);
+		now += 31 * MINUTE;
+		assertNull(sessionManager.resume(token));
+	}
+
+	@Test
+	public void tokenIsUsedOnlyOnce() {
+		String token = sessionManager.createToken(new User("Marie", false), null);
+		sessionManager.startExpiration(token);
+		assertNotNull(sessionManager.resume(token));
+		assertNull(sessionManager.resume(token));
+	}
+}
@@ -0,0 +1,54 @@
+package test.unit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import exceptions.StockException;
+import process.stock.StockLedger;
+
+/**
+ * Unit tests of the stocks kept in memory, without writing them in database.
+ * @author Aldric Vitali Silvestre
+ */
+public class TestStockLedger {
+	StockLedger ledger;
+
+	@Before
+	public void createLedger() {
+		ledger = new StockLedger(null);
+		ledger.register(1, 10);
+		ledger.register(2, 5);
+	}
+
+	@Test
+	public void severalProductsAreAdjusted() throws StockException {
+		int[] newStocks = ledger.adjustAll(new int[] { 1, 2, 1 }, new int[] { -3, 4, 2 }, 0, Integer.MAX_VALUE);
+		assertArrayEquals(new int[] { 7, 9, 9 }, newStocks);
+		assertEquals(9, ledger.getStock(1));
+	}
+
+	@Test
+	public void eachLineKeepsItsMinimum() throws StockException {
+		try {
+			// product 2 has 4 products reserved
+			ledger.adjustAll(new int[] { 1, 2 }, new int[] { -8, -2 }, new int[] { 0, 4 }, Integer.MAX_VALUE);
+			fail("Stock of product 2 should be under its minimum");
+		} catch (StockException e) {
+			// expected
+		}
+		// nothing has been modified
+		assertEquals(10, ledger.getStock(1));
+		assertEquals(5, ledger.getStock(2));
+		ledger.adjustAll(new int[] { 1, 2 }, new int[] { -8, -1 }, new int[] { 0, 4 }, Integer.MAX_VALUE);
+		assertEquals(4, ledger.getStock(2));
+	}
+
+	@Test(expected = StockException.class)
+	public void unknownProductIsRefused() throws StockException {
+		ledger.adjust(3, 1, 0, Integer.MAX_VALUE);
+	}
+}
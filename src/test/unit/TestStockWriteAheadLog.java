@@ -0,0 +1,115 @@
+package test.unit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import process.stock.StockWriteAheadLog;
+
+/**
+ * Unit tests of the journal of stock modifications.
+ * @author Aldric Vitali Silvestre
+ */
+public class TestStockWriteAheadLog {
+	File journalFile;
+	StockWriteAheadLog journal;
+
+	@Before
+	public void createJournal() throws IOException {
+		journalFile = File.createTempFile("stock-journal", ".bin");
+		journalFile.delete();
+		journal = new StockWriteAheadLog(journalFile.getPath(), 10);
+		journal.readPendingRecords();
+	}
+
+	@After
+	public void deleteJournal() {
+		journal.close();
+		journalFile.delete();
+	}
+
+	/**
+	 * Close the journal and open it again, as when the server restarts
+	 */
+	private List<int[]> reopen() throws IOException {
+		journal.close();
+		journal = new StockWriteAheadLog(journalFile.getPath(), 10);
+		return journal.readPendingRecords();
+	}
+
+	private long append(int productId, int stock) throws IOException {
+		long sequence = journal.append(new int[] { productId }, new int[] { stock });
+		journal.awaitWritten(sequence);
+		return sequence;
+	}
+
+	@Test
+	public void recordsAfterCheckpointAreReplayed() throws IOException {
+		long first = append(1, 10);
+		append(2, 20);
+		append(1, 15);
+		journal.checkpoint(first);
+		List<int[]> records = reopen();
+		assertEquals(2, records.size());
+		assertArrayEquals(new int[] { 2, 20 }, records.get(0));
+		assertArrayEquals(new int[] { 1, 15 }, records.get(1));
+	}
+
+	@Test
+	public void nothingIsReplayedAfterLastCheckpoint() throws IOException {
+		append(1, 10);
+		journal.checkpoint(append(2, 20));
+		assertTrue(reopen().isEmpty());
+		// sequence numbers continue after the checkpoint
+		append(3, 30);
+		assertEquals(1, reopen().size());
+	}
+
+	@Test
+	public void journalIsUsedAgainAfterCheckpoints() throws IOException {
+		// much more records than the journal can contain, never all in database
+		long lastSequence = 0;
+		for (int i = 0; i < 100; i++) {
+			long sequence = append(i, i * 2);
+			journal.checkpoint(lastSequence);
+			lastSequence = sequence;
+		}
+		List<int[]> records = reopen();
+		assertEquals(1, records.size());
+		assertArrayEquals(new int[] { 99, 198 }, records.get(0));
+		// records written after the end of the file are read in order
+		for (int i = 0; i < 5; i++) {
+			append(100 + i, i);
+		}
+		records = reopen();
+		assertEquals(6, records.size());
+		assertArrayEquals(new int[] { 104, 4 }, records.get(5));
+	}
+
+	@Test
+	public void fullJournalRefusesRecords() throws IOException {
+		long sequence = 0;
+		for (int i = 0; i < 10; i++) {
+			sequence = append(i, i);
+		}
+		assertTrue(journal.isAlmostFull());
+		try {
+			append(10, 10);
+			fail("Journal should be full");
+		} catch (IOException e) {
+			// expected
+		}
+		journal.checkpoint(sequence - 5);
+		journal.append(new int[] { 10, 11 }, new int[] { 10, 11 });
+		assertEquals(7, reopen().size());
+	}
+}